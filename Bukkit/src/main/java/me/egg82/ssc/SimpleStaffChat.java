@@ -19,16 +19,18 @@ import me.egg82.ssc.enums.Message;
 import me.egg82.ssc.events.EventHolder;
 import me.egg82.ssc.events.PlayerChatEvents;
 import me.egg82.ssc.events.PlayerLoginUpdateNotifyHandler;
+import me.egg82.ssc.events.RecipientIndexEvents;
 import me.egg82.ssc.extended.CachedConfigValues;
 import me.egg82.ssc.extended.Configuration;
 import me.egg82.ssc.hooks.PlayerAnalyticsHook;
 import me.egg82.ssc.hooks.PluginHook;
 import me.egg82.ssc.services.BukkitPostHandler;
 import me.egg82.ssc.services.GameAnalyticsErrorHandler;
+import me.egg82.ssc.services.LevelRegistry;
 import me.egg82.ssc.services.PluginMessageFormatter;
+import me.egg82.ssc.services.RecipientIndex;
 import me.egg82.ssc.services.StorageMessagingHandler;
 import me.egg82.ssc.storage.Storage;
-import me.egg82.ssc.storage.StorageException;
 import me.egg82.ssc.utils.*;
 import ninja.egg82.events.BukkitEventSubscriber;
 import ninja.egg82.events.BukkitEvents;
@@ -58,6 +60,10 @@ public class SimpleStaffChat {
     private List<BukkitEventSubscriber<?>> events = new ArrayList<>();
     private List<Integer> tasks = new ArrayList<>();
 
+    private final RecipientIndex recipientIndex = new RecipientIndex();
+    private BukkitPostHandler postHandler;
+    private LevelRegistry levelRegistry;
+
     private Metrics metrics = null;
 
     private final Plugin plugin;
@@ -185,9 +191,12 @@ public class SimpleStaffChat {
     }
 
     private void loadServices() {
-        StorageMessagingHandler handler = new StorageMessagingHandler(new BukkitPostHandler(plugin, commandManager));
+        postHandler = new BukkitPostHandler(recipientIndex);
+        StorageMessagingHandler handler = new StorageMessagingHandler(postHandler, new File(plugin.getDataFolder(), "replication"));
         ServiceLocator.register(handler);
         ConfigurationFileUtil.reloadConfig(plugin, handler, handler);
+        levelRegistry = handler.getLevelRegistry();
+        levelRegistry.invalidate();
 
         // TODO: get all toggle states from other servers/network messaging
 
@@ -229,27 +238,12 @@ public class SimpleStaffChat {
         commandManager.getCommandCompletions().registerCompletion("level", c -> {
             String lower = c.getInput().toLowerCase().replace(" ", "_");
             Set<String> retVal = new LinkedHashSet<>();
-            Optional<CachedConfigValues> cachedConfig = ConfigUtil.getCachedConfig();
-            if (!cachedConfig.isPresent()) {
-                logger.error("Cached config could not be fetched.");
-                return ImmutableList.copyOf(retVal);
-            }
-            List<LevelResult> levels = null;
-            for (Storage s : cachedConfig.get().getStorage()) {
-                try {
-                    levels = s.getLevels();
-                    break;
-                } catch (StorageException ex) {
-                    logger.error("Could not get levels from " + s.getClass().getSimpleName() + ".", ex);
-                }
-            }
-            if (levels != null) {
-                for (LevelResult level : levels) {
-                    if (!lower.isEmpty() && String.valueOf(level.getLevel()).startsWith(lower)) {
-                        retVal.add(String.valueOf(level.getLevel()));
-                    } else if (level.getName().toLowerCase().startsWith(lower)) {
-                        retVal.add(level.getName());
-                    }
+            // Completion runs on the main thread, so it only ever reads the registry's snapshot
+            for (LevelResult level : levelRegistry.getLevels()) {
+                if (!lower.isEmpty() && String.valueOf(level.getLevel()).startsWith(lower)) {
+                    retVal.add(String.valueOf(level.getLevel()));
+                } else if (level.getName() != null && level.getName().toLowerCase().startsWith(lower)) {
+                    retVal.add(level.getName());
                 }
             }
             return ImmutableList.copyOf(retVal);
@@ -280,9 +274,15 @@ public class SimpleStaffChat {
     private void loadEvents() {
         events.add(BukkitEvents.subscribe(plugin, PlayerLoginEvent.class, EventPriority.LOW).handler(e -> new PlayerLoginUpdateNotifyHandler(plugin, commandManager).accept(e)));
         eventHolders.add(new PlayerChatEvents(plugin, commandManager));
+        eventHolders.add(new RecipientIndexEvents(plugin, recipientIndex));
     }
 
-    private void loadTasks() { }
+    private void loadTasks() {
+        // Bukkit has no event for permission changes, so recipients are re-checked every few seconds
+        tasks.add(Bukkit.getScheduler().scheduleSyncRepeatingTask(plugin, recipientIndex::refresh, 100L, 100L));
+        // Incoming posts are delivered in one pass per tick, rather than scheduling a task for each
+        tasks.add(Bukkit.getScheduler().scheduleSyncRepeatingTask(plugin, postHandler::deliver, 1L, 1L));
+    }
 
     private void loadHooks() {
         PluginManager manager = plugin.getServer().getPluginManager();
@@ -352,6 +352,9 @@ public class SimpleStaffChat {
     }
 
     public void unloadServices() {
+        // Drain any pending sends before the handler goes away
+        StaffChatAPI.getInstance().close();
+
         Optional<StorageMessagingHandler> storageMessagingHandler;
         try {
             storageMessagingHandler = ServiceLocator.getOptional(StorageMessagingHandler.class);
@@ -359,6 +362,10 @@ public class SimpleStaffChat {
             storageMessagingHandler = Optional.empty();
         }
         storageMessagingHandler.ifPresent(StorageMessagingHandler::close);
+
+        if (postHandler != null) {
+            postHandler.close();
+        }
     }
 
     private void log(Level level, String message) {
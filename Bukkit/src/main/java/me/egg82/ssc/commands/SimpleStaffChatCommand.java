@@ -5,6 +5,7 @@ import co.aikar.commands.CommandHelp;
 import co.aikar.commands.CommandIssuer;
 import co.aikar.commands.annotation.*;
 import co.aikar.taskchain.TaskChainFactory;
+import me.egg82.ssc.commands.internal.HistoryCommand;
 import me.egg82.ssc.commands.internal.ImportCommand;
 import me.egg82.ssc.commands.internal.ReloadCommand;
 import me.egg82.ssc.commands.internal.SetLevelCommand;
@@ -48,7 +49,7 @@ public class SimpleStaffChatCommand extends BaseCommand {
     @Description("{@@description.import}")
     @Syntax("<master> <slave> [batchSize]")
     @CommandCompletion("@storage @storage @nothing")
-    public void onImport(CommandIssuer issuer, @Conditions("storage") String master, @Conditions("storage") String slave, @Default("50") String batchSize) {
+    public void onImport(CommandIssuer issuer, @Conditions("storage") String master, @Conditions("storage") String slave, @Default("1000") String batchSize) {
         new ImportCommand(issuer, master, slave, batchSize, taskFactory.newChain()).run();
     }
 
@@ -61,6 +62,15 @@ public class SimpleStaffChatCommand extends BaseCommand {
         new SetLevelCommand(issuer, level, name, taskFactory.newChain()).run();
     }
 
+    @Subcommand("history")
+    @CommandPermission("ssc.admin")
+    @Description("{@@description.history}")
+    @Syntax("<player|level|server> [since]")
+    @CommandCompletion("@players @nothing")
+    public void onHistory(CommandIssuer issuer, String target, @Default("1d") String since) {
+        new HistoryCommand(issuer, target, since, taskFactory.newChain()).run();
+    }
+
     // TODO: Level delete/remove command
 
     @CatchUnknown @Default
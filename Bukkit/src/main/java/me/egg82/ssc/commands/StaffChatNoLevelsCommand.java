@@ -5,8 +5,6 @@ import co.aikar.commands.CommandHelp;
 import co.aikar.commands.CommandIssuer;
 import co.aikar.commands.annotation.*;
 import co.aikar.taskchain.TaskChainFactory;
-import com.google.common.collect.ImmutableList;
-import java.util.List;
 import java.util.UUID;
 import me.egg82.ssc.APIException;
 import me.egg82.ssc.StaffChatAPI;
@@ -15,8 +13,6 @@ import me.egg82.ssc.enums.Message;
 import me.egg82.ssc.extended.CachedConfigValues;
 import me.egg82.ssc.services.CollectionProvider;
 import me.egg82.ssc.services.StorageMessagingHandler;
-import me.egg82.ssc.storage.Storage;
-import me.egg82.ssc.storage.StorageException;
 import me.egg82.ssc.utils.ConfigUtil;
 import ninja.egg82.service.ServiceLocator;
 import ninja.egg82.service.ServiceNotFoundException;
@@ -67,7 +63,7 @@ public class StaffChatNoLevelsCommand extends BaseCommand {
                     }
 
                     boolean isToggle = false;
-                    LevelResult l = getLowestLevel(cachedConfig.get().getStorage());
+                    LevelResult l = getLowestLevel();
                     if (l.getLevel() == -1) {
                         if (CollectionProvider.getToggled().getOrDefault(issuer.isPlayer() ? issuer.getUniqueId() : serverID, (byte) -1) == -1) {
                             issuer.sendError(Message.ERROR__LEVEL_NOT_FOUND);
@@ -104,7 +100,7 @@ public class StaffChatNoLevelsCommand extends BaseCommand {
                     }
 
                     try {
-                        api.sendChat(issuer.isPlayer() ? issuer.getUniqueId() : serverID, l.getLevel(), chat);
+                        api.sendChat(issuer.isPlayer() ? issuer.getUniqueId() : serverID, issuer.<CommandSender>getIssuer().getName(), l.getLevel(), chat);
                         f.accept(Boolean.TRUE);
                     } catch (APIException ex) {
                         logger.error("[Hard: " + ex.isHard() + "] " + ex.getMessage(), ex);
@@ -119,22 +115,9 @@ public class StaffChatNoLevelsCommand extends BaseCommand {
                 .execute();
     }
 
-    private LevelResult getLowestLevel(List<Storage> storage) {
-        ImmutableList<LevelResult> levels = null;
-        for (Storage s : storage) {
-            try {
-                levels = s.getLevels();
-                break;
-            } catch (StorageException ex) {
-                logger.error("Could not get levels from " + s.getClass().getSimpleName() + ".", ex);
-            }
-        }
-        if (levels == null) {
-            return new LevelResult((byte) -1, null);
-        }
-
+    private LevelResult getLowestLevel() {
         LevelResult lowestLevel = null;
-        for (LevelResult level : levels) {
+        for (LevelResult level : handler.getLevelRegistry().getLevels()) {
             if (lowestLevel == null || level.getLevel() < lowestLevel.getLevel()) {
                 lowestLevel = level;
             }
@@ -0,0 +1,224 @@
+package me.egg82.ssc.commands.internal;
+
+import co.aikar.commands.CommandIssuer;
+import co.aikar.taskchain.TaskChain;
+import co.aikar.taskchain.TaskChainAbortAction;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import me.egg82.ssc.core.ChatCursor;
+import me.egg82.ssc.core.ChatResult;
+import me.egg82.ssc.core.LevelResult;
+import me.egg82.ssc.core.ServerResult;
+import me.egg82.ssc.enums.Message;
+import me.egg82.ssc.extended.CachedConfigValues;
+import me.egg82.ssc.services.StorageMessagingHandler;
+import me.egg82.ssc.services.lookup.PlayerLookup;
+import me.egg82.ssc.storage.Storage;
+import me.egg82.ssc.storage.StorageException;
+import me.egg82.ssc.utils.ConfigUtil;
+import me.egg82.ssc.utils.ValidationUtil;
+import ninja.egg82.service.ServiceLocator;
+import ninja.egg82.service.ServiceNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class HistoryCommand implements Runnable {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    // Only one page is ever held in memory, however far back the history goes
+    private static final int PAGE_SIZE = 50;
+
+    private final CommandIssuer issuer;
+    private final String target;
+    private final String since;
+    private final TaskChain<?> chain;
+
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+    public HistoryCommand(CommandIssuer issuer, String target, String since, TaskChain<?> chain) {
+        this.issuer = issuer;
+        this.target = target;
+        this.since = since;
+        this.chain = chain;
+    }
+
+    public void run() {
+        if (target == null || target.isEmpty()) {
+            issuer.sendError(Message.HISTORY__NO_TARGET);
+            return;
+        }
+
+        long duration = getDuration(since == null ? "1d" : since);
+        if (duration <= 0L) {
+            issuer.sendError(Message.HISTORY__INVALID_SINCE);
+            return;
+        }
+
+        Optional<CachedConfigValues> cachedConfig = ConfigUtil.getCachedConfig();
+        if (!cachedConfig.isPresent()) {
+            logger.error("Cached config could not be fetched.");
+            issuer.sendError(Message.ERROR__INTERNAL);
+            return;
+        }
+
+        issuer.sendInfo(Message.HISTORY__BEGIN);
+
+        long start = System.currentTimeMillis() - duration;
+
+        chain
+                .<PageFetcher>asyncCallback((v, f) -> {
+                    try {
+                        PageFetcher fetcher = getFetcher(cachedConfig.get().getStorage());
+                        if (fetcher == null) {
+                            issuer.sendError(Message.HISTORY__TARGET_NOT_FOUND);
+                        }
+                        f.accept(fetcher);
+                    } catch (StorageException | IOException ex) {
+                        logger.error("Could not find history target \"" + target + "\".", ex);
+                        issuer.sendError(Message.ERROR__INTERNAL);
+                        f.accept(null);
+                    }
+                })
+                .abortIfNull()
+                .<Long>asyncCallback((fetcher, f) -> {
+                    // Each page is sent as soon as it's read, and the cursor for the next one is the last post sent
+                    ChatCursor cursor = ChatCursor.since(start);
+                    long count = 0L;
+                    List<ChatResult> page;
+                    do {
+                        try {
+                            page = fetcher.fetch(cursor, PAGE_SIZE);
+                        } catch (StorageException ex) {
+                            logger.error("Could not get history for \"" + target + "\".", ex);
+                            f.accept(null);
+                            return;
+                        }
+                        for (ChatResult chat : page) {
+                            issuer.sendInfo(Message.HISTORY__ENTRY,
+                                    "{date}", dateFormat.format(new Date(chat.getDateTime())),
+                                    "{server}", chat.getServerName(),
+                                    "{level}", chat.getLevelName(),
+                                    "{player}", chat.getPlayerName() != null ? chat.getPlayerName() : chat.getPlayerID().toString(),
+                                    "{message}", chat.getMessage()
+                            );
+                            cursor = ChatCursor.after(chat);
+                        }
+                        count += page.size();
+                    } while (!page.isEmpty());
+                    f.accept(count);
+                })
+                .abortIfNull(new TaskChainAbortAction<Object, Object, Object>() {
+                    public void onAbort(TaskChain<?> chain, Object arg1) {
+                        issuer.sendError(Message.ERROR__INTERNAL);
+                    }
+                })
+                .syncLast(count -> {
+                    if (count == 0L) {
+                        issuer.sendInfo(Message.HISTORY__EMPTY);
+                    } else {
+                        issuer.sendInfo(Message.HISTORY__END, "{count}", String.valueOf(count));
+                    }
+                })
+                .execute();
+    }
+
+    private PageFetcher getFetcher(List<Storage> storage) throws StorageException, IOException {
+        if (storage.isEmpty()) {
+            return null;
+        }
+        // History is read from the first storage, same as everything else that reads
+        Storage s = storage.get(0);
+
+        // An explicit type skips the guessing, for when a player shares a name with a level or server
+        String type = null;
+        String name = target;
+        int colon = target.indexOf(':');
+        if (colon > 0) {
+            type = target.substring(0, colon).toLowerCase();
+            name = target.substring(colon + 1);
+        }
+
+        if (type == null || type.equals("level")) {
+            LevelResult level = getLevel(name);
+            if (level != null) {
+                return (after, limit) -> s.getHistoryByLevel(level.getLevel(), after, limit);
+            }
+        }
+        if (type == null || type.equals("server")) {
+            UUID serverID = getServerID(s, name);
+            if (serverID != null) {
+                return (after, limit) -> s.getHistoryByServer(serverID, after, limit);
+            }
+        }
+        if (type == null || type.equals("player")) {
+            UUID playerID = ValidationUtil.isValidUuid(name) ? UUID.fromString(name) : PlayerLookup.get(name).getUUID();
+            if (playerID != null) {
+                return (after, limit) -> s.getHistoryByPlayer(playerID, after, limit);
+            }
+        }
+        return null;
+    }
+
+    private LevelResult getLevel(String name) {
+        try {
+            return ServiceLocator.get(StorageMessagingHandler.class).getLevelRegistry().find(name);
+        } catch (InstantiationException | IllegalAccessException | ServiceNotFoundException ex) {
+            logger.error("Could not get handler service.");
+            return null;
+        }
+    }
+
+    private UUID getServerID(Storage storage, String name) throws StorageException {
+        if (ValidationUtil.isValidUuid(name)) {
+            UUID retVal = UUID.fromString(name);
+            for (ServerResult server : storage.dumpServers()) {
+                if (server.getServerID().equals(retVal)) {
+                    return retVal;
+                }
+            }
+            return null;
+        }
+
+        for (ServerResult server : storage.dumpServers()) {
+            if (name.equalsIgnoreCase(server.getName())) {
+                return server.getServerID();
+            }
+        }
+        return null;
+    }
+
+    private long getDuration(String value) {
+        if (value.length() < 2) {
+            return -1L;
+        }
+
+        long amount;
+        try {
+            amount = Long.parseLong(value.substring(0, value.length() - 1));
+        } catch (NumberFormatException ignored) {
+            return -1L;
+        }
+
+        switch (Character.toLowerCase(value.charAt(value.length() - 1))) {
+            case 'm':
+                return TimeUnit.MINUTES.toMillis(amount);
+            case 'h':
+                return TimeUnit.HOURS.toMillis(amount);
+            case 'd':
+                return TimeUnit.DAYS.toMillis(amount);
+            case 'w':
+                return TimeUnit.DAYS.toMillis(amount * 7L);
+            default:
+                return -1L;
+        }
+    }
+
+    private interface PageFetcher {
+        List<ChatResult> fetch(ChatCursor after, int limit) throws StorageException;
+    }
+}
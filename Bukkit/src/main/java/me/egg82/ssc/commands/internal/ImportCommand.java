@@ -3,8 +3,9 @@ package me.egg82.ssc.commands.internal;
 import co.aikar.commands.CommandIssuer;
 import co.aikar.taskchain.TaskChain;
 import co.aikar.taskchain.TaskChainAbortAction;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.util.Optional;
-import java.util.Set;
+import java.util.concurrent.*;
 import me.egg82.ssc.core.PlayerResult;
 import me.egg82.ssc.core.RawChatResult;
 import me.egg82.ssc.enums.Message;
@@ -18,6 +19,8 @@ import org.slf4j.LoggerFactory;
 public class ImportCommand implements Runnable {
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
+    private static final long PROGRESS_INTERVAL_MILLIS = 5000L;
+
     private final CommandIssuer issuer;
     private final String masterName;
     private final String slaveName;
@@ -54,7 +57,7 @@ public class ImportCommand implements Runnable {
             return;
         }
 
-        int max = batchMax == null ? 50 : Integer.parseInt(batchMax);
+        int max = batchMax == null ? 1000 : Integer.parseInt(batchMax);
 
         int masterIndex = -1;
         int slaveIndex = -1;
@@ -82,78 +85,16 @@ public class ImportCommand implements Runnable {
         Storage slave = cachedConfig.get().getStorage().get(slaveIndex);
 
         chain
-                .sync(() -> issuer.sendInfo(Message.IMPORT__LEVELS))
-                .<Boolean>asyncCallback((v, f) -> {
-                    try {
-                        slave.loadLevels(master.dumpLevels());
-                    } catch (StorageException ex) {
-                        logger.error("Could not import levels.", ex);
-                        f.accept(null);
-                        return;
-                    }
-                    f.accept(Boolean.TRUE);
-                })
-                .abortIfNull(new TaskChainAbortAction<Object, Object, Object>() {
-                    public void onAbort(TaskChain<?> chain, Object arg1) {
-                        issuer.sendError(Message.ERROR__INTERNAL);
-                    }
-                })
-                .sync(() -> issuer.sendInfo(Message.IMPORT__SERVERS))
                 .<Boolean>asyncCallback((v, f) -> {
+                    ExecutorService pool = Executors.newFixedThreadPool(4, new ThreadFactoryBuilder().setNameFormat("SimpleStaffChat-Import-%d").build());
                     try {
-                        slave.loadServers(master.dumpServers());
-                    } catch (StorageException ex) {
-                        logger.error("Could not import servers.", ex);
+                        f.accept(copy(master, slave, max, pool) ? Boolean.TRUE : null);
+                    } catch (InterruptedException ignored) {
+                        Thread.currentThread().interrupt();
                         f.accept(null);
-                        return;
+                    } finally {
+                        pool.shutdownNow();
                     }
-                    f.accept(Boolean.TRUE);
-                })
-                .abortIfNull(new TaskChainAbortAction<Object, Object, Object>() {
-                    public void onAbort(TaskChain<?> chain, Object arg1) {
-                        issuer.sendError(Message.ERROR__INTERNAL);
-                    }
-                })
-                .sync(() -> issuer.sendInfo(Message.IMPORT__PLAYERS, "{id}", "0"))
-                .<Boolean>asyncCallback((v, f) -> {
-                    long start = 1L;
-                    Set<PlayerResult> players;
-                    do {
-                        try {
-                            players = master.dumpPlayers(start, max);
-                            slave.loadPlayers(players, start == 1L);
-                        } catch (StorageException ex) {
-                            logger.error("Could not import players.", ex);
-                            f.accept(null);
-                            return;
-                        }
-                        issuer.sendInfo(Message.IMPORT__PLAYERS, "{id}", String.valueOf(start + players.size()));
-                        start += max;
-                    } while (players.size() == max);
-                    f.accept(Boolean.TRUE);
-                })
-                .abortIfNull(new TaskChainAbortAction<Object, Object, Object>() {
-                    public void onAbort(TaskChain<?> chain, Object arg1) {
-                        issuer.sendError(Message.ERROR__INTERNAL);
-                    }
-                })
-                .sync(() -> issuer.sendInfo(Message.IMPORT__CHAT, "{id}", "0"))
-                .<Boolean>asyncCallback((v, f) -> {
-                    long start = 1L;
-                    Set<RawChatResult> chat;
-                    do {
-                        try {
-                            chat = master.dumpChat(start, max);
-                            slave.loadChat(chat, start == 1L);
-                        } catch (StorageException ex) {
-                            logger.error("Could not import chat.", ex);
-                            f.accept(null);
-                            return;
-                        }
-                        issuer.sendInfo(Message.IMPORT__CHAT, "{id}", String.valueOf(start + chat.size()));
-                        start += max;
-                    } while (chat.size() == max);
-                    f.accept(Boolean.TRUE);
                 })
                 .abortIfNull(new TaskChainAbortAction<Object, Object, Object>() {
                     public void onAbort(TaskChain<?> chain, Object arg1) {
@@ -163,4 +104,94 @@ public class ImportCommand implements Runnable {
                 .sync(() -> issuer.sendInfo(Message.IMPORT__END))
                 .execute();
     }
+
+    private boolean copy(Storage master, Storage slave, int max, ExecutorService pool) throws InterruptedException {
+        long playerCount;
+        long chatCount;
+        try {
+            playerCount = master.getPlayerCount();
+            chatCount = master.getChatCount();
+        } catch (StorageException ex) {
+            logger.error("Could not count data to import.", ex);
+            return false;
+        }
+
+        TableCopier<PlayerResult> players = new TableCopier<>(master::dumpPlayers, slave::loadPlayers, PlayerResult::getLongPlayerID, max, playerCount);
+        TableCopier<RawChatResult> chat = new TableCopier<>(master::dumpChat, slave::loadChat, RawChatResult::getID, max, chatCount);
+
+        // Levels, servers and players don't reference each other, so they're copied side by side
+        issuer.sendInfo(Message.IMPORT__LEVELS);
+        Future<Void> levelsFuture = pool.submit(() -> {
+            slave.loadLevels(master.dumpLevels());
+            return null;
+        });
+        issuer.sendInfo(Message.IMPORT__SERVERS);
+        Future<Void> serversFuture = pool.submit(() -> {
+            slave.loadServers(master.dumpServers());
+            return null;
+        });
+        issuer.sendInfo(Message.IMPORT__PLAYERS);
+        Future<Void> playersFuture = pool.submit(() -> {
+            players.copy(pool);
+            return null;
+        });
+
+        if (
+                !await(levelsFuture, "levels", null, null)
+                || !await(serversFuture, "servers", null, null)
+                || !await(playersFuture, "players", players, Message.IMPORT__PLAYERS_PROGRESS)
+        ) {
+            return false;
+        }
+
+        // Chat references everything else, so it goes last
+        issuer.sendInfo(Message.IMPORT__CHAT);
+        Future<Void> chatFuture = pool.submit(() -> {
+            chat.copy(pool);
+            return null;
+        });
+        return await(chatFuture, "chat", chat, Message.IMPORT__CHAT_PROGRESS);
+    }
+
+    private boolean await(Future<Void> future, String name, TableCopier<?> copier, Message progress) throws InterruptedException {
+        while (true) {
+            try {
+                future.get(PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (copier != null) {
+                    sendProgress(copier, progress);
+                }
+                return true;
+            } catch (TimeoutException ignored) {
+                if (copier != null) {
+                    sendProgress(copier, progress);
+                }
+            } catch (ExecutionException ex) {
+                logger.error("Could not import " + name + ".", ex.getCause());
+                return false;
+            }
+        }
+    }
+
+    private void sendProgress(TableCopier<?> copier, Message progress) {
+        long secondsLeft = copier.getSecondsLeft();
+        issuer.sendInfo(progress,
+                "{rows}", String.valueOf(copier.getCopied()),
+                "{total}", String.valueOf(copier.getTotal()),
+                "{rate}", String.valueOf(Math.round(copier.getRate())),
+                "{eta}", secondsLeft < 0L ? "?" : formatDuration(secondsLeft)
+        );
+    }
+
+    private String formatDuration(long seconds) {
+        long hours = seconds / 3600L;
+        long minutes = (seconds % 3600L) / 60L;
+        long secs = seconds % 60L;
+        if (hours > 0L) {
+            return String.format("%dh %02dm %02ds", hours, minutes, secs);
+        }
+        if (minutes > 0L) {
+            return String.format("%dm %02ds", minutes, secs);
+        }
+        return secs + "s";
+    }
 }
@@ -24,7 +24,11 @@ public class ReloadCommand implements Runnable {
         issuer.sendInfo(Message.RELOAD__BEGIN);
 
         chain
-                .async(() -> ConfigurationFileUtil.reloadConfig(plugin, handler, handler))
+                .async(() -> {
+                    ConfigurationFileUtil.reloadConfig(plugin, handler, handler);
+                    // The storage engines may have changed
+                    handler.getLevelRegistry().invalidate();
+                })
                 .sync(() -> issuer.sendInfo(Message.RELOAD__END))
                 .execute();
     }
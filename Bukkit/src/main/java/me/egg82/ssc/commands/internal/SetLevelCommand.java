@@ -2,16 +2,15 @@ package me.egg82.ssc.commands.internal;
 
 import co.aikar.commands.CommandIssuer;
 import co.aikar.taskchain.TaskChain;
-import com.google.common.collect.ImmutableList;
-import java.util.List;
 import me.egg82.ssc.APIException;
 import me.egg82.ssc.StaffChatAPI;
 import me.egg82.ssc.core.LevelResult;
 import me.egg82.ssc.enums.Message;
 import me.egg82.ssc.extended.CachedConfigValues;
-import me.egg82.ssc.storage.Storage;
-import me.egg82.ssc.storage.StorageException;
+import me.egg82.ssc.services.StorageMessagingHandler;
 import me.egg82.ssc.utils.ConfigUtil;
+import ninja.egg82.service.ServiceLocator;
+import ninja.egg82.service.ServiceNotFoundException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,7 +52,7 @@ public class SetLevelCommand implements Runnable {
                         return;
                     }
 
-                    LevelResult l = getLevel(level, cachedConfig.get().getStorage());
+                    LevelResult l = getLevel(level);
                     if (l == null) {
                         issuer.sendError(Message.ERROR__LEVEL_NOT_FOUND);
                         f.accept(Boolean.TRUE);
@@ -77,28 +76,22 @@ public class SetLevelCommand implements Runnable {
                 .execute();
     }
 
-    private LevelResult getLevel(String l, List<Storage> storage) {
+    private LevelResult getLevel(String l) {
         if (l == null || l.isEmpty()) {
             return null;
         }
 
-        ImmutableList<LevelResult> levels = null;
-        for (Storage s : storage) {
-            try {
-                levels = s.getLevels();
-                break;
-            } catch (StorageException ex) {
-                logger.error("Could not get levels from " + s.getClass().getSimpleName() + ".", ex);
-            }
-        }
-        if (levels == null) {
+        StorageMessagingHandler handler;
+        try {
+            handler = ServiceLocator.get(StorageMessagingHandler.class);
+        } catch (InstantiationException | IllegalAccessException | ServiceNotFoundException ex) {
+            logger.error("Could not get handler service.");
             return null;
         }
 
-        for (LevelResult level : levels) {
-            if (String.valueOf(level.getLevel()).equals(l) || level.getName().equalsIgnoreCase(l)) {
-                return level;
-            }
+        LevelResult retVal = handler.getLevelRegistry().find(l);
+        if (retVal != null) {
+            return retVal;
         }
         return isNumeric(l) ? new LevelResult(Byte.parseByte(l), null) : null;
     }
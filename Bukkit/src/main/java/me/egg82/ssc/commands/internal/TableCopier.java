@@ -0,0 +1,148 @@
+package me.egg82.ssc.commands.internal;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+import me.egg82.ssc.storage.StorageException;
+
+/**
+ * Copies one table between storage engines as a stream of pages
+ *
+ * Pages are read by ID on a separate thread into a small queue while the calling thread writes them,
+ * so reading the next page and writing the last one overlap. The queue is bounded, so a slow writer
+ * holds back the reader rather than letting the whole table pile up in memory
+ */
+class TableCopier<T> {
+    private static final int READ_AHEAD_PAGES = 4;
+
+    private final Reader<T> reader;
+    private final Writer<T> writer;
+    private final ToLongFunction<T> getID;
+    private final int pageSize;
+    private final long total;
+
+    private final BlockingQueue<Set<T>> pages = new ArrayBlockingQueue<>(READ_AHEAD_PAGES);
+    private final AtomicLong copied = new AtomicLong(0L);
+
+    private volatile long startNanos = -1L;
+    private volatile boolean stopped = false;
+    private volatile StorageException readException = null;
+
+    /**
+     * @param reader Reads a page of rows with IDs after the given one, in ID order
+     * @param writer Writes a page. The first page (which may be empty) is told to replace what's there
+     * @param getID Gets a row's ID, so the reader knows where the next page starts
+     * @param pageSize The number of rows in each page
+     * @param total The number of rows expected, for progress. This doesn't need to be exact
+     */
+    TableCopier(Reader<T> reader, Writer<T> writer, ToLongFunction<T> getID, int pageSize, long total) {
+        this.reader = reader;
+        this.writer = writer;
+        this.getID = getID;
+        this.pageSize = pageSize;
+        this.total = total;
+    }
+
+    /**
+     * Copies the table, reading ahead on the pool while this thread writes
+     * @throws StorageException if a page could not be read or written
+     * @throws InterruptedException if interrupted while waiting for a page
+     */
+    void copy(ExecutorService readPool) throws StorageException, InterruptedException {
+        startNanos = System.nanoTime();
+        Future<?> read = readPool.submit(this::read);
+        try {
+            boolean first = true;
+            while (true) {
+                Set<T> page = pages.take();
+                if (page.isEmpty()) {
+                    if (readException != null) {
+                        throw readException;
+                    }
+                    if (first) {
+                        // Nothing to copy, but what's there still needs replacing
+                        writer.write(page, true);
+                    }
+                    return;
+                }
+
+                writer.write(page, first);
+                first = false;
+                copied.addAndGet(page.size());
+            }
+        } finally {
+            stopped = true;
+            read.cancel(true);
+        }
+    }
+
+    long getCopied() { return copied.get(); }
+
+    long getTotal() { return Math.max(total, copied.get()); }
+
+    /**
+     * @return Rows copied per second so far
+     */
+    double getRate() {
+        long start = startNanos;
+        if (start < 0L) {
+            return 0.0d;
+        }
+        long elapsed = System.nanoTime() - start;
+        return elapsed <= 0L ? 0.0d : copied.get() / (elapsed / (double) TimeUnit.SECONDS.toNanos(1L));
+    }
+
+    /**
+     * @return The estimated number of seconds left, or -1 if it can't be estimated yet
+     */
+    long getSecondsLeft() {
+        double rate = getRate();
+        return rate <= 0.0d ? -1L : (long) Math.ceil((getTotal() - copied.get()) / rate);
+    }
+
+    private void read() {
+        long after = 0L;
+        try {
+            while (!stopped) {
+                Set<T> page = reader.read(after, pageSize);
+                pages.put(page);
+                if (page.isEmpty()) {
+                    return;
+                }
+                for (T row : page) {
+                    after = Math.max(after, getID.applyAsLong(row));
+                }
+            }
+        } catch (StorageException ex) {
+            fail(ex);
+        } catch (RuntimeException ex) {
+            fail(new StorageException(false, "Could not read page.", ex));
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void fail(StorageException ex) {
+        readException = ex;
+        try {
+            // An empty page ends the copy, and the writer picks up the exception from there
+            pages.put(Collections.emptySet());
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    interface Reader<T> {
+        Set<T> read(long afterID, int size) throws StorageException;
+    }
+
+    interface Writer<T> {
+        void write(Set<T> page, boolean first) throws StorageException;
+    }
+}
@@ -24,6 +24,8 @@ public enum Message implements MessageKeyProvider {
     IMPORT__SERVERS,
     IMPORT__PLAYERS,
     IMPORT__CHAT,
+    IMPORT__PLAYERS_PROGRESS,
+    IMPORT__CHAT_PROGRESS,
     IMPORT__BEGIN,
     IMPORT__END,
 
@@ -35,6 +37,14 @@ public enum Message implements MessageKeyProvider {
     LEVEL__BEGIN,
     LEVEL__END,
 
+    HISTORY__NO_TARGET,
+    HISTORY__INVALID_SINCE,
+    HISTORY__TARGET_NOT_FOUND,
+    HISTORY__BEGIN,
+    HISTORY__ENTRY,
+    HISTORY__EMPTY,
+    HISTORY__END,
+
     RELOAD__BEGIN,
     RELOAD__END;
 
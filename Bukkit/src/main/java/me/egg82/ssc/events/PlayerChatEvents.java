@@ -1,7 +1,9 @@
 package me.egg82.ssc.events;
 
+import co.aikar.commands.CommandIssuer;
 import co.aikar.commands.CommandManager;
 import java.util.Optional;
+import java.util.concurrent.CompletionException;
 import me.egg82.ssc.APIException;
 import me.egg82.ssc.enums.Message;
 import me.egg82.ssc.extended.CachedConfigValues;
@@ -47,12 +49,20 @@ public class PlayerChatEvents extends EventHolder {
             return;
         }
 
-        try {
-            api.sendChat(event.getPlayer().getUniqueId(), level, event.getMessage());
-        } catch (APIException ex) {
-            logger.error("[Hard: " + ex.isHard() + "] " + ex.getMessage(), ex);
-            commandManager.getCommandIssuer(event.getPlayer()).sendError(Message.ERROR__INTERNAL);
-        }
+        CommandIssuer issuer = commandManager.getCommandIssuer(event.getPlayer());
+        api.sendChatAsync(event.getPlayer().getUniqueId(), event.getPlayer().getName(), level, event.getMessage()).whenComplete((v, ex) -> {
+            if (ex == null) {
+                return;
+            }
+
+            Throwable t = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            if (t instanceof APIException) {
+                logger.error("[Hard: " + ((APIException) t).isHard() + "] " + t.getMessage(), t);
+            } else {
+                logger.error(t.getMessage(), t);
+            }
+            issuer.sendError(Message.ERROR__INTERNAL);
+        });
     }
 
     private boolean hasMessaging() {
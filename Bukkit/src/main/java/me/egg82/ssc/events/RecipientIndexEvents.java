@@ -0,0 +1,29 @@
+package me.egg82.ssc.events;
+
+import me.egg82.ssc.services.RecipientIndex;
+import ninja.egg82.events.BukkitEvents;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.Plugin;
+
+public class RecipientIndexEvents extends EventHolder {
+    public RecipientIndexEvents(Plugin plugin, RecipientIndex index) {
+        events.add(
+                BukkitEvents.subscribe(plugin, PlayerJoinEvent.class, EventPriority.MONITOR)
+                        .handler(e -> index.update(e.getPlayer()))
+        );
+
+        events.add(
+                BukkitEvents.subscribe(plugin, PlayerQuitEvent.class, EventPriority.MONITOR)
+                        .handler(e -> index.remove(e.getPlayer()))
+        );
+
+        // Permissions may be per-world
+        events.add(
+                BukkitEvents.subscribe(plugin, PlayerChangedWorldEvent.class, EventPriority.MONITOR)
+                        .handler(e -> index.update(e.getPlayer()))
+        );
+    }
+}
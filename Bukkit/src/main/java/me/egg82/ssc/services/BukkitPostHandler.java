@@ -1,35 +1,49 @@
 package me.egg82.ssc.services;
 
-import co.aikar.commands.CommandManager;
-import java.io.IOException;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import me.egg82.ssc.core.ChatResult;
 import me.egg82.ssc.extended.CachedConfigValues;
 import me.egg82.ssc.extended.PostHandler;
-import me.egg82.ssc.services.lookup.PlayerInfo;
-import me.egg82.ssc.services.lookup.PlayerLookup;
+import me.egg82.ssc.services.lookup.PlayerNameResolver;
 import me.egg82.ssc.utils.ConfigUtil;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.entity.Player;
-import org.bukkit.plugin.Plugin;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class BukkitPostHandler implements PostHandler {
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
-    private final Plugin plugin;
-    private final CommandManager commandManager;
+    // Posts arrive from any thread and are delivered from the main thread by deliver(), once per tick
+    // Delivery stops once the tick's budget is spent, and whatever is left waits for the next tick
+    private static final long DELIVERY_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(2L);
+    private final Queue<Delivery> deliveries = new ConcurrentLinkedQueue<>();
+
+    private final RecipientIndex recipients;
 
     private final UUID serverID = new UUID(0L, 0L);
 
-    public BukkitPostHandler(Plugin plugin, CommandManager commandManager) {
-        this.plugin = plugin;
-        this.commandManager = commandManager;
+    // Compiled from whichever config was last seen, and rebuilt whenever the config is reloaded
+    private volatile Templates templates = null;
+
+    // A post whose poster's name is still being looked up waits at most this long before going out with their UUID
+    private static final long NAME_WAIT_MILLIS = 1000L;
+    private final PlayerNameResolver names = new PlayerNameResolver();
+
+    public BukkitPostHandler(RecipientIndex recipients) {
+        this.recipients = recipients;
     }
 
+    public void close() { names.close(); }
+
     public void handle(ChatResult chat) {
         Optional<CachedConfigValues> cachedConfig = ConfigUtil.getCachedConfig();
         if (!cachedConfig.isPresent()) {
@@ -37,41 +51,96 @@ public class BukkitPostHandler implements PostHandler {
             return;
         }
 
-        String formattedMessage = format(chat, cachedConfig.get().getChatFormat(), cachedConfig.get().getAllowColors());
-        CollectionProvider.getFormattedMessages().put(formattedMessage, Boolean.TRUE);
-        Bukkit.getScheduler().scheduleSyncDelayedTask(plugin, () -> {
-            commandManager.getCommandIssuer(Bukkit.getConsoleSender()).sendMessage(formattedMessage);
-            for (Player player : Bukkit.getOnlinePlayers()) {
-                if (player.hasPermission("ssc.level." + chat.getLevel())) {
-                    commandManager.getCommandIssuer(player).sendMessage(formattedMessage);
-                }
+        Templates current = templates;
+        if (current == null || current.config != cachedConfig.get()) {
+            current = new Templates(cachedConfig.get());
+            templates = current;
+        }
+
+        ChatTemplate template = current.byLevel[chat.getLevel() & 0xFF];
+        String message = cachedConfig.get().getAllowColors() ? ChatColor.translateAlternateColorCodes('&', chat.getMessage()) : ChatTemplate.stripCodes(chat.getMessage());
+        // Rendering waits for delivery, so a name lookup never blocks this thread
+        deliveries.add(new Delivery(chat, template != null ? template : current.defaultTemplate, message, getPlayerName(chat)));
+    }
+
+    /**
+     * Delivers pending posts, in order, until they run out or the tick's budget is spent
+     * Must be run from the main thread
+     */
+    public void deliver() {
+        if (deliveries.isEmpty()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        int delivered = 0;
+        int sent = 0;
+        Delivery delivery;
+        // Always deliver at least one, so a single slow post can't stall the queue
+        while ((delivered == 0 || System.nanoTime() - start < DELIVERY_BUDGET_NANOS) && (delivery = deliveries.peek()) != null) {
+            // Posts go out in order, so one waiting on its poster's name holds up the rest until it's ready
+            if (!delivery.name.isDone() && System.currentTimeMillis() < delivery.deadline) {
+                break;
             }
-        }, 1L);
+            deliveries.poll();
+
+            String name = delivery.name.getNow(null);
+            String formattedMessage = delivery.template.render(delivery.chat, name != null ? name : delivery.chat.getPlayerID().toString(), delivery.message);
+            // Sent straight to the recipients rather than through the command manager,
+            // since staff chat is already fully formatted and never gets the plugin header
+            Bukkit.getConsoleSender().sendMessage(formattedMessage);
+            Set<Player> players = recipients.getRecipients(delivery.chat.getLevel());
+            for (Player player : players) {
+                player.sendMessage(formattedMessage);
+            }
+            sent += players.size();
+            delivered++;
+        }
+
+        if (ConfigUtil.getDebugOrFalse()) {
+            logger.info("Delivered " + delivered + " post(s) (" + sent + " message(s)) in " + TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start) / 1000.0d + "ms of main thread time." + (deliveries.isEmpty() ? "" : " Carrying " + deliveries.size() + " over to the next tick."));
+        }
     }
 
     public void toggle(UUID playerID, byte level) { CollectionProvider.getToggled().put(playerID, level); }
 
-    private String format(ChatResult chat, String format, boolean allowColors) {
-        String message = allowColors ? chat.getMessage() : ChatColor.stripColor(chat.getMessage());
-        return format.
-                replace("{server}", chat.getServerName())
-                .replace("{level}", chat.getLevelName())
-                .replace("{player}", getPlayerName(chat.getPlayerID()))
-                .replace("{message}", message);
+    private CompletableFuture<String> getPlayerName(ChatResult chat) {
+        // Posts carry their poster's name, so a lookup is only needed for posts from older versions
+        if (chat.getPlayerName() != null) {
+            return CompletableFuture.completedFuture(chat.getPlayerName());
+        }
+        if (chat.getPlayerID().equals(serverID)) {
+            return CompletableFuture.completedFuture("CONSOLE");
+        }
+        return names.getName(chat.getPlayerID());
     }
 
-    private String getPlayerName(UUID uuid) {
-        if (uuid.equals(serverID)) {
-            return "CONSOLE";
+    private static class Delivery {
+        private final ChatResult chat;
+        private final ChatTemplate template;
+        private final String message;
+        private final CompletableFuture<String> name;
+        private final long deadline = System.currentTimeMillis() + NAME_WAIT_MILLIS;
+
+        private Delivery(ChatResult chat, ChatTemplate template, String message, CompletableFuture<String> name) {
+            this.chat = chat;
+            this.template = template;
+            this.message = message;
+            this.name = name;
         }
+    }
 
-        PlayerInfo info;
-        try {
-            info = PlayerLookup.get(uuid);
-        } catch (IOException ex) {
-            logger.warn("Could not fetch player name. (rate-limited?)", ex);
-            return uuid.toString();
+    private static class Templates {
+        private final CachedConfigValues config;
+        private final ChatTemplate defaultTemplate;
+        private final ChatTemplate[] byLevel = new ChatTemplate[256];
+
+        private Templates(CachedConfigValues config) {
+            this.config = config;
+            defaultTemplate = new ChatTemplate(config.getChatFormat());
+            for (Map.Entry<Byte, String> kvp : config.getLevelFormats().entrySet()) {
+                byLevel[kvp.getKey() & 0xFF] = new ChatTemplate(kvp.getValue());
+            }
         }
-        return info.getName();
     }
 }
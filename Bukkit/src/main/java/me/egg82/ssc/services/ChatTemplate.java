@@ -0,0 +1,165 @@
+package me.egg82.ssc.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import me.egg82.ssc.core.ChatResult;
+import org.bukkit.ChatColor;
+
+/**
+ * A chat format, parsed once into literal and placeholder parts with its color codes already translated
+ *
+ * Everything before the first {player} or {message} only depends on the server and level,
+ * so that part is rendered once per server/level and reused
+ */
+public class ChatTemplate {
+    private static final String[] TOKENS = new String[] { "{server}", "{level}", "{player}", "{message}" };
+    private static final int SERVER = 0;
+    private static final int LEVEL = 1;
+    private static final int PLAYER = 2;
+    private static final int MESSAGE = 3;
+
+    // Literal parts are strings, placeholders are Integers from the constants above
+    private final Object[] prefixParts;
+    private final Object[] bodyParts;
+    private final int literalLength;
+
+    private final ConcurrentMap<String, Prefix[]> prefixes = new ConcurrentHashMap<>();
+
+    public ChatTemplate(String format) {
+        if (format == null) {
+            throw new IllegalArgumentException("format cannot be null.");
+        }
+
+        List<Object> parts = new ArrayList<>();
+        String translated = ChatColor.translateAlternateColorCodes('&', format);
+        int start = 0;
+        while (start < translated.length()) {
+            int next = -1;
+            int token = -1;
+            for (int i = 0; i < TOKENS.length; i++) {
+                int index = translated.indexOf(TOKENS[i], start);
+                if (index > -1 && (next == -1 || index < next)) {
+                    next = index;
+                    token = i;
+                }
+            }
+            if (next == -1) {
+                parts.add(translated.substring(start));
+                break;
+            }
+            if (next > start) {
+                parts.add(translated.substring(start, next));
+            }
+            parts.add(token);
+            start = next + TOKENS[token].length();
+        }
+
+        int split = 0;
+        while (split < parts.size() && !(parts.get(split) instanceof Integer && ((Integer) parts.get(split) == PLAYER || (Integer) parts.get(split) == MESSAGE))) {
+            split++;
+        }
+        prefixParts = parts.subList(0, split).toArray();
+        bodyParts = parts.subList(split, parts.size()).toArray();
+
+        int length = 0;
+        for (Object part : bodyParts) {
+            if (part instanceof String) {
+                length += ((String) part).length();
+            }
+        }
+        literalLength = length;
+    }
+
+    /**
+     * @param chat The post to render
+     * @param playerName The poster's name
+     * @param message The message, already stripped of codes if need be
+     */
+    public String render(ChatResult chat, String playerName, String message) {
+        String prefix = getPrefix(chat);
+        StringBuilder builder = new StringBuilder(prefix.length() + literalLength + playerName.length() + message.length() + 16);
+        builder.append(prefix);
+        append(builder, bodyParts, chat, playerName, message);
+        return builder.toString();
+    }
+
+    /**
+     * Removes both '&' and section-sign color/format codes, without a regex
+     */
+    public static String stripCodes(String message) {
+        int length = message.length();
+        StringBuilder builder = null;
+        int copied = 0;
+        for (int i = 0; i < length - 1; i++) {
+            char c = message.charAt(i);
+            if ((c == '&' || c == ChatColor.COLOR_CHAR) && ChatColor.getByChar(message.charAt(i + 1)) != null) {
+                if (builder == null) {
+                    builder = new StringBuilder(length);
+                }
+                builder.append(message, copied, i);
+                copied = i + 2;
+                i++;
+            }
+        }
+        if (builder == null) {
+            return message;
+        }
+        builder.append(message, copied, length);
+        return builder.toString();
+    }
+
+    private String getPrefix(ChatResult chat) {
+        if (prefixParts.length == 0) {
+            return "";
+        }
+
+        String serverName = chat.getServerName() == null ? "null" : chat.getServerName();
+        String levelName = chat.getLevelName() == null ? "null" : chat.getLevelName();
+        Prefix[] byLevel = prefixes.computeIfAbsent(serverName, k -> new Prefix[256]);
+        int index = chat.getLevel() & 0xFF;
+        Prefix prefix = byLevel[index];
+        // Level names can change at runtime, so a cached prefix is only good for the name it was built with
+        if (prefix == null || !prefix.levelName.equals(levelName)) {
+            StringBuilder builder = new StringBuilder(64);
+            append(builder, prefixParts, chat, null, null);
+            prefix = new Prefix(levelName, builder.toString());
+            byLevel[index] = prefix;
+        }
+        return prefix.rendered;
+    }
+
+    private static void append(StringBuilder builder, Object[] parts, ChatResult chat, String playerName, String message) {
+        for (Object part : parts) {
+            if (part instanceof String) {
+                builder.append((String) part);
+                continue;
+            }
+            switch ((Integer) part) {
+                case SERVER:
+                    builder.append(chat.getServerName());
+                    break;
+                case LEVEL:
+                    builder.append(chat.getLevelName());
+                    break;
+                case PLAYER:
+                    builder.append(playerName);
+                    break;
+                case MESSAGE:
+                    builder.append(message);
+                    break;
+            }
+        }
+    }
+
+    private static class Prefix {
+        private final String levelName;
+        private final String rendered;
+
+        private Prefix(String levelName, String rendered) {
+            this.levelName = levelName;
+            this.rendered = rendered;
+        }
+    }
+}
@@ -15,9 +15,6 @@ public class PluginMessageFormatter extends BukkitMessageFormatter {
     }
 
     public String format(String message) {
-        if (!CollectionProvider.getFormattedMessages().getOrDefault(message, Boolean.FALSE)) {
-            message = header + message;
-        }
-        return super.format(message);
+        return super.format(header + message);
     }
 }
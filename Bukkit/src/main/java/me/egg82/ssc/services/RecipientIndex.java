@@ -0,0 +1,89 @@
+package me.egg82.ssc.services;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+
+/**
+ * Which online players can see each staff chat level, so delivering a post only touches its recipients
+ *
+ * A level is indexed the first time something is delivered to it, and from then on kept up to date
+ * as players join, leave, and change worlds. Bukkit has no event for permission changes,
+ * so {@link #refresh()} is also run on a timer to catch those.
+ *
+ * Only ever used from the main thread
+ */
+public class RecipientIndex {
+    private static final String[] PERMISSIONS = new String[256];
+    static {
+        for (int i = 0; i < PERMISSIONS.length; i++) {
+            PERMISSIONS[i] = "ssc.level." + (byte) i;
+        }
+    }
+
+    // Null until the level is first used
+    @SuppressWarnings("unchecked")
+    private final Set<Player>[] byLevel = new Set[256];
+
+    public RecipientIndex() { }
+
+    public static String getPermission(byte level) { return PERMISSIONS[level & 0xFF]; }
+
+    /**
+     * @return The online players with permission for the level. Not to be modified
+     */
+    public Set<Player> getRecipients(byte level) {
+        int index = level & 0xFF;
+        Set<Player> retVal = byLevel[index];
+        if (retVal == null) {
+            retVal = new HashSet<>();
+            for (Player player : Bukkit.getOnlinePlayers()) {
+                if (player.hasPermission(PERMISSIONS[index])) {
+                    retVal.add(player);
+                }
+            }
+            byLevel[index] = retVal;
+        }
+        return Collections.unmodifiableSet(retVal);
+    }
+
+    /**
+     * Re-checks the player against every indexed level. Used on join and world change
+     */
+    public void update(Player player) {
+        for (int i = 0; i < byLevel.length; i++) {
+            if (byLevel[i] == null) {
+                continue;
+            }
+            if (player.isOnline() && player.hasPermission(PERMISSIONS[i])) {
+                byLevel[i].add(player);
+            } else {
+                byLevel[i].remove(player);
+            }
+        }
+    }
+
+    public void remove(Player player) {
+        for (Set<Player> players : byLevel) {
+            if (players != null) {
+                players.remove(player);
+            }
+        }
+    }
+
+    /**
+     * Re-checks every online player, to pick up permission changes
+     */
+    public void refresh() {
+        for (Set<Player> players : byLevel) {
+            if (players != null) {
+                players.removeIf(p -> !p.isOnline());
+            }
+        }
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            update(player);
+        }
+    }
+}
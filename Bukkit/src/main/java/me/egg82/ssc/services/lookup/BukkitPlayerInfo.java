@@ -31,7 +31,7 @@ public class BukkitPlayerInfo implements PlayerInfo {
     private static final Object uuidCacheLock = new Object();
     private static final Object nameCacheLock = new Object();
 
-    private static final Map<String, String> headers = new HashMap<>();
+    static final Map<String, String> headers = new HashMap<>();
 
     static {
         headers.put("Accept", "application/json");
@@ -141,7 +141,7 @@ public class BukkitPlayerInfo implements PlayerInfo {
         return JSONUtil.parseArray(getString(conn, status));
     }
 
-    private static JSONObject getJSONObject(HttpURLConnection conn, int status) throws IOException, ParseException, ClassCastException {
+    static JSONObject getJSONObject(HttpURLConnection conn, int status) throws IOException, ParseException, ClassCastException {
         return JSONUtil.parseObject(getString(conn, status));
     }
 
@@ -58,6 +58,17 @@ public class PaperPlayerInfo implements PlayerInfo {
 
     public String getName() { return name; }
 
+    /**
+     * Looks the name up in the server's own profile cache, without touching the network
+     */
+    static String getCachedName(UUID uuid) {
+        PlayerProfile profile = Bukkit.createProfile(uuid);
+        if ((profile.isComplete() || profile.completeFromCache()) && profile.getName() != null) {
+            return profile.getName();
+        }
+        return null;
+    }
+
     private static String nameExpensive(UUID uuid) throws IOException {
         // Currently-online lookup
         Player player = Bukkit.getPlayer(uuid);
@@ -24,6 +24,17 @@ public class PlayerLookup {
         return (isPaper) ? new PaperPlayerInfo(uuid) : new BukkitPlayerInfo(uuid);
     }
 
+    /**
+     * @return The player's name if the server already has it cached, otherwise null. Never goes to the network
+     */
+    public static String getCachedName(UUID uuid) {
+        if (uuid == null) {
+            throw new IllegalArgumentException("uuid cannot be null.");
+        }
+
+        return (isPaper) ? PaperPlayerInfo.getCachedName(uuid) : null;
+    }
+
     public static PlayerInfo get(String name) throws IOException {
         if (name == null) {
             throw new IllegalArgumentException("name cannot be null.");
@@ -0,0 +1,248 @@
+package me.egg82.ssc.services.lookup;
+
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import me.egg82.ssc.extended.CachedConfigValues;
+import me.egg82.ssc.utils.ConfigUtil;
+import ninja.egg82.json.JSONWebUtil;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves player names without ever blocking the caller
+ *
+ * Concurrent requests for the same player share one lookup, and misses are gathered for a moment
+ * and sent to the configured endpoint together
+ */
+public class PlayerNameResolver {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final long BATCH_WINDOW_MILLIS = 50L;
+    private static final int MAX_BATCH_SIZE = 100;
+    private static final int TIMEOUT = 5000;
+
+    private final ExecutorService workPool = Executors.newFixedThreadPool(1, new ThreadFactoryBuilder().setNameFormat("SimpleStaffChat-NameLookup-%d").build());
+    private final BlockingQueue<PendingLookup> queue = new LinkedBlockingQueue<>();
+
+    // A lookup that completes with null isn't kept, so a failed lookup is retried the next time it's needed
+    private final AsyncLoadingCache<UUID, String> cache = Caffeine.newBuilder()
+            .expireAfterWrite(1L, TimeUnit.HOURS)
+            .buildAsync((uuid, executor) -> lookup(uuid));
+
+    private volatile boolean closed = false;
+
+    public PlayerNameResolver() {
+        workPool.execute(this::run);
+    }
+
+    public void close() {
+        closed = true;
+        workPool.shutdown();
+        try {
+            if (!workPool.awaitTermination(4L, TimeUnit.SECONDS)) {
+                workPool.shutdownNow();
+            }
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+
+        PendingLookup lookup;
+        while ((lookup = queue.poll()) != null) {
+            lookup.future.complete(null);
+        }
+    }
+
+    /**
+     * @return The player's name, completing with null if it could not be found
+     */
+    public CompletableFuture<String> getName(UUID uuid) {
+        if (uuid == null) {
+            throw new IllegalArgumentException("uuid cannot be null.");
+        }
+
+        return cache.get(uuid);
+    }
+
+    private CompletableFuture<String> lookup(UUID uuid) {
+        // Online players are free, and by far the most common case
+        Player player = Bukkit.getPlayer(uuid);
+        if (player != null) {
+            return CompletableFuture.completedFuture(player.getName());
+        }
+
+        PendingLookup lookup = new PendingLookup(uuid);
+        if (closed) {
+            lookup.future.complete(null);
+        } else {
+            queue.add(lookup);
+        }
+        return lookup.future;
+    }
+
+    private void run() {
+        List<PendingLookup> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (!closed) {
+            try {
+                PendingLookup first = queue.poll(1L, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                long deadline = System.currentTimeMillis() + BATCH_WINDOW_MILLIS;
+                while (batch.size() < MAX_BATCH_SIZE) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    PendingLookup next = remaining > 0L ? queue.poll(remaining, TimeUnit.MILLISECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+                closed = true;
+            }
+
+            if (!batch.isEmpty()) {
+                resolve(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void resolve(List<PendingLookup> batch) {
+        Optional<CachedConfigValues> cachedConfig = ConfigUtil.getCachedConfig();
+        String endpoint = cachedConfig.isPresent() ? cachedConfig.get().getLookupEndpoint() : "https://sessionserver.mojang.com/session/minecraft/profile/{uuid}";
+        String bulkEndpoint = cachedConfig.isPresent() ? cachedConfig.get().getLookupBulkEndpoint() : "";
+
+        Map<UUID, String> names = new HashMap<>();
+        for (PendingLookup lookup : batch) {
+            String name = PlayerLookup.getCachedName(lookup.uuid);
+            if (name != null) {
+                names.put(lookup.uuid, name);
+            }
+        }
+
+        if (!bulkEndpoint.isEmpty()) {
+            List<UUID> missing = new ArrayList<>();
+            for (PendingLookup lookup : batch) {
+                if (!names.containsKey(lookup.uuid)) {
+                    missing.add(lookup.uuid);
+                }
+            }
+            if (!missing.isEmpty()) {
+                try {
+                    names.putAll(bulkLookup(bulkEndpoint, missing));
+                } catch (IOException ex) {
+                    logger.warn("Could not fetch " + missing.size() + " player name(s).", ex);
+                }
+            }
+        } else {
+            for (PendingLookup lookup : batch) {
+                if (names.containsKey(lookup.uuid)) {
+                    continue;
+                }
+                try {
+                    String name = singleLookup(endpoint, lookup.uuid);
+                    if (name != null) {
+                        names.put(lookup.uuid, name);
+                    }
+                } catch (RateLimitedException ex) {
+                    // Every other request would be turned away too, so the rest are left for next time
+                    logger.warn("Rate-limited while fetching player names, skipping the rest of the batch.");
+                    break;
+                } catch (IOException ex) {
+                    logger.warn("Could not fetch the name for " + lookup.uuid + ".", ex);
+                }
+            }
+        }
+
+        if (ConfigUtil.getDebugOrFalse()) {
+            logger.info("Resolved " + names.size() + "/" + batch.size() + " player name(s).");
+        }
+
+        for (PendingLookup lookup : batch) {
+            lookup.future.complete(names.get(lookup.uuid));
+        }
+    }
+
+    private String singleLookup(String endpoint, UUID uuid) throws IOException {
+        HttpURLConnection conn = JSONWebUtil.getConnection(new URL(endpoint.replace("{uuid}", undash(uuid))), "GET", TIMEOUT, "egg82/PlayerInfo", BukkitPlayerInfo.headers);
+        int status = conn.getResponseCode();
+        if (status == 204 || status == 404) {
+            // No data exists
+            return null;
+        }
+        if (status == 429) {
+            throw new RateLimitedException();
+        }
+
+        try {
+            return (String) BukkitPlayerInfo.getJSONObject(conn, status).get("name");
+        } catch (ParseException | ClassCastException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+    }
+
+    private Map<UUID, String> bulkLookup(String endpoint, List<UUID> uuids) throws IOException {
+        JSONArray request = new JSONArray();
+        for (UUID uuid : uuids) {
+            request.add(undash(uuid));
+        }
+
+        HttpURLConnection conn = JSONWebUtil.getConnection(new URL(endpoint), "POST", TIMEOUT, "egg82/PlayerInfo", BukkitPlayerInfo.headers);
+        conn.setDoOutput(true);
+        conn.setRequestProperty("Content-Type", "application/json");
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(request.toJSONString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        int status = conn.getResponseCode();
+        if (status == 204) {
+            return Collections.emptyMap();
+        }
+        if (status == 429) {
+            throw new RateLimitedException();
+        }
+
+        Map<UUID, String> retVal = new HashMap<>();
+        try {
+            for (Object o : BukkitPlayerInfo.getJSONArray(conn, status)) {
+                JSONObject profile = (JSONObject) o;
+                String id = (String) profile.get("id");
+                String name = (String) profile.get("name");
+                if (id != null && name != null) {
+                    retVal.put(UUID.fromString(id.replaceFirst("(\\p{XDigit}{8})(\\p{XDigit}{4})(\\p{XDigit}{4})(\\p{XDigit}{4})(\\p{XDigit}+)", "$1-$2-$3-$4-$5")), name);
+                }
+            }
+        } catch (ParseException | ClassCastException | IllegalArgumentException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+        return retVal;
+    }
+
+    private static String undash(UUID uuid) { return uuid.toString().replace("-", ""); }
+
+    private static class RateLimitedException extends IOException {
+        private RateLimitedException() { super("Server returned status code 429"); }
+    }
+
+    private static class PendingLookup {
+        private final UUID uuid;
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+
+        private PendingLookup(UUID uuid) { this.uuid = uuid; }
+    }
+}
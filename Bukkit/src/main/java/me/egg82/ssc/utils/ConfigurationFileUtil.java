@@ -3,15 +3,14 @@ package me.egg82.ssc.utils;
 import com.google.common.reflect.TypeToken;
 import java.io.*;
 import java.nio.file.Files;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Locale;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
 import me.egg82.ssc.extended.CachedConfigValues;
 import me.egg82.ssc.extended.Configuration;
 import me.egg82.ssc.messaging.Messaging;
 import me.egg82.ssc.messaging.MessagingException;
 import me.egg82.ssc.messaging.RabbitMQ;
+import me.egg82.ssc.messaging.codec.MessagingCodec;
 import me.egg82.ssc.services.MessagingHandler;
 import me.egg82.ssc.services.StorageHandler;
 import me.egg82.ssc.storage.MySQL;
@@ -85,6 +84,44 @@ public class ConfigurationFileUtil {
             }
         }
 
+        boolean replicationSpool = config.getNode("storage", "settings", "replication", "spool").getBoolean(true);
+        if (debug) {
+            logger.info(LogUtil.getHeading() + ChatColor.YELLOW + (replicationSpool ? "Spooling replication to disk." : "Keeping replication in memory."));
+        }
+
+        long queuePollFloor = config.getNode("storage", "settings", "queue-poll", "floor").getLong(1000L);
+        if (queuePollFloor <= 0L) {
+            logger.warn("storage.settings.queue-poll.floor is not a valid value. Using default value.");
+            queuePollFloor = 1000L;
+        }
+        long queuePollCeiling = config.getNode("storage", "settings", "queue-poll", "ceiling").getLong(10000L);
+        if (queuePollCeiling < queuePollFloor) {
+            logger.warn("storage.settings.queue-poll.ceiling is lower than the floor. Using floor value.");
+            queuePollCeiling = queuePollFloor;
+        }
+        if (debug) {
+            logger.info(LogUtil.getHeading() + ChatColor.YELLOW + "Queue poll interval: " + ChatColor.WHITE + queuePollFloor + "ms - " + queuePollCeiling + "ms");
+        }
+
+        long retentionMaxAge = config.getNode("storage", "settings", "retention", "max-age").getLong(0L);
+        if (retentionMaxAge < 0L) {
+            logger.warn("storage.settings.retention.max-age is not a valid value. Using default value.");
+            retentionMaxAge = 0L;
+        }
+        long retentionMaxPosts = config.getNode("storage", "settings", "retention", "max-posts").getLong(0L);
+        if (retentionMaxPosts < 0L) {
+            logger.warn("storage.settings.retention.max-posts is not a valid value. Using default value.");
+            retentionMaxPosts = 0L;
+        }
+        long retentionInterval = config.getNode("storage", "settings", "retention", "interval").getLong(3600000L);
+        if (retentionInterval <= 0L) {
+            logger.warn("storage.settings.retention.interval is not a valid value. Using default value.");
+            retentionInterval = 3600000L;
+        }
+        if (debug) {
+            logger.info(LogUtil.getHeading() + ChatColor.YELLOW + "Chat retention: " + ChatColor.WHITE + (retentionMaxAge > 0L ? retentionMaxAge + " day(s)" : "forever") + (retentionMaxPosts > 0L ? ", " + retentionMaxPosts + " post(s)" : ""));
+        }
+
         List<Messaging> messaging;
         try {
             messaging = getMessaging(config.getNode("messaging", "engines"), new PoolSettings(config.getNode("messaging", "settings")), debug, serverID, config.getNode("messaging", "order").getList(TypeToken.of(String.class)), messagingHandler);
@@ -99,11 +136,40 @@ public class ConfigurationFileUtil {
             }
         }
 
+        long messagingTimeout = config.getNode("messaging", "settings", "publish-timeout").getLong(2000L);
+        if (messagingTimeout <= 0L) {
+            logger.warn("messaging.settings.publish-timeout is not a valid value. Using default value.");
+            messagingTimeout = 2000L;
+        }
+        if (debug) {
+            logger.info(LogUtil.getHeading() + ChatColor.YELLOW + "Messaging publish timeout: " + ChatColor.WHITE + messagingTimeout + "ms");
+        }
+
         String chatFormat = config.getNode("chat", "format").getString("&6[&r{server}&r&6] [&r{level}&r&6] &b{player} &7>>&r {message}");
         if (debug) {
             logger.info(LogUtil.getHeading() + ChatColor.YELLOW + "Format: " + ChatColor.RESET + chatFormat);
         }
 
+        Map<Byte, String> levelFormats = new HashMap<>();
+        for (Map.Entry<Object, ? extends ConfigurationNode> kvp : config.getNode("chat", "level-formats").getChildrenMap().entrySet()) {
+            byte level;
+            try {
+                level = Byte.parseByte(String.valueOf(kvp.getKey()));
+            } catch (NumberFormatException ex) {
+                logger.warn("chat.level-formats." + kvp.getKey() + " is not a valid level. Skipping.");
+                continue;
+            }
+            String format = kvp.getValue().getString();
+            if (format == null) {
+                logger.warn("chat.level-formats." + kvp.getKey() + " is not a valid format. Skipping.");
+                continue;
+            }
+            levelFormats.put(level, format);
+            if (debug) {
+                logger.info(LogUtil.getHeading() + ChatColor.YELLOW + "Format for level " + level + ": " + ChatColor.RESET + format);
+            }
+        }
+
         boolean allowColors = config.getNode("chat", "allow-codes").getBoolean(true);
         if (debug) {
             logger.info(LogUtil.getHeading() + ChatColor.YELLOW + (allowColors ? "Using color/format codes." : "Restricting color/format codes."));
@@ -114,14 +180,26 @@ public class ConfigurationFileUtil {
             logger.info(LogUtil.getHeading() + ChatColor.YELLOW + (allowColors ? "Using level system." : "Using basic system without level support."));
         }
 
+        String lookupEndpoint = config.getNode("lookup", "endpoint").getString("https://sessionserver.mojang.com/session/minecraft/profile/{uuid}");
+        String lookupBulkEndpoint = config.getNode("lookup", "bulk-endpoint").getString("");
+        if (debug) {
+            logger.info(LogUtil.getHeading() + ChatColor.YELLOW + "Name lookup endpoint: " + ChatColor.WHITE + (lookupBulkEndpoint.isEmpty() ? lookupEndpoint : lookupBulkEndpoint + " (bulk)"));
+        }
+
         CachedConfigValues cachedValues = CachedConfigValues.builder()
                 .debug(debug)
                 .language(language)
                 .storage(storage)
                 .messaging(messaging)
+                .queuePoll(queuePollFloor, queuePollCeiling)
+                .retention(TimeUnit.DAYS.toMillis(retentionMaxAge), retentionMaxPosts, retentionInterval)
+                .messagingTimeout(messagingTimeout)
+                .replicationSpool(replicationSpool)
                 .chatFormat(chatFormat)
+                .levelFormats(levelFormats)
                 .allowColors(allowColors)
                 .useLevels(useLevels)
+                .lookup(lookupEndpoint, lookupBulkEndpoint)
                 .build();
 
         ConfigUtil.setConfiguration(config, cachedValues);
@@ -205,6 +283,8 @@ public class ConfigurationFileUtil {
                                         .options(options)
                                         .poolSize(settings.minPoolSize, settings.maxPoolSize)
                                         .life(settings.maxLifetime, settings.timeout)
+                                        .batch(settings.batchWindow, settings.batchSize)
+                                        .partitioning(enginesNode.getNode(name, "partitioning").getBoolean(false))
                                         .build()
                         );
                     } catch (IOException | StorageException ex) {
@@ -228,6 +308,7 @@ public class ConfigurationFileUtil {
                                         .credentials(connectionNode.getNode("password").getString(""))
                                         .poolSize(settings.minPoolSize, settings.maxPoolSize)
                                         .life(settings.maxLifetime, (int) settings.timeout)
+                                        .legacyPlayerHistory(enginesNode.getNode(name, "legacy-player-history").getBoolean(true))
                                         .build()
                         );
                     } catch (StorageException ex) {
@@ -255,6 +336,7 @@ public class ConfigurationFileUtil {
                                         .options(options)
                                         .poolSize(settings.minPoolSize, settings.maxPoolSize)
                                         .life(settings.maxLifetime, settings.timeout)
+                                        .batch(settings.batchWindow, settings.batchSize)
                                         .build()
                         );
                     } catch (IOException | StorageException ex) {
@@ -293,6 +375,7 @@ public class ConfigurationFileUtil {
                                         .url(url.address, url.port, connectionNode.getNode("v-host").getString("/"))
                                         .credentials(connectionNode.getNode("username").getString("guest"), connectionNode.getNode("password").getString("guest"))
                                         .timeout((int) settings.timeout)
+                                        .codec(settings.codec)
                                         .build()
                         );
                     } catch (MessagingException ex) {
@@ -316,6 +399,8 @@ public class ConfigurationFileUtil {
                                         .credentials(connectionNode.getNode("password").getString(""))
                                         .poolSize(settings.minPoolSize, settings.maxPoolSize)
                                         .life(settings.maxLifetime, (int) settings.timeout)
+                                        .codec(settings.codec)
+                                        .singleChannel(enginesNode.getNode(name, "single-channel").getBoolean(false))
                                         .build()
                         );
                     } catch (MessagingException ex) {
@@ -363,12 +448,23 @@ public class ConfigurationFileUtil {
         private int maxPoolSize;
         private long maxLifetime;
         private long timeout;
+        private long batchWindow;
+        private int batchSize;
+        private MessagingCodec codec;
 
         public PoolSettings(ConfigurationNode settingsNode) {
             minPoolSize = settingsNode.getNode("min-idle").getInt();
             maxPoolSize = settingsNode.getNode("max-pool-size").getInt();
             maxLifetime = settingsNode.getNode("max-lifetime").getLong();
             timeout = settingsNode.getNode("timeout").getLong();
+            batchWindow = settingsNode.getNode("batch", "window").getLong(5L);
+            batchSize = settingsNode.getNode("batch", "max-size").getInt(50);
+            String codecName = settingsNode.getNode("codec").getString("json");
+            codec = MessagingCodec.fromName(codecName);
+            if (codec == null) {
+                logger.warn("messaging.settings.codec is an unknown value: \"" + codecName + "\". Using json.");
+                codec = MessagingCodec.JSON;
+            }
         }
 
         public int getMinPoolSize() { return minPoolSize; }
@@ -378,5 +474,11 @@ public class ConfigurationFileUtil {
         public long getMaxLifetime() { return maxLifetime; }
 
         public long getTimeout() { return timeout; }
+
+        public long getBatchWindow() { return batchWindow; }
+
+        public int getBatchSize() { return batchSize; }
+
+        public MessagingCodec getCodec() { return codec; }
     }
 }
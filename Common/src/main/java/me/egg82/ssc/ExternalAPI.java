@@ -1,10 +1,13 @@
 package me.egg82.ssc;
 
+import com.google.common.primitives.Primitives;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URLClassLoader;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -71,6 +74,26 @@ public class ExternalAPI {
         }
     }
 
+    public void sendChat(UUID playerID, String playerName, byte level, String message) throws APIException {
+        if (playerName == null) {
+            // A null param has no class to match the method signature against
+            sendChat(playerID, level, message);
+            return;
+        }
+
+        try {
+            invokeMethod("sendChat", playerID, playerName, level, message);
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
+            throw new APIException(true, "Could not invoke base method.", ex);
+        } catch (InvocationTargetException ex) {
+            Throwable t = ex.getTargetException();
+            if (t.getClass().getName().equals("me.egg82.ssc.APIException")) {
+                throw convertToAPIException(t);
+            }
+            throw new APIException(true, "Could not invoke base method.", ex);
+        }
+    }
+
     public void setLevel(byte level, String name) throws APIException {
         try {
             invokeMethod("setLevel", level, name);
@@ -85,14 +108,59 @@ public class ExternalAPI {
         }
     }
 
+    public CompletableFuture<Void> toggleChatAsync(UUID playerID, byte level) { return invokeAsyncMethod("toggleChatAsync", playerID, level); }
+
+    public CompletableFuture<Void> sendChatAsync(UUID playerID, byte level, String message) { return invokeAsyncMethod("sendChatAsync", playerID, level, message); }
+
+    public CompletableFuture<Void> sendChatAsync(UUID playerID, String playerName, byte level, String message) { return playerName == null ? sendChatAsync(playerID, level, message) : invokeAsyncMethod("sendChatAsync", playerID, playerName, level, message); }
+
+    public CompletableFuture<Void> setLevelAsync(byte level, String name) { return invokeAsyncMethod("setLevelAsync", level, name); }
+
+    private CompletableFuture<Void> invokeAsyncMethod(String name, Object... params) {
+        CompletableFuture<Void> retVal = new CompletableFuture<>();
+
+        CompletableFuture<?> future;
+        try {
+            future = (CompletableFuture<?>) invokeMethod(name, params);
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
+            retVal.completeExceptionally(new APIException(true, "Could not invoke base method.", ex));
+            return retVal;
+        } catch (InvocationTargetException ex) {
+            retVal.completeExceptionally(convertToAPIExceptionOrWrap(ex.getTargetException()));
+            return retVal;
+        }
+
+        future.whenComplete((v, ex) -> {
+            if (ex == null) {
+                retVal.complete(null);
+                return;
+            }
+            retVal.completeExceptionally(convertToAPIExceptionOrWrap(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex));
+        });
+        return retVal;
+    }
+
+    private APIException convertToAPIExceptionOrWrap(Throwable t) {
+        if (t.getClass().getName().equals("me.egg82.ssc.APIException")) {
+            try {
+                return convertToAPIException(t);
+            } catch (APIException ex) {
+                return ex;
+            }
+        }
+        return new APIException(true, "Could not invoke base method.", t);
+    }
+
     private Object invokeMethod(String name, Object... params) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
-        Method tmp = methodCache.get(name);
+        // Overloads are told apart by their number of params
+        String key = name + "/" + params.length;
+        Method tmp = methodCache.get(key);
         if (tmp == null) {
             synchronized (this) {
-                tmp = methodCache.get(name);
+                tmp = methodCache.get(key);
                 if (tmp == null) {
                     tmp = concreteClass.getMethod(name, getParamClasses(params));
-                    methodCache.put(name, tmp);
+                    methodCache.put(key, tmp);
                 }
             }
         }
@@ -118,7 +186,8 @@ public class ExternalAPI {
     private Class[] getParamClasses(Object[] params) {
         Class[] retVal = new Class[params.length];
         for (int i = 0; i < params.length; i++) {
-            retVal[i] = (params[i] != null) ? params[i].getClass() : null;
+            // Boxed primitives need to be unboxed to match the method signatures (eg. byte level)
+            retVal[i] = (params[i] != null) ? Primitives.unwrap(params[i].getClass()) : null;
         }
         return retVal;
     }
@@ -1,11 +1,13 @@
 package me.egg82.ssc;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicLong;
 import me.egg82.ssc.core.PostChatResult;
 import me.egg82.ssc.extended.CachedConfigValues;
-import me.egg82.ssc.messaging.Messaging;
 import me.egg82.ssc.messaging.MessagingException;
 import me.egg82.ssc.services.StorageMessagingHandler;
 import me.egg82.ssc.storage.Storage;
@@ -23,10 +25,44 @@ public class StaffChatAPI {
 
     private final AtomicLong numSentMessages = new AtomicLong(0L);
 
-    private StaffChatAPI() { }
+    // Work is striped by player (or level) so a single sender's messages are always handled in order
+    // while a slow storage call for one sender can't hold up everyone else
+    private static final int NUM_WORK_POOLS = 4;
+    private static final int WORK_QUEUE_SIZE = 256;
+    private final ThreadPoolExecutor[] workPools = new ThreadPoolExecutor[NUM_WORK_POOLS];
+
+    private StaffChatAPI() {
+        for (int i = 0; i < NUM_WORK_POOLS; i++) {
+            workPools[i] = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(WORK_QUEUE_SIZE), new ThreadFactoryBuilder().setNameFormat("SimpleStaffChat-API-" + i + "-%d").build());
+            workPools[i].allowCoreThreadTimeOut(true);
+        }
+    }
 
     public static StaffChatAPI getInstance() { return api; }
 
+    public void close() {
+        for (ThreadPoolExecutor workPool : workPools) {
+            workPool.shutdown();
+        }
+        try {
+            for (ThreadPoolExecutor workPool : workPools) {
+                if (!workPool.awaitTermination(4L, TimeUnit.SECONDS)) {
+                    workPool.shutdownNow();
+                }
+            }
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public CompletableFuture<Void> toggleChatAsync(UUID playerID, byte level) { return submit(playerID == null ? 0 : playerID.hashCode(), () -> toggleChat(playerID, level)); }
+
+    public CompletableFuture<Void> sendChatAsync(UUID playerID, byte level, String message) { return sendChatAsync(playerID, null, level, message); }
+
+    public CompletableFuture<Void> sendChatAsync(UUID playerID, String playerName, byte level, String message) { return submit(playerID == null ? 0 : playerID.hashCode(), () -> sendChat(playerID, playerName, level, message)); }
+
+    public CompletableFuture<Void> setLevelAsync(byte level, String name) { return submit(level, () -> setLevel(level, name)); }
+
     public void toggleChat(UUID playerID, byte level) throws APIException {
         if (playerID == null) {
             throw new APIException(false, "playerID cannot be null.");
@@ -45,41 +81,33 @@ public class StaffChatAPI {
         }
 
         if (cachedConfig.get().getMessaging().size() > 0) {
-            boolean handled = false;
-            boolean canRecover = false;
             UUID messageID = UUID.randomUUID();
             handler.cacheMessage(messageID);
-            for (Messaging m : cachedConfig.get().getMessaging()) {
-                try {
-                    m.sendToggle(
-                            messageID,
-                            playerID,
-                            level
-                    );
-                    handled = true;
-                } catch (MessagingException ex) {
-                    logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] " + ex.getMessage(), ex);
-                    if (ex.isAutomaticallyRecoverable()) {
-                        canRecover = true;
-                    }
-                }
-            }
-
-            if (!handled) {
-                throw new APIException(!canRecover, "Could not send toggle through messaging.");
+            try {
+                handler.getDispatcher().dispatchAndWait("toggle", m -> m.sendToggle(messageID, playerID, level));
+            } catch (MessagingException ex) {
+                throw new APIException(!ex.isAutomaticallyRecoverable(), "Could not send toggle through messaging.", ex);
             }
         }
 
         handler.doToggle(playerID, level);
     }
 
-    public void sendChat(UUID playerID, byte level, String message) throws APIException {
+    public void sendChat(UUID playerID, byte level, String message) throws APIException { sendChat(playerID, null, level, message); }
+
+    /**
+     * @param playerName The sender's current name, stored with the post so receivers don't need to look it up. May be null
+     */
+    public void sendChat(UUID playerID, String playerName, byte level, String message) throws APIException {
         if (playerID == null) {
             throw new APIException(false, "playerID cannot be null.");
         }
         if (message == null) {
             throw new APIException(false, "message cannot be null.");
         }
+        if (playerName != null && playerName.length() > 32) {
+            throw new APIException(false, "playerName cannot be longer than 32 characters.");
+        }
 
         Optional<CachedConfigValues> cachedConfig = ConfigUtil.getCachedConfig();
         if (!cachedConfig.isPresent()) {
@@ -98,7 +126,7 @@ public class StaffChatAPI {
         boolean canRecover = false;
         for (Storage s : cachedConfig.get().getStorage()) {
             try {
-                postResult = s.post(playerID, level, message);
+                postResult = s.post(playerID, playerName, level, message);
                 postedStorage = s;
                 break;
             } catch (StorageException ex) {
@@ -113,55 +141,39 @@ public class StaffChatAPI {
         }
 
         handler.cachePost(postResult.getID());
-        for (Storage s : cachedConfig.get().getStorage()) {
-            try {
-                if (s == postedStorage) {
-                    continue;
-                }
-                s.postRaw(
-                        postResult.getID(),
-                        postResult.getLongServerID(),
-                        postResult.getLongPlayerID(),
-                        postResult.getLevel(),
-                        postResult.getMessage(),
-                        postResult.getDate()
-                );
-            } catch (StorageException ex) {
-                logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] " + ex.getMessage(), ex);
-            }
-        }
+        // Secondaries catch up in the background; only the master write matters to the sender
+        handler.getReplicator().post(
+                postedStorage,
+                postResult.getID(),
+                postResult.getLongServerID(),
+                postResult.getLongPlayerID(),
+                postResult.getPlayerName(),
+                postResult.getLevel(),
+                postResult.getMessage(),
+                postResult.getDate()
+        );
 
-        canRecover = false;
         if (cachedConfig.get().getMessaging().size() > 0) {
-            boolean handled = false;
             UUID messageID = UUID.randomUUID();
             handler.cacheMessage(messageID);
-            for (Messaging m : cachedConfig.get().getMessaging()) {
-                try {
-                    m.sendPost(
-                            messageID,
-                            postResult.getID(),
-                            postResult.getLongServerID(),
-                            postResult.getServerID(),
-                            postResult.getServerName(),
-                            postResult.getLongPlayerID(),
-                            postResult.getPlayerID(),
-                            postResult.getLevel(),
-                            postResult.getLevelName(),
-                            postResult.getMessage(),
-                            postResult.getDate()
-                    );
-                    handled = true;
-                } catch (MessagingException ex) {
-                    logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] " + ex.getMessage(), ex);
-                    if (ex.isAutomaticallyRecoverable()) {
-                        canRecover = true;
-                    }
-                }
-            }
-
-            if (!handled) {
-                throw new APIException(!canRecover, "Could not send chat through messaging.");
+            PostChatResult result = postResult;
+            try {
+                handler.getDispatcher().dispatchAndWait("chat", m -> m.sendPost(
+                        messageID,
+                        result.getID(),
+                        result.getLongServerID(),
+                        result.getServerID(),
+                        result.getServerName(),
+                        result.getLongPlayerID(),
+                        result.getPlayerID(),
+                        result.getPlayerName(),
+                        result.getLevel(),
+                        result.getLevelName(),
+                        result.getMessage(),
+                        result.getDate()
+                ));
+            } catch (MessagingException ex) {
+                throw new APIException(!ex.isAutomaticallyRecoverable(), "Could not send chat through messaging.", ex);
             }
         }
 
@@ -186,12 +198,13 @@ public class StaffChatAPI {
             throw new APIException(false, "Could not get handler service.");
         }
 
-        boolean handled = false;
+        Storage levelStorage = null;
         boolean canRecover = false;
         for (Storage s : cachedConfig.get().getStorage()) {
             try {
                 s.setLevel(level, name);
-                handled = true;
+                levelStorage = s;
+                break;
             } catch (StorageException ex) {
                 logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] " + ex.getMessage(), ex);
                 if (ex.isAutomaticallyRecoverable()) {
@@ -199,35 +212,44 @@ public class StaffChatAPI {
                 }
             }
         }
-        if (!handled) {
+        if (levelStorage == null) {
             throw new APIException(!canRecover, "Could not put level in storage.");
         }
 
+        handler.getReplicator().setLevel(levelStorage, level, name);
+
         if (cachedConfig.get().getMessaging().size() > 0) {
-            handled = false;
-            canRecover = false;
             UUID messageID = UUID.randomUUID();
             handler.cacheMessage(messageID);
-            for (Messaging m : cachedConfig.get().getMessaging()) {
-                try {
-                    m.sendLevel(
-                            messageID,
-                            level,
-                            name
-                    );
-                    handled = true;
-                } catch (MessagingException ex) {
-                    logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] " + ex.getMessage(), ex);
-                    if (ex.isAutomaticallyRecoverable()) {
-                        canRecover = true;
-                    }
-                }
+            try {
+                handler.getDispatcher().dispatchAndWait("level", m -> m.sendLevel(messageID, level, name));
+            } catch (MessagingException ex) {
+                throw new APIException(!ex.isAutomaticallyRecoverable(), "Could not send level through messaging.", ex);
             }
+        }
+    }
 
-            if (!handled) {
-                throw new APIException(!canRecover, "Could not send level through messaging.");
-            }
+    private CompletableFuture<Void> submit(int stripe, APIRunnable runnable) {
+        CompletableFuture<Void> retVal = new CompletableFuture<>();
+        try {
+            workPools[Math.floorMod(stripe, NUM_WORK_POOLS)].execute(() -> {
+                try {
+                    runnable.run();
+                    retVal.complete(null);
+                } catch (APIException ex) {
+                    retVal.completeExceptionally(ex);
+                } catch (Throwable ex) {
+                    retVal.completeExceptionally(new APIException(true, "Could not complete API call.", ex));
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            retVal.completeExceptionally(new APIException(true, "Could not queue API call.", ex));
         }
+        return retVal;
+    }
+
+    private interface APIRunnable {
+        void run() throws APIException;
     }
 
     public long getNumSentMessages() throws APIException { return numSentMessages.get(); }
@@ -242,4 +264,26 @@ public class StaffChatAPI {
 
         return handler.numReceivedMessages();
     }
+
+    public Map<String, Long> getReplicationLag() throws APIException {
+        StorageMessagingHandler handler;
+        try {
+            handler = ServiceLocator.get(StorageMessagingHandler.class);
+        } catch (InstantiationException | IllegalAccessException | ServiceNotFoundException ex) {
+            throw new APIException(false, "Could not get handler service.");
+        }
+
+        return handler.getReplicator().getLag();
+    }
+
+    public Map<String, Long> getReplicationDropped() throws APIException {
+        StorageMessagingHandler handler;
+        try {
+            handler = ServiceLocator.get(StorageMessagingHandler.class);
+        } catch (InstantiationException | IllegalAccessException | ServiceNotFoundException ex) {
+            throw new APIException(false, "Could not get handler service.");
+        }
+
+        return handler.getReplicator().getDropped();
+    }
 }
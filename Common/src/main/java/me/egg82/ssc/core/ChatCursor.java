@@ -0,0 +1,60 @@
+package me.egg82.ssc.core;
+
+import java.util.Objects;
+
+/**
+ * A position in chat history, ordered by date and then by ID
+ *
+ * A page of history holds everything strictly after its cursor, so the cursor
+ * for the next page is just the last post of the current one
+ */
+public class ChatCursor {
+    private final long date;
+    private final long id;
+
+    private final int hc;
+
+    public ChatCursor(long date, long id) {
+        this.date = date;
+        this.id = id;
+
+        hc = Objects.hash(date, id);
+    }
+
+    /**
+     * @return A cursor that includes every post made at or after the date
+     */
+    public static ChatCursor since(long date) { return new ChatCursor(date, -1L); }
+
+    /**
+     * @return A cursor that starts just after the post
+     */
+    public static ChatCursor after(ChatResult chat) { return new ChatCursor(chat.getDateTime(), chat.getID()); }
+
+    public long getDate() { return date; }
+
+    public long getID() { return id; }
+
+    /**
+     * @return True if a post with the date and ID comes after the cursor
+     */
+    public boolean includes(long date, long id) { return compare(date, id, this.date, this.id) > 0; }
+
+    /**
+     * Orders posts by date, then by ID
+     */
+    public static int compare(long date1, long id1, long date2, long id2) {
+        int c = Long.compare(date1, date2);
+        return c != 0 ? c : Long.compare(id1, id2);
+    }
+
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ChatCursor)) return false;
+        ChatCursor that = (ChatCursor) o;
+        return date == that.date &&
+                id == that.id;
+    }
+
+    public int hashCode() { return hc; }
+}
@@ -8,6 +8,7 @@ public class ChatResult {
     private final UUID serverID;
     private final String serverName;
     private final UUID playerID;
+    private final String playerName;
     private final byte  level;
     private final String levelName;
     private final String message;
@@ -15,11 +16,12 @@ public class ChatResult {
 
     private final int hc;
 
-    public ChatResult(long id, UUID serverID, String serverName, UUID playerID, byte level, String levelName, String message, long dateTime) {
+    public ChatResult(long id, UUID serverID, String serverName, UUID playerID, String playerName, byte level, String levelName, String message, long dateTime) {
         this.id = id;
         this.serverID = serverID;
         this.serverName = serverName;
         this.playerID = playerID;
+        this.playerName = playerName;
         this.level = level;
         this.levelName = levelName;
         this.message = message;
@@ -36,6 +38,11 @@ public class ChatResult {
 
     public UUID getPlayerID() { return playerID; }
 
+    /**
+     * @return The poster's name as of the post, or null if it was never stored
+     */
+    public String getPlayerName() { return playerName; }
+
     public byte getLevel() { return level; }
 
     public String getLevelName() { return levelName; }
@@ -6,12 +6,14 @@ import java.util.UUID;
 public class PlayerResult {
     private final long longPlayerID;
     private final UUID playerID;
+    private final String name;
 
     private final int hc;
 
-    public PlayerResult(long longPlayerID, UUID playerID) {
+    public PlayerResult(long longPlayerID, UUID playerID, String name) {
         this.longPlayerID = longPlayerID;
         this.playerID = playerID;
+        this.name = name;
 
         hc = Objects.hash(longPlayerID);
     }
@@ -20,6 +22,8 @@ public class PlayerResult {
 
     public UUID getPlayerID() { return playerID; }
 
+    public String getName() { return name; }
+
     public boolean equals(Object o) {
         if (this == o) return true;
         if (!(o instanceof PlayerResult)) return false;
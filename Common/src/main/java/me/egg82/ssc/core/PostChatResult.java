@@ -10,6 +10,7 @@ public class PostChatResult {
     private final String serverName;
     private final long longPlayerID;
     private final UUID playerID;
+    private final String playerName;
     private final byte level;
     private final String levelName;
     private final String message;
@@ -17,13 +18,14 @@ public class PostChatResult {
 
     private final int hc;
 
-    public PostChatResult(long id, long longServerID, UUID serverID, String serverName, long longPlayerID, UUID playerID, byte level, String levelName, String message, long date) {
+    public PostChatResult(long id, long longServerID, UUID serverID, String serverName, long longPlayerID, UUID playerID, String playerName, byte level, String levelName, String message, long date) {
         this.id = id;
         this.longServerID = longServerID;
         this.serverID = serverID;
         this.serverName = serverName;
         this.longPlayerID = longPlayerID;
         this.playerID = playerID;
+        this.playerName = playerName;
         this.level = level;
         this.levelName = levelName;
         this.message = message;
@@ -44,6 +46,8 @@ public class PostChatResult {
 
     public UUID getPlayerID() { return playerID; }
 
+    public String getPlayerName() { return playerName; }
+
     public byte getLevel() { return level; }
 
     public String getLevelName() { return levelName; }
@@ -58,6 +62,7 @@ public class PostChatResult {
                 serverID,
                 serverName,
                 playerID,
+                playerName,
                 level,
                 levelName,
                 message,
@@ -6,16 +6,18 @@ public class RawChatResult {
     private final long id;
     private final long longServerID;
     private final long longPlayerID;
+    private final String playerName;
     private final byte level;
     private final String message;
     private final long date;
 
     private final int hc;
 
-    public RawChatResult(long id, long longServerID, long longPlayerID, byte level, String message, long date) {
+    public RawChatResult(long id, long longServerID, long longPlayerID, String playerName, byte level, String message, long date) {
         this.id = id;
         this.longServerID = longServerID;
         this.longPlayerID = longPlayerID;
+        this.playerName = playerName;
         this.level = level;
         this.message = message;
         this.date = date;
@@ -29,6 +31,8 @@ public class RawChatResult {
 
     public long getLongPlayerID() { return longPlayerID; }
 
+    public String getPlayerName() { return playerName; }
+
     public byte getLevel() { return level; }
 
     public String getMessage() { return message; }
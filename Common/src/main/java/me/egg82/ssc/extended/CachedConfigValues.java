@@ -1,8 +1,10 @@
 package me.egg82.ssc.extended;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import me.egg82.ssc.messaging.Messaging;
 import me.egg82.ssc.storage.Storage;
 
@@ -15,15 +17,45 @@ public class CachedConfigValues {
     private ImmutableList<Messaging> messaging = ImmutableList.of();
     public ImmutableList<Messaging> getMessaging() { return messaging; }
 
+    private long queuePollFloor = 1000L;
+    public long getQueuePollFloor() { return queuePollFloor; }
+
+    private long queuePollCeiling = 10000L;
+    public long getQueuePollCeiling() { return queuePollCeiling; }
+
+    private long retentionMaxAge = 0L;
+    public long getRetentionMaxAge() { return retentionMaxAge; }
+
+    private long retentionMaxPosts = 0L;
+    public long getRetentionMaxPosts() { return retentionMaxPosts; }
+
+    private long retentionInterval = 3600000L;
+    public long getRetentionInterval() { return retentionInterval; }
+
+    private long messagingTimeout = 2000L;
+    public long getMessagingTimeout() { return messagingTimeout; }
+
+    private boolean replicationSpool = true;
+    public boolean getReplicationSpool() { return replicationSpool; }
+
     private String chatFormat = "&6[&r{server}&r&6] [&r{level}&r&6] &b{player} &7>>&r {message}";
     public String getChatFormat() { return chatFormat; }
 
+    private ImmutableMap<Byte, String> levelFormats = ImmutableMap.of();
+    public ImmutableMap<Byte, String> getLevelFormats() { return levelFormats; }
+
     private boolean allowColors = true;
     public boolean getAllowColors() { return allowColors; }
 
     private boolean useLevels = true;
     public boolean getUseLevels() { return useLevels; }
 
+    private String lookupEndpoint = "https://sessionserver.mojang.com/session/minecraft/profile/{uuid}";
+    public String getLookupEndpoint() { return lookupEndpoint; }
+
+    private String lookupBulkEndpoint = "";
+    public String getLookupBulkEndpoint() { return lookupBulkEndpoint; }
+
     private boolean debug = false;
     public boolean getDebug() { return debug; }
 
@@ -47,11 +79,39 @@ public class CachedConfigValues {
             return this;
         }
 
+        public CachedConfigValues.Builder queuePoll(long floor, long ceiling) {
+            values.queuePollFloor = floor;
+            values.queuePollCeiling = ceiling;
+            return this;
+        }
+
+        public CachedConfigValues.Builder retention(long maxAge, long maxPosts, long interval) {
+            values.retentionMaxAge = maxAge;
+            values.retentionMaxPosts = maxPosts;
+            values.retentionInterval = interval;
+            return this;
+        }
+
+        public CachedConfigValues.Builder messagingTimeout(long value) {
+            values.messagingTimeout = value;
+            return this;
+        }
+
+        public CachedConfigValues.Builder replicationSpool(boolean value) {
+            values.replicationSpool = value;
+            return this;
+        }
+
         public CachedConfigValues.Builder chatFormat(String value) {
             values.chatFormat = value;
             return this;
         }
 
+        public CachedConfigValues.Builder levelFormats(Map<Byte, String> value) {
+            values.levelFormats = ImmutableMap.copyOf(value);
+            return this;
+        }
+
         public CachedConfigValues.Builder allowColors(boolean value) {
             values.allowColors = value;
             return this;
@@ -62,6 +122,12 @@ public class CachedConfigValues {
             return this;
         }
 
+        public CachedConfigValues.Builder lookup(String endpoint, String bulkEndpoint) {
+            values.lookupEndpoint = endpoint;
+            values.lookupBulkEndpoint = bulkEndpoint;
+            return this;
+        }
+
         public CachedConfigValues.Builder debug(boolean value) {
             values.debug = value;
             return this;
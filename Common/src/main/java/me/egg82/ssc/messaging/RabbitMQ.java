@@ -7,12 +7,16 @@ import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import me.egg82.ssc.messaging.codec.MessagingCodec;
+import me.egg82.ssc.messaging.codec.Packet;
 import me.egg82.ssc.services.MessagingHandler;
+import me.egg82.ssc.utils.ConfigUtil;
 import me.egg82.ssc.utils.ValidationUtil;
-import ninja.egg82.analytics.utils.JSONUtil;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -26,9 +30,20 @@ public class RabbitMQ implements Messaging {
     // https://stackoverflow.com/questions/10407760/is-there-a-performance-difference-between-pooling-connections-or-channels-in-rab
     private RecoverableConnection connection;
 
+    // Publishing on a fresh channel costs a broker round trip to open and another to close, so a few are kept around
+    // Channels aren't safe to publish on concurrently, so each one is only ever held by one thread at a time
+    private static final int NUM_PUBLISH_CHANNELS = 4;
+    private final BlockingQueue<RecoverableChannel> publishChannels = new ArrayBlockingQueue<>(NUM_PUBLISH_CHANNELS);
+    private int publishTimeout = 5000;
+
+    private final AtomicLong numPublished = new AtomicLong(0L);
+    private final AtomicLong totalPublishNanos = new AtomicLong(0L);
+    private final AtomicLong numChannelsOpened = new AtomicLong(0L);
+
     private String serverID;
     private UUID uuidServerID;
     private MessagingHandler handler;
+    private MessagingCodec codec = MessagingCodec.JSON;
 
     private RabbitMQ() { }
 
@@ -36,6 +51,12 @@ public class RabbitMQ implements Messaging {
 
     public void close() {
         closed = true;
+        RecoverableChannel channel;
+        while ((channel = publishChannels.poll()) != null) {
+            try {
+                channel.close();
+            } catch (IOException | TimeoutException | AlreadyClosedException ignored) { }
+        }
         try {
             connection.close(8000);
         } catch (IOException ignored) { }
@@ -77,6 +98,15 @@ public class RabbitMQ implements Messaging {
 
         public RabbitMQ.Builder timeout(int timeout) {
             config.setConnectionTimeout(timeout);
+            result.publishTimeout = timeout;
+            return this;
+        }
+
+        public RabbitMQ.Builder codec(MessagingCodec codec) {
+            if (codec == null) {
+                throw new IllegalArgumentException("codec cannot be null.");
+            }
+            result.codec = codec;
             return this;
         }
 
@@ -84,8 +114,25 @@ public class RabbitMQ implements Messaging {
             result.factory = config;
             try {
                 result.connection = result.getConnection();
+                // Declare exchanges once, and again whenever the connection comes back
+                result.declareExchanges();
+                result.connection.addRecoveryListener(new RecoveryListener() {
+                    public void handleRecovery(Recoverable recoverable) {
+                        try {
+                            result.declareExchanges();
+                        } catch (IOException ex) {
+                            result.logger.error("Could not re-declare RabbitMQ exchanges after recovery.", ex);
+                        }
+                    }
+
+                    public void handleRecoveryStarted(Recoverable recoverable) { }
+                });
                 // Bind queues
                 result.bind();
+                // Warm up publish channels
+                for (int i = 0; i < NUM_PUBLISH_CHANNELS; i++) {
+                    result.publishChannels.add(result.openPublishChannel());
+                }
             } catch (IOException | TimeoutException ex) {
                 throw new MessagingException(false, "Could not create RabbitMQ connection.", ex);
             }
@@ -93,81 +140,35 @@ public class RabbitMQ implements Messaging {
         }
     }
 
-    private void bind() throws IOException {
-        RecoverableChannel levelChannel = getChannel();
-        levelChannel.exchangeDeclare("simplestaffchat-level", ExchangeType.FANOUT.getType(), true);
-        String levelQueue = levelChannel.queueDeclare().getQueue();
-        levelChannel.queueBind(levelQueue, "simplestaffchat-level", "");
-        Consumer levelConsumer = new DefaultConsumer(levelChannel) {
-            public void handleDelivery(String tag, Envelope envelope, AMQP.BasicProperties props, byte[] body) throws IOException {
-                try {
-                    receiveLevel(props, new String(body, props.getContentEncoding()));
-                } catch (ParseException | ClassCastException ex) {
-                    logger.warn("Could not parse incoming data.", ex);
-                }
-            }
-        };
-        levelChannel.basicConsume(levelQueue, true, levelConsumer);
-
-        RecoverableChannel serverChannel = getChannel();
-        serverChannel.exchangeDeclare("simplestaffchat-server", ExchangeType.FANOUT.getType(), true);
-        String serverQueue = serverChannel.queueDeclare().getQueue();
-        serverChannel.queueBind(serverQueue, "simplestaffchat-server", "");
-        Consumer serverConsumer = new DefaultConsumer(serverChannel) {
-            public void handleDelivery(String tag, Envelope envelope, AMQP.BasicProperties props, byte[] body) throws IOException {
-                try {
-                    receiveServer(props, new String(body, props.getContentEncoding()));
-                } catch (ParseException | ClassCastException ex) {
-                    logger.warn("Could not parse incoming data.", ex);
-                }
-            }
-        };
-        serverChannel.basicConsume(serverQueue, true, serverConsumer);
-
-        RecoverableChannel playerChannel = getChannel();
-        playerChannel.exchangeDeclare("simplestaffchat-player", ExchangeType.FANOUT.getType(), true);
-        String playerQueue = playerChannel.queueDeclare().getQueue();
-        playerChannel.queueBind(playerQueue, "simplestaffchat-player", "");
-        Consumer playerConsumer = new DefaultConsumer(playerChannel) {
-            public void handleDelivery(String tag, Envelope envelope, AMQP.BasicProperties props, byte[] body) throws IOException {
-                try {
-                    receivePlayer(props, new String(body, props.getContentEncoding()));
-                } catch (ParseException | ClassCastException ex) {
-                    logger.warn("Could not parse incoming data.", ex);
-                }
-            }
-        };
-        playerChannel.basicConsume(playerQueue, true, playerConsumer);
-
-        RecoverableChannel postChannel = getChannel();
-        postChannel.exchangeDeclare("simplestaffchat-post", ExchangeType.FANOUT.getType(), true);
-        String postQueue = postChannel.queueDeclare().getQueue();
-        postChannel.queueBind(postQueue, "simplestaffchat-post", "");
-        Consumer postConsumer = new DefaultConsumer(postChannel) {
-            public void handleDelivery(String tag, Envelope envelope, AMQP.BasicProperties props, byte[] body) throws IOException {
-                try {
-                    receivePost(props, new String(body, props.getContentEncoding()));
-                } catch (ParseException | ClassCastException ex) {
-                    logger.warn("Could not parse incoming data.", ex);
-                }
+    private void declareExchanges() throws IOException {
+        RecoverableChannel channel = getChannel();
+        try {
+            for (Packet.Type type : Packet.Type.values()) {
+                channel.exchangeDeclare(type.getChannel(), ExchangeType.FANOUT.getType(), true);
             }
-        };
-        postChannel.basicConsume(postQueue, true, postConsumer);
-
-        RecoverableChannel toggleChannel = getChannel();
-        toggleChannel.exchangeDeclare("simplestaffchat-toggle", ExchangeType.FANOUT.getType(), true);
-        String toggleQueue = toggleChannel.queueDeclare().getQueue();
-        toggleChannel.queueBind(toggleQueue, "simplestaffchat-toggle", "");
-        Consumer toggleConsumer = new DefaultConsumer(toggleChannel) {
-            public void handleDelivery(String tag, Envelope envelope, AMQP.BasicProperties props, byte[] body) throws IOException {
-                try {
-                    receiveToggle(props, new String(body, props.getContentEncoding()));
-                } catch (ParseException | ClassCastException ex) {
-                    logger.warn("Could not parse incoming data.", ex);
+        } finally {
+            try {
+                channel.close();
+            } catch (TimeoutException | AlreadyClosedException ignored) { }
+        }
+    }
+
+    private void bind() throws IOException {
+        for (Packet.Type type : Packet.Type.values()) {
+            RecoverableChannel channel = getChannel();
+            String queue = channel.queueDeclare().getQueue();
+            channel.queueBind(queue, type.getChannel(), "");
+            Consumer consumer = new DefaultConsumer(channel) {
+                public void handleDelivery(String tag, Envelope envelope, AMQP.BasicProperties props, byte[] body) throws IOException {
+                    try {
+                        receive(type, props, body);
+                    } catch (MessagingException | ClassCastException ex) {
+                        logger.warn("Could not parse incoming data.", ex);
+                    }
                 }
-            }
-        };
-        toggleChannel.basicConsume(toggleQueue, true, toggleConsumer);
+            };
+            channel.basicConsume(queue, true, consumer);
+        }
     }
 
     public void sendLevel(UUID messageID, byte level, String name) throws MessagingException {
@@ -178,18 +179,7 @@ public class RabbitMQ implements Messaging {
             throw new IllegalArgumentException("name cannot be null.");
         }
 
-        try (RecoverableChannel channel = getChannel()) {
-            JSONObject obj = new JSONObject();
-            obj.put("level", level);
-            obj.put("name", name);
-            AMQP.BasicProperties props = getProperties(DeliveryMode.PERSISTENT);
-            channel.exchangeDeclare("simplestaffchat-level", ExchangeType.FANOUT.getType(), true);
-            channel.basicPublish("simplestaffchat-level", "", props, obj.toJSONString().getBytes(props.getContentEncoding()));
-        } catch (IOException ex) {
-            throw new MessagingException(false, ex);
-        } catch (TimeoutException ex) {
-            throw new MessagingException(true, ex);
-        }
+        publish(Packet.level(uuidServerID, messageID, level, name));
     }
 
     public void sendServer(UUID messageID, long longServerID, UUID serverID, String name) throws MessagingException {
@@ -203,19 +193,7 @@ public class RabbitMQ implements Messaging {
             throw new IllegalArgumentException("name cannot be null.");
         }
 
-        try (RecoverableChannel channel = getChannel()) {
-            JSONObject obj = new JSONObject();
-            obj.put("longID", longServerID);
-            obj.put("id", serverID.toString());
-            obj.put("name", name);
-            AMQP.BasicProperties props = getProperties(DeliveryMode.PERSISTENT);
-            channel.exchangeDeclare("simplestaffchat-server", ExchangeType.FANOUT.getType(), true);
-            channel.basicPublish("simplestaffchat-server", "", props, obj.toJSONString().getBytes(props.getContentEncoding()));
-        } catch (IOException ex) {
-            throw new MessagingException(false, ex);
-        } catch (TimeoutException ex) {
-            throw new MessagingException(true, ex);
-        }
+        publish(Packet.server(uuidServerID, messageID, longServerID, serverID, name));
     }
 
     public void sendPlayer(UUID messageID, long longPlayerID, UUID playerID) throws MessagingException {
@@ -226,21 +204,10 @@ public class RabbitMQ implements Messaging {
             throw new IllegalArgumentException("playerID cannot be null.");
         }
 
-        try (RecoverableChannel channel = getChannel()) {
-            JSONObject obj = new JSONObject();
-            obj.put("longID", longPlayerID);
-            obj.put("id", playerID.toString());
-            AMQP.BasicProperties props = getProperties(DeliveryMode.PERSISTENT);
-            channel.exchangeDeclare("simplestaffchat-player", ExchangeType.FANOUT.getType(), true);
-            channel.basicPublish("simplestaffchat-player", "", props, obj.toJSONString().getBytes(props.getContentEncoding()));
-        } catch (IOException ex) {
-            throw new MessagingException(false, ex);
-        } catch (TimeoutException ex) {
-            throw new MessagingException(true, ex);
-        }
+        publish(Packet.player(uuidServerID, messageID, longPlayerID, playerID));
     }
 
-    public void sendPost(UUID messageID, long postID, long longServerID, UUID serverID, String serverName, long longPlayerID, UUID playerID, byte level, String levelName, String message, long date) throws MessagingException {
+    public void sendPost(UUID messageID, long postID, long longServerID, UUID serverID, String serverName, long longPlayerID, UUID playerID, String playerName, byte level, String levelName, String message, long date) throws MessagingException {
         if (messageID == null) {
             throw new IllegalArgumentException("messageID cannot be null.");
         }
@@ -248,26 +215,7 @@ public class RabbitMQ implements Messaging {
             throw new IllegalArgumentException("message cannot be null.");
         }
 
-        try (RecoverableChannel channel = getChannel()) {
-            JSONObject obj = new JSONObject();
-            obj.put("id", postID);
-            obj.put("longServerID", longServerID);
-            obj.put("serverID", serverID.toString());
-            obj.put("serverName", serverName);
-            obj.put("longPlayerID", longPlayerID);
-            obj.put("playerID", playerID.toString());
-            obj.put("level", level);
-            obj.put("levelName", levelName);
-            obj.put("message", message);
-            obj.put("date", date);
-            AMQP.BasicProperties props = getProperties(DeliveryMode.PERSISTENT);
-            channel.exchangeDeclare("simplestaffchat-post", ExchangeType.FANOUT.getType(), true);
-            channel.basicPublish("simplestaffchat-post", "", props, obj.toJSONString().getBytes(props.getContentEncoding()));
-        } catch (IOException ex) {
-            throw new MessagingException(false, ex);
-        } catch (TimeoutException ex) {
-            throw new MessagingException(true, ex);
-        }
+        publish(Packet.post(uuidServerID, messageID, postID, longServerID, serverID, serverName, longPlayerID, playerID, playerName, level, levelName, message, date));
     }
 
     public void sendToggle(UUID messageID, UUID playerID, byte level) throws MessagingException {
@@ -278,186 +226,79 @@ public class RabbitMQ implements Messaging {
             throw new IllegalArgumentException("playerID cannot be null.");
         }
 
-        try (RecoverableChannel channel = getChannel()) {
-            JSONObject obj = new JSONObject();
-            obj.put("playerID", playerID.toString());
-            obj.put("level", level);
-            AMQP.BasicProperties props = getProperties(DeliveryMode.PERSISTENT);
-            channel.exchangeDeclare("simplestaffchat-toggle", ExchangeType.FANOUT.getType(), true);
-            channel.basicPublish("simplestaffchat-toggle", "", props, obj.toJSONString().getBytes(props.getContentEncoding()));
-        } catch (IOException ex) {
-            throw new MessagingException(false, ex);
-        } catch (TimeoutException ex) {
-            throw new MessagingException(true, ex);
-        }
+        publish(Packet.toggle(uuidServerID, messageID, playerID, level));
     }
 
-    private AMQP.BasicProperties getProperties(DeliveryMode deliveryMode) {
-        Map<String, Object> headers = new HashMap<>();
-        headers.put("sender", serverID);
+    public long getNumPublished() { return numPublished.get(); }
 
-        AMQP.BasicProperties.Builder retVal = new AMQP.BasicProperties.Builder();
-        retVal.contentType("application/json");
-        retVal.contentEncoding(StandardCharsets.UTF_8.name());
-        retVal.messageId(UUID.randomUUID().toString());
-        retVal.deliveryMode(deliveryMode.getMode());
-        retVal.headers(headers);
-        return retVal.build();
+    public double getAveragePublishMillis() {
+        long published = numPublished.get();
+        return published == 0L ? 0.0d : (double) TimeUnit.NANOSECONDS.toMicros(totalPublishNanos.get()) / published / 1000.0d;
     }
 
-    private void receiveLevel(AMQP.BasicProperties props, String json) throws UnsupportedEncodingException, ParseException, ClassCastException {
-        if (props.getHeaders() == null || props.getHeaders().isEmpty()) {
-            logger.warn("Properties for received level was null or empty.");
-            return;
-        }
-        String sender = new String(((LongString) props.getHeaders().get("sender")).getBytes(), props.getContentEncoding());
-        if (!ValidationUtil.isValidUuid(sender)) {
-            logger.warn("Non-valid sender received in level: \"" + sender + "\".");
-            return;
-        }
-        if (serverID.equals(sender)) {
-            return;
-        }
-
-        if (!ValidationUtil.isValidUuid(props.getMessageId())) {
-            logger.warn("Non-valid message ID received in level: \"" + props.getMessageId() + "\".");
-            return;
-        }
+    public long getNumChannelsOpened() { return numChannelsOpened.get(); }
 
-        JSONObject obj = JSONUtil.parseObject(json);
-        handler.levelCallback(
-                UUID.fromString(props.getMessageId()),
-                ((Number) obj.get("level")).byteValue(),
-                (String) obj.get("name"),
-                this
-        );
-    }
+    private void publish(Packet packet) throws MessagingException {
+        long start = System.nanoTime();
+        byte[] data = codec.encode(packet);
 
-    private void receiveServer(AMQP.BasicProperties props, String json) throws UnsupportedEncodingException, ParseException, ClassCastException {
-        if (props.getHeaders() == null || props.getHeaders().isEmpty()) {
-            logger.warn("Properties for received server was null or empty.");
-            return;
-        }
-        String sender = new String(((LongString) props.getHeaders().get("sender")).getBytes(), props.getContentEncoding());
-        if (!ValidationUtil.isValidUuid(sender)) {
-            logger.warn("Non-valid sender received in server: \"" + sender + "\".");
-            return;
+        RecoverableChannel channel;
+        try {
+            channel = publishChannels.poll(publishTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException(true, "Interrupted while waiting for a publish channel.", ex);
         }
-        if (serverID.equals(sender)) {
-            return;
+        if (channel == null) {
+            throw new MessagingException(true, "Timed out waiting for a publish channel.");
         }
 
-        if (!ValidationUtil.isValidUuid(props.getMessageId())) {
-            logger.warn("Non-valid message ID received in server: \"" + props.getMessageId() + "\".");
-            return;
+        try {
+            if (!channel.isOpen()) {
+                channel = openPublishChannel();
+            }
+            channel.basicPublish(packet.getType().getChannel(), "", getProperties(packet.getMessageID(), DeliveryMode.PERSISTENT), data);
+        } catch (IOException | AlreadyClosedException ex) {
+            // The channel is likely dead, so replace it the next time it's used
+            throw new MessagingException(false, ex);
+        } finally {
+            publishChannels.offer(channel);
         }
 
-        JSONObject obj = JSONUtil.parseObject(json);
-        String id = (String) obj.get("id");
-        if (!ValidationUtil.isValidUuid(id)) {
-            logger.warn("Non-valid UUID received in server: \"" + id + "\".");
-            return;
+        long elapsed = System.nanoTime() - start;
+        numPublished.getAndIncrement();
+        totalPublishNanos.getAndAdd(elapsed);
+        if (ConfigUtil.getDebugOrFalse()) {
+            logger.info("Published " + data.length + " bytes of " + codec.getName() + " to " + packet.getType().getChannel() + " in " + TimeUnit.NANOSECONDS.toMicros(elapsed) / 1000.0d + "ms (avg " + String.format("%.2f", getAveragePublishMillis()) + "ms, " + numChannelsOpened.get() + " channel(s) opened)");
         }
-
-        handler.serverCallback(
-                UUID.fromString(props.getMessageId()),
-                ((Number) obj.get("longID")).longValue(),
-                UUID.fromString(id),
-                (String) obj.get("name"),
-                this
-        );
     }
 
-    private void receivePlayer(AMQP.BasicProperties props, String json) throws UnsupportedEncodingException, ParseException, ClassCastException {
-        if (props.getHeaders() == null || props.getHeaders().isEmpty()) {
-            logger.warn("Properties for received player was null or empty.");
-            return;
-        }
-        String sender = new String(((LongString) props.getHeaders().get("sender")).getBytes(), props.getContentEncoding());
-        if (!ValidationUtil.isValidUuid(sender)) {
-            logger.warn("Non-valid sender received in player: \"" + sender + "\".");
-            return;
-        }
-        if (serverID.equals(sender)) {
-            return;
-        }
-
-        if (!ValidationUtil.isValidUuid(props.getMessageId())) {
-            logger.warn("Non-valid message ID received in player: \"" + props.getMessageId() + "\".");
-            return;
-        }
-
-        JSONObject obj = JSONUtil.parseObject(json);
-        String id = (String) obj.get("id");
-        if (!ValidationUtil.isValidUuid(id)) {
-            logger.warn("Non-valid UUID received in player: \"" + id + "\".");
-            return;
-        }
-
-        handler.playerCallback(
-                UUID.fromString(props.getMessageId()),
-                UUID.fromString(id),
-                ((Number) obj.get("longID")).longValue(),
-                this
-        );
+    private RecoverableChannel openPublishChannel() throws IOException {
+        numChannelsOpened.getAndIncrement();
+        return getChannel();
     }
 
-    private void receivePost(AMQP.BasicProperties props, String json) throws UnsupportedEncodingException, ParseException, ClassCastException {
-        if (props.getHeaders() == null || props.getHeaders().isEmpty()) {
-            logger.warn("Properties for received post was null or empty.");
-            return;
-        }
-        String sender = new String(((LongString) props.getHeaders().get("sender")).getBytes(), props.getContentEncoding());
-        if (!ValidationUtil.isValidUuid(sender)) {
-            logger.warn("Non-valid sender received in post: \"" + sender + "\".");
-            return;
-        }
-        if (serverID.equals(sender)) {
-            return;
-        }
-
-        if (!ValidationUtil.isValidUuid(props.getMessageId())) {
-            logger.warn("Non-valid message ID received in post: \"" + props.getMessageId() + "\".");
-            return;
-        }
-
-        JSONObject obj = JSONUtil.parseObject(json);
-        String serverID = (String) obj.get("serverID");
-        if (!ValidationUtil.isValidUuid(serverID)) {
-            logger.warn("Non-valid server ID received in post: \"" + serverID + "\".");
-            return;
-        }
-
-        String playerID = (String) obj.get("playerID");
-        if (!ValidationUtil.isValidUuid(playerID)) {
-            logger.warn("Non-valid player ID received in post: \"" + serverID + "\".");
-            return;
-        }
+    private AMQP.BasicProperties getProperties(UUID messageID, DeliveryMode deliveryMode) {
+        Map<String, Object> headers = new HashMap<>();
+        headers.put("sender", serverID);
 
-        handler.postCallback(
-                UUID.fromString(props.getMessageId()),
-                ((Number) obj.get("id")).longValue(),
-                ((Number) obj.get("longServerID")).longValue(),
-                UUID.fromString(serverID),
-                (String) obj.get("serverName"),
-                ((Number) obj.get("longPlayerID")).longValue(),
-                UUID.fromString(playerID),
-                ((Number) obj.get("level")).byteValue(),
-                (String) obj.get("levelName"),
-                (String) obj.get("message"),
-                ((Number) obj.get("date")).longValue(),
-                this
-        );
+        AMQP.BasicProperties.Builder retVal = new AMQP.BasicProperties.Builder();
+        retVal.contentType(codec.getContentType());
+        retVal.contentEncoding(StandardCharsets.UTF_8.name());
+        retVal.messageId(messageID.toString());
+        retVal.deliveryMode(deliveryMode.getMode());
+        retVal.headers(headers);
+        return retVal.build();
     }
 
-    private void receiveToggle(AMQP.BasicProperties props, String json) throws UnsupportedEncodingException, ParseException, ClassCastException {
+    private void receive(Packet.Type type, AMQP.BasicProperties props, byte[] body) throws UnsupportedEncodingException, MessagingException, ClassCastException {
         if (props.getHeaders() == null || props.getHeaders().isEmpty()) {
-            logger.warn("Properties for received toggle was null or empty.");
+            logger.warn("Properties for received " + type.name().toLowerCase() + " was null or empty.");
             return;
         }
         String sender = new String(((LongString) props.getHeaders().get("sender")).getBytes(), props.getContentEncoding());
         if (!ValidationUtil.isValidUuid(sender)) {
-            logger.warn("Non-valid sender received in toggle: \"" + sender + "\".");
+            logger.warn("Non-valid sender received in " + type.name().toLowerCase() + ": \"" + sender + "\".");
             return;
         }
         if (serverID.equals(sender)) {
@@ -465,23 +306,15 @@ public class RabbitMQ implements Messaging {
         }
 
         if (!ValidationUtil.isValidUuid(props.getMessageId())) {
-            logger.warn("Non-valid message ID received in toggle: \"" + props.getMessageId() + "\".");
-            return;
-        }
-
-        JSONObject obj = JSONUtil.parseObject(json);
-        String playerID = (String) obj.get("playerID");
-        if (!ValidationUtil.isValidUuid(playerID)) {
-            logger.warn("Non-valid player ID received in toggle: \"" + playerID + "\".");
+            logger.warn("Non-valid message ID received in " + type.name().toLowerCase() + ": \"" + props.getMessageId() + "\".");
             return;
         }
 
-        handler.toggleCallback(
-                UUID.fromString(props.getMessageId()),
-                UUID.fromString(playerID),
-                ((Number) obj.get("level")).byteValue(),
-                this
-        );
+        // Always decode whatever arrives, so servers sending with either codec can share a network
+        MessagingCodec.detect(body)
+                .decode(type, body)
+                .withEnvelope(UUID.fromString(sender), UUID.fromString(props.getMessageId()))
+                .callback(handler, this);
     }
 
     private RecoverableConnection getConnection() throws IOException, TimeoutException { return (RecoverableConnection) factory.newConnection(); }
@@ -1,33 +1,54 @@
 package me.egg82.ssc.messaging;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import me.egg82.ssc.messaging.codec.MessagingCodec;
+import me.egg82.ssc.messaging.codec.Packet;
 import me.egg82.ssc.services.MessagingHandler;
-import me.egg82.ssc.utils.ValidationUtil;
-import ninja.egg82.analytics.utils.JSONUtil;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.ParseException;
+import me.egg82.ssc.utils.ConfigUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import redis.clients.jedis.BinaryJedisPubSub;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
-import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
 import redis.clients.jedis.exceptions.JedisException;
 
-public class Redis extends JedisPubSub implements Messaging {
+public class Redis extends BinaryJedisPubSub implements Messaging {
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
+    // All packets can share one channel, tagged with their type by the codec
+    // The per-type channels are still listened on, and sent on unless told otherwise, since older servers only use those
+    private static final byte[] CHANNEL = "simplestaffchat".getBytes(StandardCharsets.UTF_8);
+    private static final int MAX_PIPELINE_SIZE = 100;
+
     private ExecutorService workPool = Executors.newFixedThreadPool(1, new ThreadFactoryBuilder().setNameFormat("SimpleStaffChat-Redis-%d").build());
+    // Decoding and handling happen here rather than on the subscriber thread, so a slow handler never stalls the subscription
+    private ExecutorService decodePool = Executors.newFixedThreadPool(1, new ThreadFactoryBuilder().setNameFormat("SimpleStaffChat-Redis-Decode-%d").build());
+    private ExecutorService publishPool = Executors.newFixedThreadPool(1, new ThreadFactoryBuilder().setNameFormat("SimpleStaffChat-Redis-Publish-%d").build());
 
     private JedisPool pool;
+    private int timeout = 5000;
+
+    // Publishes from every thread are coalesced into pipelines on this single connection
+    // Only ever touched by the publish thread
+    private final BlockingQueue<PendingPublish> publishQueue = new LinkedBlockingQueue<>();
+    private Jedis publishConnection = null;
+
+    private final AtomicLong numPublished = new AtomicLong(0L);
+    private final AtomicLong numPipelines = new AtomicLong(0L);
 
-    private String serverID;
     private UUID uuidServerID;
     private MessagingHandler handler;
+    private MessagingCodec codec = MessagingCodec.JSON;
+    private boolean singleChannel = false;
 
     private Redis() { }
 
@@ -35,13 +56,28 @@ public class Redis extends JedisPubSub implements Messaging {
 
     public void close() {
         closed = true;
-        workPool.shutdown();
-        try {
-            if (!workPool.awaitTermination(4L, TimeUnit.SECONDS)) {
-                workPool.shutdownNow();
+        if (isSubscribed()) {
+            try {
+                unsubscribe();
+            } catch (JedisException ignored) { }
+        }
+        for (ExecutorService service : new ExecutorService[] { publishPool, workPool, decodePool }) {
+            service.shutdown();
+            try {
+                if (!service.awaitTermination(4L, TimeUnit.SECONDS)) {
+                    service.shutdownNow();
+                }
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
             }
-        } catch (InterruptedException ignored) {
-            Thread.currentThread().interrupt();
+        }
+
+        PendingPublish publish;
+        while ((publish = publishQueue.poll()) != null) {
+            publish.future.completeExceptionally(new MessagingException(false, "Messaging was closed before the message could be sent."));
+        }
+        if (publishConnection != null) {
+            publishConnection.close();
         }
         pool.close();
     }
@@ -70,7 +106,6 @@ public class Redis extends JedisPubSub implements Messaging {
             }
 
             result.uuidServerID = serverID;
-            result.serverID = serverID.toString();
             result.handler = handler;
         }
 
@@ -95,6 +130,24 @@ public class Redis extends JedisPubSub implements Messaging {
             config.setMinEvictableIdleTimeMillis(lifetime);
             config.setMaxWaitMillis(timeout);
             this.timeout = timeout;
+            result.timeout = timeout;
+            return this;
+        }
+
+        public Redis.Builder codec(MessagingCodec codec) {
+            if (codec == null) {
+                throw new IllegalArgumentException("codec cannot be null.");
+            }
+            result.codec = codec;
+            return this;
+        }
+
+        /**
+         * Whether or not to send on the one shared channel rather than the per-type channels
+         * Independent of the codec, so json can go over one channel and binary can go over the old ones
+         */
+        public Redis.Builder singleChannel(boolean value) {
+            result.singleChannel = value;
             return this;
         }
 
@@ -105,6 +158,7 @@ public class Redis extends JedisPubSub implements Messaging {
             warmup(result.pool);
             // Indefinite subscription
             subscribe();
+            result.publishPool.execute(result::runPublisher);
             return result;
         }
 
@@ -113,11 +167,12 @@ public class Redis extends JedisPubSub implements Messaging {
                 while (!result.isClosed()) {
                     try (Jedis redis = result.pool.getResource()) {
                         redis.subscribe(result,
-                                "simplestaffchat-level",
-                                "simplestaffchat-server",
-                                "simplestaffchat-player",
-                                "simplestaffchat-post",
-                                "simplestaffchat-toggle"
+                                CHANNEL,
+                                Packet.Type.LEVEL.getChannel().getBytes(StandardCharsets.UTF_8),
+                                Packet.Type.SERVER.getChannel().getBytes(StandardCharsets.UTF_8),
+                                Packet.Type.PLAYER.getChannel().getBytes(StandardCharsets.UTF_8),
+                                Packet.Type.POST.getChannel().getBytes(StandardCharsets.UTF_8),
+                                Packet.Type.TOGGLE.getChannel().getBytes(StandardCharsets.UTF_8)
                         );
                     } catch (JedisException ex) {
                         if (!result.isClosed()) {
@@ -162,14 +217,7 @@ public class Redis extends JedisPubSub implements Messaging {
             throw new IllegalArgumentException("name cannot be null.");
         }
 
-        try (Jedis redis = pool.getResource()) {
-            JSONObject obj = createJSON(messageID);
-            obj.put("level", level);
-            obj.put("name", name);
-            redis.publish("simplestaffchat-level", obj.toJSONString());
-        } catch (JedisException ex) {
-            throw new MessagingException(isAutomaticallyRecoverable(ex), ex);
-        }
+        publish(Packet.level(uuidServerID, messageID, level, name));
     }
 
     public void sendServer(UUID messageID, long longServerID, UUID serverID, String name) throws MessagingException {
@@ -183,15 +231,7 @@ public class Redis extends JedisPubSub implements Messaging {
             throw new IllegalArgumentException("name cannot be null.");
         }
 
-        try (Jedis redis = pool.getResource()) {
-            JSONObject obj = createJSON(messageID);
-            obj.put("longID", longServerID);
-            obj.put("id", serverID.toString());
-            obj.put("name", name);
-            redis.publish("simplestaffchat-server", obj.toJSONString());
-        } catch (JedisException ex) {
-            throw new MessagingException(isAutomaticallyRecoverable(ex), ex);
-        }
+        publish(Packet.server(uuidServerID, messageID, longServerID, serverID, name));
     }
 
     public void sendPlayer(UUID messageID, long longPlayerID, UUID playerID) throws MessagingException {
@@ -202,17 +242,10 @@ public class Redis extends JedisPubSub implements Messaging {
             throw new IllegalArgumentException("playerID cannot be null.");
         }
 
-        try (Jedis redis = pool.getResource()) {
-            JSONObject obj = createJSON(messageID);
-            obj.put("longID", longPlayerID);
-            obj.put("id", playerID.toString());
-            redis.publish("simplestaffchat-player", obj.toJSONString());
-        } catch (JedisException ex) {
-            throw new MessagingException(isAutomaticallyRecoverable(ex), ex);
-        }
+        publish(Packet.player(uuidServerID, messageID, longPlayerID, playerID));
     }
 
-    public void sendPost(UUID messageID, long postID, long longServerID, UUID serverID, String serverName, long longPlayerID, UUID playerID, byte level, String levelName, String message, long date) throws MessagingException {
+    public void sendPost(UUID messageID, long postID, long longServerID, UUID serverID, String serverName, long longPlayerID, UUID playerID, String playerName, byte level, String levelName, String message, long date) throws MessagingException {
         if (messageID == null) {
             throw new IllegalArgumentException("messageID cannot be null.");
         }
@@ -220,22 +253,7 @@ public class Redis extends JedisPubSub implements Messaging {
             throw new IllegalArgumentException("message cannot be null.");
         }
 
-        try (Jedis redis = pool.getResource()) {
-            JSONObject obj = createJSON(messageID);
-            obj.put("id", postID);
-            obj.put("longServerID", longServerID);
-            obj.put("serverID", serverID.toString());
-            obj.put("serverName", serverName);
-            obj.put("longPlayerID", longPlayerID);
-            obj.put("playerID", playerID.toString());
-            obj.put("level", level);
-            obj.put("levelName", levelName);
-            obj.put("message", message);
-            obj.put("date", date);
-            redis.publish("simplestaffchat-post", obj.toJSONString());
-        } catch (JedisException ex) {
-            throw new MessagingException(isAutomaticallyRecoverable(ex), ex);
-        }
+        publish(Packet.post(uuidServerID, messageID, postID, longServerID, serverID, serverName, longPlayerID, playerID, playerName, level, levelName, message, date));
     }
 
     public void sendToggle(UUID messageID, UUID playerID, byte level) throws MessagingException {
@@ -246,221 +264,170 @@ public class Redis extends JedisPubSub implements Messaging {
             throw new IllegalArgumentException("playerID cannot be null.");
         }
 
-        try (Jedis redis = pool.getResource()) {
-            JSONObject obj = createJSON(messageID);
-            obj.put("playerID", playerID.toString());
-            obj.put("level", level);
-            redis.publish("simplestaffchat-toggle", obj.toJSONString());
-        } catch (JedisException ex) {
-            throw new MessagingException(isAutomaticallyRecoverable(ex), ex);
-        }
+        publish(Packet.toggle(uuidServerID, messageID, playerID, level));
     }
 
-    private JSONObject createJSON(UUID messageID) {
-        JSONObject retVal = new JSONObject();
-        retVal.put("sender", serverID);
-        retVal.put("messageID", messageID.toString());
-        return retVal;
+    public long getNumPublished() { return numPublished.get(); }
+
+    public long getNumPipelines() { return numPipelines.get(); }
+
+    public double getAveragePipelineSize() {
+        long pipelines = numPipelines.get();
+        return pipelines == 0L ? 0.0d : (double) numPublished.get() / pipelines;
     }
 
-    private boolean isAutomaticallyRecoverable(JedisException ex) {
-        if (
-                ex.getMessage().startsWith("Failed connecting")
-                || ex.getMessage().contains("broken connection")
-        ) {
-            return true;
+    private void publish(Packet packet) throws MessagingException {
+        if (closed) {
+            throw new MessagingException(false, "Messaging is closed.");
         }
-        return false;
-    }
 
-    public void onMessage(String channel, String message) {
+        PendingPublish publish = new PendingPublish(singleChannel ? CHANNEL : packet.getType().getChannel().getBytes(StandardCharsets.UTF_8), codec.encode(packet));
+        publishQueue.add(publish);
         try {
-            switch (channel) {
-                case "simplestaffchat-level":
-                    receiveLevel(message);
-                    break;
-                case "simplestaffchat-server":
-                    receiveServer(message);
-                    break;
-                case "simplestaffchat-player":
-                    receivePlayer(message);
-                    break;
-                case "simplestaffchat-post":
-                    receivePost(message);
-                    break;
-                case "simplestaffchat-toggle":
-                    receiveToggle(message);
-                    break;
-                default:
-                    logger.warn("Got data from channel that should not exist.");
-                    break;
+            publish.future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            // Only pulled if the publisher hasn't got to it yet. Otherwise it may still go out
+            publishQueue.remove(publish);
+            Thread.currentThread().interrupt();
+            throw new MessagingException(true, "Interrupted while waiting for publish.", ex);
+        } catch (TimeoutException ex) {
+            publishQueue.remove(publish);
+            throw new MessagingException(true, "Timed out waiting for publish.", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof MessagingException) {
+                throw (MessagingException) ex.getCause();
             }
-        } catch (ParseException | ClassCastException ex) {
-            logger.warn("Could not parse incoming data.", ex);
+            throw new MessagingException(false, "Could not publish.", ex.getCause());
         }
     }
 
-    private void receiveLevel(String json) throws ParseException, ClassCastException {
-        JSONObject obj = JSONUtil.parseObject(json);
-        String sender = (String) obj.get("sender");
-        if (!ValidationUtil.isValidUuid(sender)) {
-            logger.warn("Non-valid sender received in level: \"" + sender + "\".");
-            return;
-        }
-        if (serverID.equals(sender)) {
-            return;
-        }
+    private void runPublisher() {
+        List<PendingPublish> batch = new ArrayList<>(MAX_PIPELINE_SIZE);
+        while (!closed) {
+            try {
+                PendingPublish first = publishQueue.poll(1L, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // Anything that queued up while the last pipeline was in flight goes out together
+                publishQueue.drainTo(batch, MAX_PIPELINE_SIZE - 1);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+                return;
+            }
 
-        String messageID = (String) obj.get("messageID");
-        if (!ValidationUtil.isValidUuid(messageID)) {
-            logger.warn("Non-valid message ID received in level: \"" + messageID + "\".");
-            return;
+            flush(batch);
+            batch.clear();
         }
-
-        handler.levelCallback(
-                UUID.fromString(messageID),
-                ((Number) obj.get("level")).byteValue(),
-                (String) obj.get("name"),
-                this
-        );
     }
 
-    private void receiveServer(String json) throws ParseException, ClassCastException {
-        JSONObject obj = JSONUtil.parseObject(json);
-        String sender = (String) obj.get("sender");
-        if (!ValidationUtil.isValidUuid(sender)) {
-            logger.warn("Non-valid sender received in server: \"" + sender + "\".");
-            return;
-        }
-        if (serverID.equals(sender)) {
-            return;
-        }
+    private void flush(List<PendingPublish> batch) {
+        long start = System.nanoTime();
+        int bytes = 0;
+        try {
+            if (publishConnection == null || !publishConnection.isConnected()) {
+                if (publishConnection != null) {
+                    publishConnection.close();
+                }
+                publishConnection = pool.getResource();
+            }
 
-        String messageID = (String) obj.get("messageID");
-        if (!ValidationUtil.isValidUuid(messageID)) {
-            logger.warn("Non-valid message ID received in server: \"" + messageID + "\".");
+            if (batch.size() == 1) {
+                publishConnection.publish(batch.get(0).channel, batch.get(0).data);
+                bytes += batch.get(0).data.length;
+            } else {
+                Pipeline pipeline = publishConnection.pipelined();
+                for (PendingPublish publish : batch) {
+                    pipeline.publish(publish.channel, publish.data);
+                    bytes += publish.data.length;
+                }
+                pipeline.sync();
+            }
+        } catch (JedisException ex) {
+            // The connection is likely dead, so get a fresh one next time
+            if (publishConnection != null) {
+                try {
+                    publishConnection.close();
+                } catch (JedisException ignored) { }
+                publishConnection = null;
+            }
+            MessagingException messagingEx = new MessagingException(isAutomaticallyRecoverable(ex), ex);
+            for (PendingPublish publish : batch) {
+                publish.future.completeExceptionally(messagingEx);
+            }
             return;
         }
 
-        String id = (String) obj.get("id");
-        if (!ValidationUtil.isValidUuid(id)) {
-            logger.warn("Non-valid UUID received in server: \"" + id + "\".");
-            return;
+        numPublished.getAndAdd(batch.size());
+        numPipelines.getAndIncrement();
+        if (ConfigUtil.getDebugOrFalse()) {
+            logger.info("Published " + batch.size() + " message(s) (" + bytes + " bytes of " + codec.getName() + ") to Redis in " + TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start) / 1000.0d + "ms (avg pipeline " + String.format("%.2f", getAveragePipelineSize()) + ")");
         }
 
-        handler.serverCallback(
-                UUID.fromString(messageID),
-                ((Number) obj.get("longID")).longValue(),
-                UUID.fromString(id),
-                (String) obj.get("name"),
-                this
-        );
-    }
-
-    private void receivePlayer(String json) throws ParseException, ClassCastException {
-        JSONObject obj = JSONUtil.parseObject(json);
-        String sender = (String) obj.get("sender");
-        if (!ValidationUtil.isValidUuid(sender)) {
-            logger.warn("Non-valid sender received in player: \"" + sender + "\".");
-            return;
-        }
-        if (serverID.equals(sender)) {
-            return;
+        for (PendingPublish publish : batch) {
+            publish.future.complete(null);
         }
+    }
 
-        String messageID = (String) obj.get("messageID");
-        if (!ValidationUtil.isValidUuid(messageID)) {
-            logger.warn("Non-valid message ID received in player: \"" + messageID + "\".");
-            return;
+    private boolean isAutomaticallyRecoverable(JedisException ex) {
+        if (
+                ex.getMessage().startsWith("Failed connecting")
+                || ex.getMessage().contains("broken connection")
+        ) {
+            return true;
         }
+        return false;
+    }
 
-        String id = (String) obj.get("id");
-        if (!ValidationUtil.isValidUuid(id)) {
-            logger.warn("Non-valid UUID received in player: \"" + id + "\".");
-            return;
+    public void onMessage(byte[] channel, byte[] message) {
+        try {
+            decodePool.execute(() -> receive(channel, message));
+        } catch (RejectedExecutionException ex) {
+            if (!closed) {
+                logger.warn("Could not queue incoming data.", ex);
+            }
         }
-
-        handler.playerCallback(
-                UUID.fromString(messageID),
-                UUID.fromString(id),
-                ((Number) obj.get("longID")).longValue(),
-                this
-        );
     }
 
-    private void receivePost(String json) throws ParseException, ClassCastException {
-        JSONObject obj = JSONUtil.parseObject(json);
-        String sender = (String) obj.get("sender");
-        if (!ValidationUtil.isValidUuid(sender)) {
-            logger.warn("Non-valid sender received in post: \"" + sender + "\".");
-            return;
-        }
-        if (serverID.equals(sender)) {
-            return;
+    private void receive(byte[] channel, byte[] message) {
+        Packet.Type type = null;
+        if (!Arrays.equals(CHANNEL, channel)) {
+            type = Packet.Type.fromChannel(new String(channel, StandardCharsets.UTF_8));
+            if (type == null) {
+                logger.warn("Got data from channel that should not exist.");
+                return;
+            }
         }
 
-        String messageID = (String) obj.get("messageID");
-        if (!ValidationUtil.isValidUuid(messageID)) {
-            logger.warn("Non-valid message ID received in post: \"" + messageID + "\".");
+        Packet packet;
+        try {
+            // Always decode whatever arrives, so servers sending with either codec can share a network
+            packet = MessagingCodec.detect(message).decode(type, message);
+        } catch (MessagingException ex) {
+            logger.warn("Could not parse incoming data.", ex);
             return;
         }
 
-        String serverID = (String) obj.get("serverID");
-        if (!ValidationUtil.isValidUuid(serverID)) {
-            logger.warn("Non-valid server ID received in post: \"" + serverID + "\".");
+        if (packet.getSender() == null || packet.getMessageID() == null) {
+            logger.warn("Received " + packet.getType().name().toLowerCase() + " without a sender or message ID.");
             return;
         }
-
-        String playerID = (String) obj.get("playerID");
-        if (!ValidationUtil.isValidUuid(playerID)) {
-            logger.warn("Non-valid player ID received in post: \"" + serverID + "\".");
+        if (uuidServerID.equals(packet.getSender())) {
             return;
         }
 
-        handler.postCallback(
-                UUID.fromString(messageID),
-                ((Number) obj.get("id")).longValue(),
-                ((Number) obj.get("longServerID")).longValue(),
-                UUID.fromString(serverID),
-                (String) obj.get("serverName"),
-                ((Number) obj.get("longPlayerID")).longValue(),
-                UUID.fromString(playerID),
-                ((Number) obj.get("level")).byteValue(),
-                (String) obj.get("levelName"),
-                (String) obj.get("message"),
-                ((Number) obj.get("date")).longValue(),
-                this
-        );
+        packet.callback(handler, this);
     }
 
-    private void receiveToggle(String json) throws ParseException, ClassCastException {
-        JSONObject obj = JSONUtil.parseObject(json);
-        String sender = (String) obj.get("sender");
-        if (!ValidationUtil.isValidUuid(sender)) {
-            logger.warn("Non-valid sender received in toggle: \"" + sender + "\".");
-            return;
-        }
-        if (serverID.equals(sender)) {
-            return;
-        }
+    private static class PendingPublish {
+        private final byte[] channel;
+        private final byte[] data;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
 
-        String messageID = (String) obj.get("messageID");
-        if (!ValidationUtil.isValidUuid(messageID)) {
-            logger.warn("Non-valid message ID received in toggle: \"" + messageID + "\".");
-            return;
+        private PendingPublish(byte[] channel, byte[] data) {
+            this.channel = channel;
+            this.data = data;
         }
-
-        String playerID = (String) obj.get("playerID");
-        if (!ValidationUtil.isValidUuid(playerID)) {
-            logger.warn("Non-valid player ID received in toggle: \"" + playerID + "\".");
-            return;
-        }
-
-        handler.toggleCallback(
-                UUID.fromString(messageID),
-                UUID.fromString(playerID),
-                ((Number) obj.get("level")).byteValue(),
-                this
-        );
     }
 }
@@ -0,0 +1,197 @@
+package me.egg82.ssc.messaging.codec;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.UUID;
+import me.egg82.ssc.messaging.MessagingException;
+
+/**
+ * Compact binary wire format
+ *
+ * Layout: version byte, type byte, sender and message ID as two longs each, then the type's fields.
+ * UUIDs are two longs, IDs and dates are unsigned varints, strings are a varint length (0 = null, else length + 1) followed by UTF-8
+ *
+ * Fields added later go on the end and are optional on read, so older packets still decode without a version bump
+ */
+public class BinaryCodec implements MessagingCodec {
+    // Must never be '{', so JSON and binary can be told apart by their first byte
+    private static final byte VERSION = 1;
+
+    BinaryCodec() { }
+
+    public String getName() { return "binary"; }
+
+    public String getContentType() { return "application/octet-stream"; }
+
+    public byte[] encode(Packet packet) {
+        Writer writer = new Writer(packet.getType() == Packet.Type.POST ? 128 + packet.getMessage().length() * 3 : 64);
+        writer.writeByte(VERSION);
+        writer.writeByte(packet.getType().getID());
+        writer.writeUUID(packet.getSender());
+        writer.writeUUID(packet.getMessageID());
+
+        switch (packet.getType()) {
+            case LEVEL:
+                writer.writeByte(packet.getLevel());
+                writer.writeString(packet.getLevelName());
+                break;
+            case SERVER:
+                writer.writeVarLong(packet.getLongServerID());
+                writer.writeUUID(packet.getServerID());
+                writer.writeString(packet.getServerName());
+                break;
+            case PLAYER:
+                writer.writeVarLong(packet.getLongPlayerID());
+                writer.writeUUID(packet.getPlayerID());
+                break;
+            case POST:
+                writer.writeVarLong(packet.getPostID());
+                writer.writeVarLong(packet.getLongServerID());
+                writer.writeUUID(packet.getServerID());
+                writer.writeString(packet.getServerName());
+                writer.writeVarLong(packet.getLongPlayerID());
+                writer.writeUUID(packet.getPlayerID());
+                writer.writeByte(packet.getLevel());
+                writer.writeString(packet.getLevelName());
+                writer.writeString(packet.getMessage());
+                writer.writeVarLong(packet.getDate());
+                writer.writeString(packet.getPlayerName());
+                break;
+            case TOGGLE:
+                writer.writeUUID(packet.getPlayerID());
+                writer.writeByte(packet.getLevel());
+                break;
+        }
+
+        return writer.toByteArray();
+    }
+
+    public Packet decode(Packet.Type type, byte[] data) throws MessagingException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        try {
+            byte version = buffer.get();
+            if (version != VERSION) {
+                throw new MessagingException(false, "Unsupported binary packet version " + version + ". Is this server out of date?");
+            }
+
+            Packet.Type encodedType = Packet.Type.fromID(buffer.get());
+            if (encodedType == null || (type != null && type != encodedType)) {
+                throw new MessagingException(false, "Packet type " + encodedType + " does not match expected type " + type + ".");
+            }
+
+            UUID sender = readUUID(buffer);
+            UUID messageID = readUUID(buffer);
+
+            switch (encodedType) {
+                case LEVEL:
+                    return Packet.level(sender, messageID, buffer.get(), readString(buffer));
+                case SERVER:
+                    return Packet.server(sender, messageID, readVarLong(buffer), readUUID(buffer), readString(buffer));
+                case PLAYER:
+                    return Packet.player(sender, messageID, readVarLong(buffer), readUUID(buffer));
+                case POST: {
+                    long postID = readVarLong(buffer);
+                    long longServerID = readVarLong(buffer);
+                    UUID serverID = readUUID(buffer);
+                    String serverName = readString(buffer);
+                    long longPlayerID = readVarLong(buffer);
+                    UUID playerID = readUUID(buffer);
+                    byte level = buffer.get();
+                    String levelName = readString(buffer);
+                    String message = readString(buffer);
+                    long date = readVarLong(buffer);
+                    String playerName = buffer.hasRemaining() ? readString(buffer) : null;
+                    return Packet.post(sender, messageID, postID, longServerID, serverID, serverName, longPlayerID, playerID, playerName, level, levelName, message, date);
+                }
+                case TOGGLE:
+                    return Packet.toggle(sender, messageID, readUUID(buffer), buffer.get());
+                default:
+                    throw new MessagingException(false, "Unknown packet type: \"" + encodedType + "\".");
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException ex) {
+            throw new MessagingException(false, "Could not decode binary packet.", ex);
+        }
+    }
+
+    private static UUID readUUID(ByteBuffer buffer) { return new UUID(buffer.getLong(), buffer.getLong()); }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long retVal = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            retVal |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return retVal;
+            }
+        }
+        throw new IllegalArgumentException("VarLong is too long.");
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        long length = readVarLong(buffer);
+        if (length == 0L) {
+            return null;
+        }
+        if (length < 0L || length - 1L > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String retVal = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), (int) length - 1, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + (int) length - 1);
+        return retVal;
+    }
+
+    private static class Writer {
+        private byte[] buffer;
+        private int size = 0;
+
+        private Writer(int initialCapacity) { buffer = new byte[initialCapacity]; }
+
+        private void writeByte(byte b) {
+            ensureCapacity(1);
+            buffer[size++] = b;
+        }
+
+        private void writeLong(long l) {
+            ensureCapacity(8);
+            for (int i = 56; i >= 0; i -= 8) {
+                buffer[size++] = (byte) (l >>> i);
+            }
+        }
+
+        private void writeUUID(UUID uuid) {
+            writeLong(uuid.getMostSignificantBits());
+            writeLong(uuid.getLeastSignificantBits());
+        }
+
+        private void writeVarLong(long l) {
+            ensureCapacity(10);
+            while ((l & ~0x7FL) != 0L) {
+                buffer[size++] = (byte) ((l & 0x7F) | 0x80);
+                l >>>= 7;
+            }
+            buffer[size++] = (byte) l;
+        }
+
+        private void writeString(String s) {
+            if (s == null) {
+                writeVarLong(0L);
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length + 1L);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+
+        private byte[] toByteArray() { return size == buffer.length ? buffer : Arrays.copyOf(buffer, size); }
+    }
+}
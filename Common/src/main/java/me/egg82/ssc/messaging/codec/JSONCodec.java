@@ -0,0 +1,124 @@
+package me.egg82.ssc.messaging.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import me.egg82.ssc.messaging.MessagingException;
+import me.egg82.ssc.utils.ValidationUtil;
+import ninja.egg82.analytics.utils.JSONUtil;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+
+/**
+ * The original wire format. Readable by every version of the plugin, so it stays the default
+ */
+public class JSONCodec implements MessagingCodec {
+    JSONCodec() { }
+
+    public String getName() { return "json"; }
+
+    public String getContentType() { return "application/json"; }
+
+    public byte[] encode(Packet packet) {
+        JSONObject obj = new JSONObject();
+        obj.put("type", packet.getType().getID());
+        if (packet.getSender() != null) {
+            obj.put("sender", packet.getSender().toString());
+        }
+        if (packet.getMessageID() != null) {
+            obj.put("messageID", packet.getMessageID().toString());
+        }
+
+        switch (packet.getType()) {
+            case LEVEL:
+                obj.put("level", packet.getLevel());
+                obj.put("name", packet.getLevelName());
+                break;
+            case SERVER:
+                obj.put("longID", packet.getLongServerID());
+                obj.put("id", packet.getServerID().toString());
+                obj.put("name", packet.getServerName());
+                break;
+            case PLAYER:
+                obj.put("longID", packet.getLongPlayerID());
+                obj.put("id", packet.getPlayerID().toString());
+                break;
+            case POST:
+                obj.put("id", packet.getPostID());
+                obj.put("longServerID", packet.getLongServerID());
+                obj.put("serverID", packet.getServerID().toString());
+                obj.put("serverName", packet.getServerName());
+                obj.put("longPlayerID", packet.getLongPlayerID());
+                obj.put("playerID", packet.getPlayerID().toString());
+                if (packet.getPlayerName() != null) {
+                    obj.put("playerName", packet.getPlayerName());
+                }
+                obj.put("level", packet.getLevel());
+                obj.put("levelName", packet.getLevelName());
+                obj.put("message", packet.getMessage());
+                obj.put("date", packet.getDate());
+                break;
+            case TOGGLE:
+                obj.put("playerID", packet.getPlayerID().toString());
+                obj.put("level", packet.getLevel());
+                break;
+        }
+
+        return obj.toJSONString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    public Packet decode(Packet.Type type, byte[] data) throws MessagingException {
+        try {
+            JSONObject obj = JSONUtil.parseObject(new String(data, StandardCharsets.UTF_8));
+            if (type == null) {
+                Number typeID = (Number) obj.get("type");
+                type = typeID == null ? null : Packet.Type.fromID(typeID.byteValue());
+                if (type == null) {
+                    throw new MessagingException(false, "Could not determine packet type: \"" + typeID + "\".");
+                }
+            }
+
+            // Older RabbitMQ senders leave these out of the body
+            UUID sender = obj.containsKey("sender") ? getUUID(obj, "sender") : null;
+            UUID messageID = obj.containsKey("messageID") ? getUUID(obj, "messageID") : null;
+
+            switch (type) {
+                case LEVEL:
+                    return Packet.level(sender, messageID, ((Number) obj.get("level")).byteValue(), (String) obj.get("name"));
+                case SERVER:
+                    return Packet.server(sender, messageID, ((Number) obj.get("longID")).longValue(), getUUID(obj, "id"), (String) obj.get("name"));
+                case PLAYER:
+                    return Packet.player(sender, messageID, ((Number) obj.get("longID")).longValue(), getUUID(obj, "id"));
+                case POST:
+                    return Packet.post(
+                            sender,
+                            messageID,
+                            ((Number) obj.get("id")).longValue(),
+                            ((Number) obj.get("longServerID")).longValue(),
+                            getUUID(obj, "serverID"),
+                            (String) obj.get("serverName"),
+                            ((Number) obj.get("longPlayerID")).longValue(),
+                            getUUID(obj, "playerID"),
+                            (String) obj.get("playerName"), // Older senders leave this out
+                            ((Number) obj.get("level")).byteValue(),
+                            (String) obj.get("levelName"),
+                            (String) obj.get("message"),
+                            ((Number) obj.get("date")).longValue()
+                    );
+                case TOGGLE:
+                    return Packet.toggle(sender, messageID, getUUID(obj, "playerID"), ((Number) obj.get("level")).byteValue());
+                default:
+                    throw new MessagingException(false, "Unknown packet type: \"" + type + "\".");
+            }
+        } catch (ParseException | ClassCastException | NullPointerException ex) {
+            throw new MessagingException(false, "Could not decode JSON packet.", ex);
+        }
+    }
+
+    private UUID getUUID(JSONObject obj, String key) throws MessagingException {
+        String value = (String) obj.get(key);
+        if (!ValidationUtil.isValidUuid(value)) {
+            throw new MessagingException(false, "Non-valid " + key + " received: \"" + value + "\".");
+        }
+        return UUID.fromString(value);
+    }
+}
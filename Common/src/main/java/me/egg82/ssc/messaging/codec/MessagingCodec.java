@@ -0,0 +1,43 @@
+package me.egg82.ssc.messaging.codec;
+
+import me.egg82.ssc.messaging.MessagingException;
+
+/**
+ * Turns packets into bytes for the wire, and back
+ * Decoding goes through {@link #detect(byte[])} so a server can always read both formats,
+ * no matter which one it sends with
+ */
+public interface MessagingCodec {
+    MessagingCodec JSON = new JSONCodec();
+    MessagingCodec BINARY = new BinaryCodec();
+
+    String getName();
+
+    String getContentType();
+
+    byte[] encode(Packet packet);
+
+    /**
+     * @param type The packet type, if known from the channel it arrived on. May be null if the format carries its own type
+     * @param data The encoded packet
+     * @throws MessagingException if the data could not be decoded
+     */
+    Packet decode(Packet.Type type, byte[] data) throws MessagingException;
+
+    /**
+     * Picks the codec able to read the data. JSON always starts with '{', binary never does
+     */
+    static MessagingCodec detect(byte[] data) {
+        return data.length > 0 && data[0] == '{' ? JSON : BINARY;
+    }
+
+    static MessagingCodec fromName(String name) {
+        if (JSON.getName().equalsIgnoreCase(name)) {
+            return JSON;
+        }
+        if (BINARY.getName().equalsIgnoreCase(name)) {
+            return BINARY;
+        }
+        return null;
+    }
+}
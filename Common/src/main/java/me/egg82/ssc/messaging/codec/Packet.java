@@ -0,0 +1,160 @@
+package me.egg82.ssc.messaging.codec;
+
+import java.util.UUID;
+import me.egg82.ssc.messaging.Messaging;
+import me.egg82.ssc.services.MessagingHandler;
+
+/**
+ * A single message as it travels between servers, independent of how it's encoded
+ */
+public class Packet {
+    private final Type type;
+    private final UUID sender;
+    private final UUID messageID;
+
+    private final long postID;
+    private final long longServerID;
+    private final UUID serverID;
+    private final String serverName;
+    private final long longPlayerID;
+    private final UUID playerID;
+    private final String playerName;
+    private final byte level;
+    private final String levelName;
+    private final String message;
+    private final long date;
+
+    private Packet(Type type, UUID sender, UUID messageID, long postID, long longServerID, UUID serverID, String serverName, long longPlayerID, UUID playerID, String playerName, byte level, String levelName, String message, long date) {
+        this.type = type;
+        this.sender = sender;
+        this.messageID = messageID;
+        this.postID = postID;
+        this.longServerID = longServerID;
+        this.serverID = serverID;
+        this.serverName = serverName;
+        this.longPlayerID = longPlayerID;
+        this.playerID = playerID;
+        this.playerName = playerName;
+        this.level = level;
+        this.levelName = levelName;
+        this.message = message;
+        this.date = date;
+    }
+
+    public static Packet level(UUID sender, UUID messageID, byte level, String name) {
+        return new Packet(Type.LEVEL, sender, messageID, -1L, -1L, null, null, -1L, null, null, level, name, null, -1L);
+    }
+
+    public static Packet server(UUID sender, UUID messageID, long longServerID, UUID serverID, String name) {
+        return new Packet(Type.SERVER, sender, messageID, -1L, longServerID, serverID, name, -1L, null, null, (byte) 0, null, null, -1L);
+    }
+
+    public static Packet player(UUID sender, UUID messageID, long longPlayerID, UUID playerID) {
+        return new Packet(Type.PLAYER, sender, messageID, -1L, -1L, null, null, longPlayerID, playerID, null, (byte) 0, null, null, -1L);
+    }
+
+    public static Packet post(UUID sender, UUID messageID, long postID, long longServerID, UUID serverID, String serverName, long longPlayerID, UUID playerID, String playerName, byte level, String levelName, String message, long date) {
+        return new Packet(Type.POST, sender, messageID, postID, longServerID, serverID, serverName, longPlayerID, playerID, playerName, level, levelName, message, date);
+    }
+
+    public static Packet toggle(UUID sender, UUID messageID, UUID playerID, byte level) {
+        return new Packet(Type.TOGGLE, sender, messageID, -1L, -1L, null, null, -1L, playerID, null, level, null, null, -1L);
+    }
+
+    /**
+     * Fills in the sender and message ID if the encoded form didn't carry them
+     * (older RabbitMQ senders only put them in the message properties)
+     */
+    public Packet withEnvelope(UUID sender, UUID messageID) {
+        if (this.sender != null && this.messageID != null) {
+            return this;
+        }
+        return new Packet(type, this.sender != null ? this.sender : sender, this.messageID != null ? this.messageID : messageID, postID, longServerID, serverID, serverName, longPlayerID, playerID, playerName, level, levelName, message, date);
+    }
+
+    /**
+     * Hands the packet to the matching handler callback
+     */
+    public void callback(MessagingHandler handler, Messaging callingMessaging) {
+        switch (type) {
+            case LEVEL:
+                handler.levelCallback(messageID, level, levelName, callingMessaging);
+                break;
+            case SERVER:
+                handler.serverCallback(messageID, longServerID, serverID, serverName, callingMessaging);
+                break;
+            case PLAYER:
+                handler.playerCallback(messageID, playerID, longPlayerID, callingMessaging);
+                break;
+            case POST:
+                handler.postCallback(messageID, postID, longServerID, serverID, serverName, longPlayerID, playerID, playerName, level, levelName, message, date, callingMessaging);
+                break;
+            case TOGGLE:
+                handler.toggleCallback(messageID, playerID, level, callingMessaging);
+                break;
+        }
+    }
+
+    public Type getType() { return type; }
+
+    public UUID getSender() { return sender; }
+
+    public UUID getMessageID() { return messageID; }
+
+    public long getPostID() { return postID; }
+
+    public long getLongServerID() { return longServerID; }
+
+    public UUID getServerID() { return serverID; }
+
+    public String getServerName() { return serverName; }
+
+    public long getLongPlayerID() { return longPlayerID; }
+
+    public UUID getPlayerID() { return playerID; }
+
+    public String getPlayerName() { return playerName; }
+
+    public byte getLevel() { return level; }
+
+    public String getLevelName() { return levelName; }
+
+    public String getMessage() { return message; }
+
+    public long getDate() { return date; }
+
+    public enum Type {
+        LEVEL((byte) 0, "simplestaffchat-level"),
+        SERVER((byte) 1, "simplestaffchat-server"),
+        PLAYER((byte) 2, "simplestaffchat-player"),
+        POST((byte) 3, "simplestaffchat-post"),
+        TOGGLE((byte) 4, "simplestaffchat-toggle");
+
+        private final byte id;
+        private final String channel;
+        Type(byte id, String channel) {
+            this.id = id;
+            this.channel = channel;
+        }
+        public byte getID() { return id; }
+        public String getChannel() { return channel; }
+
+        public static Type fromID(byte id) {
+            for (Type type : values()) {
+                if (type.id == id) {
+                    return type;
+                }
+            }
+            return null;
+        }
+
+        public static Type fromChannel(String channel) {
+            for (Type type : values()) {
+                if (type.channel.equals(channel)) {
+                    return type;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package me.egg82.ssc.services;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import me.egg82.ssc.extended.CachedConfigValues;
+import me.egg82.ssc.storage.Storage;
+import me.egg82.ssc.storage.StorageException;
+import me.egg82.ssc.utils.ConfigUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deletes chat that's past the configured retention from every storage engine
+ *
+ * Runs on a low-priority thread and deletes in small chunks with a pause after each one,
+ * so the chat tables are never locked for long and posts and queue polls get in between
+ */
+public class ChatRetention {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final int CHUNK_SIZE = 500;
+    private static final long CHUNK_PAUSE_MILLIS = 250L;
+    private static final long INITIAL_DELAY_MILLIS = 60L * 1000L;
+    private static final long RETRY_INTERVAL_MILLIS = 10L * 1000L;
+
+    private final ScheduledExecutorService workPool = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("SimpleStaffChat-Retention-%d").setPriority(Thread.MIN_PRIORITY).build());
+
+    public ChatRetention() {
+        // Started late so it stays out of the way of everything else loading
+        schedule(INITIAL_DELAY_MILLIS);
+    }
+
+    public void close() {
+        workPool.shutdown();
+        try {
+            if (!workPool.awaitTermination(4L, TimeUnit.SECONDS)) {
+                workPool.shutdownNow();
+            }
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void schedule(long delay) {
+        try {
+            workPool.schedule(this::run, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ignored) { }
+    }
+
+    private void run() {
+        Optional<CachedConfigValues> cachedConfig = ConfigUtil.getCachedConfig();
+        if (!cachedConfig.isPresent()) {
+            schedule(RETRY_INTERVAL_MILLIS);
+            return;
+        }
+
+        long maxAge = cachedConfig.get().getRetentionMaxAge();
+        long maxPosts = cachedConfig.get().getRetentionMaxPosts();
+        if (maxAge > 0L || maxPosts > 0L) {
+            for (Storage storage : cachedConfig.get().getStorage()) {
+                if (workPool.isShutdown()) {
+                    return;
+                }
+                if (storage.isClosed()) {
+                    continue;
+                }
+
+                try {
+                    purge(storage, maxAge, maxPosts);
+                } catch (InterruptedException ignored) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        // The interval is read again every run, so a reload takes effect on the next one
+        schedule(cachedConfig.get().getRetentionInterval());
+    }
+
+    private void purge(Storage storage, long maxAge, long maxPosts) throws InterruptedException {
+        String name = storage.getClass().getSimpleName();
+        long start = System.currentTimeMillis();
+        long deleted = 0L;
+
+        try {
+            if (maxAge > 0L) {
+                long before = start - maxAge;
+                int chunk;
+                do {
+                    chunk = storage.deleteChatBefore(before, CHUNK_SIZE);
+                    deleted += chunk;
+                    pause(chunk);
+                } while (chunk > 0);
+            }
+
+            if (maxPosts > 0L) {
+                long keepFrom = storage.getChatIDFromNewest(maxPosts - 1L);
+                if (keepFrom > 0L) {
+                    int chunk;
+                    do {
+                        chunk = storage.deleteChatBelow(keepFrom, CHUNK_SIZE);
+                        deleted += chunk;
+                        pause(chunk);
+                    } while (chunk > 0);
+                }
+            }
+
+            if (deleted > 0L) {
+                storage.compact();
+            }
+        } catch (StorageException ex) {
+            logger.error("Could not delete old chat from " + name + ".", ex);
+        }
+
+        if (deleted > 0L) {
+            logger.info("Deleted " + deleted + " old post(s) from " + name + " in " + (System.currentTimeMillis() - start) + "ms.");
+        } else if (ConfigUtil.getDebugOrFalse()) {
+            logger.info("No old posts to delete from " + name + ".");
+        }
+    }
+
+    private void pause(int chunk) throws InterruptedException {
+        if (workPool.isShutdown()) {
+            throw new InterruptedException();
+        }
+        if (chunk > 0) {
+            Thread.sleep(CHUNK_PAUSE_MILLIS);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package me.egg82.ssc.services;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import me.egg82.ssc.core.LevelResult;
+import me.egg82.ssc.extended.CachedConfigValues;
+import me.egg82.ssc.storage.Storage;
+import me.egg82.ssc.storage.StorageException;
+import me.egg82.ssc.utils.ConfigUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Every known staff chat level, indexed by ID and by name
+ *
+ * Reads only ever see an immutable snapshot, so they never lock or wait on storage.
+ * The snapshot is reloaded in the background before it has a chance to go stale,
+ * and updated straight away whenever a level is set, here or on another server
+ */
+public class LevelRegistry {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final long REFRESH_INTERVAL_MILLIS = 4L * 60L * 1000L;
+    private static final long RETRY_INTERVAL_MILLIS = 10L * 1000L;
+
+    private final ScheduledExecutorService workPool = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("SimpleStaffChat-Levels-%d").build());
+
+    private volatile Snapshot snapshot = new Snapshot(Collections.emptyList());
+    // Writers swap the snapshot under this lock. Readers never take it
+    private final Object writeLock = new Object();
+    private long version = 0L;
+
+    private final AtomicBoolean refreshPending = new AtomicBoolean(false);
+
+    public LevelRegistry() {
+        workPool.scheduleWithFixedDelay(this::invalidate, 0L, REFRESH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public void close() {
+        workPool.shutdown();
+        try {
+            if (!workPool.awaitTermination(4L, TimeUnit.SECONDS)) {
+                workPool.shutdownNow();
+            }
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return The level, or null if it isn't known
+     */
+    public LevelResult get(byte level) { return snapshot.byID[level & 0xFF]; }
+
+    /**
+     * @return The level with the (case-insensitive) name, or null if it isn't known
+     */
+    public LevelResult get(String name) { return name == null ? null : snapshot.byName.get(name.toLowerCase()); }
+
+    /**
+     * Finds a level by name or ID, as typed by a player
+     * @return The level, or null if it isn't known
+     */
+    public LevelResult find(String input) {
+        if (input == null || input.isEmpty()) {
+            return null;
+        }
+
+        LevelResult retVal = get(input);
+        if (retVal != null) {
+            return retVal;
+        }
+        try {
+            return get(Byte.parseByte(input));
+        } catch (NumberFormatException ignored) {
+            return null;
+        }
+    }
+
+    /**
+     * @return Every known level, ordered by ID
+     */
+    public ImmutableList<LevelResult> getLevels() { return snapshot.levels; }
+
+    /**
+     * Adds or renames a level without going back to storage
+     */
+    public void put(byte level, String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("name cannot be null.");
+        }
+
+        synchronized (writeLock) {
+            LevelResult current = snapshot.byID[level & 0xFF];
+            if (current != null && name.equals(current.getName())) {
+                return;
+            }
+
+            List<LevelResult> levels = new ArrayList<>(snapshot.levels.size() + 1);
+            for (LevelResult l : snapshot.levels) {
+                if (l.getLevel() != level) {
+                    levels.add(l);
+                }
+            }
+            levels.add(new LevelResult(level, name));
+            snapshot = new Snapshot(levels);
+            version++;
+        }
+    }
+
+    /**
+     * Reloads the levels from storage in the background. Multiple calls before the reload starts are combined
+     */
+    public void invalidate() {
+        if (!refreshPending.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            workPool.execute(this::refresh);
+        } catch (RejectedExecutionException ignored) {
+            refreshPending.set(false);
+        }
+    }
+
+    private void refresh() {
+        refreshPending.set(false);
+
+        long startVersion;
+        synchronized (writeLock) {
+            startVersion = version;
+        }
+
+        List<LevelResult> levels = fetch();
+        if (levels == null) {
+            try {
+                workPool.schedule(this::invalidate, RETRY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ignored) { }
+            return;
+        }
+
+        synchronized (writeLock) {
+            if (version != startVersion) {
+                // A level was set while storage was being read, so what was read may already be out of date
+                invalidate();
+                return;
+            }
+            snapshot = new Snapshot(levels);
+            version++;
+        }
+
+        if (ConfigUtil.getDebugOrFalse()) {
+            logger.info("Loaded " + levels.size() + " level(s).");
+        }
+    }
+
+    private List<LevelResult> fetch() {
+        Optional<CachedConfigValues> cachedConfig = ConfigUtil.getCachedConfig();
+        if (!cachedConfig.isPresent()) {
+            return null;
+        }
+
+        for (Storage s : cachedConfig.get().getStorage()) {
+            try {
+                return s.getLevels();
+            } catch (StorageException ex) {
+                logger.error("Could not get levels from " + s.getClass().getSimpleName() + ".", ex);
+            }
+        }
+        return null;
+    }
+
+    private static class Snapshot {
+        private final LevelResult[] byID = new LevelResult[256];
+        private final ImmutableMap<String, LevelResult> byName;
+        private final ImmutableList<LevelResult> levels;
+
+        private Snapshot(Collection<LevelResult> levels) {
+            for (LevelResult level : levels) {
+                byID[level.getLevel() & 0xFF] = level;
+            }
+
+            ImmutableList.Builder<LevelResult> list = ImmutableList.builder();
+            Map<String, LevelResult> names = new HashMap<>();
+            for (LevelResult level : byID) {
+                if (level != null) {
+                    list.add(level);
+                    if (level.getName() != null) {
+                        names.putIfAbsent(level.getName().toLowerCase(), level);
+                    }
+                }
+            }
+            this.levels = list.build();
+            this.byName = ImmutableMap.copyOf(names);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package me.egg82.ssc.services;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import me.egg82.ssc.extended.CachedConfigValues;
+import me.egg82.ssc.messaging.Messaging;
+import me.egg82.ssc.messaging.MessagingException;
+import me.egg82.ssc.utils.ConfigUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes to every messaging engine at once, each with its own timeout
+ * A send counts as handled as soon as any one engine acknowledges it; the rest finish (or fail) in the background
+ *
+ * Each engine gets its own single thread with a bounded queue, so sends reach an engine in the order they were made,
+ * and an engine that hangs backs up (and then sheds) only its own sends rather than tying up more and more threads
+ */
+public class MessagingDispatcher {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final int MAX_QUEUED_SENDS = 1000;
+
+    private final ConcurrentMap<Messaging, ExecutorService> workPools = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor timeoutPool = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder().setNameFormat("SimpleStaffChat-Messaging-Timeout-%d").build());
+
+    public MessagingDispatcher() {
+        // Timeouts are cancelled as soon as their send finishes, so a burst doesn't leave them all waiting out the full timeout
+        timeoutPool.setRemoveOnCancelPolicy(true);
+    }
+
+    private final AtomicLong numShed = new AtomicLong(0L);
+
+    private volatile boolean closed = false;
+
+    public void close() {
+        closed = true;
+        timeoutPool.shutdownNow();
+        for (ExecutorService workPool : workPools.values()) {
+            workPool.shutdown();
+        }
+        try {
+            for (ExecutorService workPool : workPools.values()) {
+                if (!workPool.awaitTermination(4L, TimeUnit.SECONDS)) {
+                    workPool.shutdownNow();
+                }
+            }
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+            for (ExecutorService workPool : workPools.values()) {
+                workPool.shutdownNow();
+            }
+        }
+        workPools.clear();
+    }
+
+    /**
+     * @return The number of sends dropped because an engine's queue was full
+     */
+    public long getNumShed() { return numShed.get(); }
+
+    /**
+     * Sends to all messaging engines and waits for the first acknowledgement
+     * @param description What is being sent, for logging
+     * @param call The send to make on each engine
+     * @throws MessagingException if every engine failed or timed out
+     */
+    public void dispatchAndWait(String description, MessagingCall call) throws MessagingException {
+        try {
+            dispatch(description, null, call).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException(true, "Interrupted while sending " + description + " through messaging.", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof MessagingException) {
+                throw (MessagingException) ex.getCause();
+            }
+            throw new MessagingException(false, "Could not send " + description + " through messaging.", ex.getCause());
+        }
+    }
+
+    /**
+     * Sends to all messaging engines without waiting
+     * @param description What is being sent, for logging
+     * @param exclude An engine to skip, usually the one the data came from. May be null
+     * @param call The send to make on each engine
+     * @return A future that completes when the first engine acknowledges, or fails once every engine has failed
+     */
+    public CompletableFuture<Void> dispatch(String description, Messaging exclude, MessagingCall call) {
+        CompletableFuture<Void> retVal = new CompletableFuture<>();
+
+        Optional<CachedConfigValues> cachedConfig = ConfigUtil.getCachedConfig();
+        if (!cachedConfig.isPresent()) {
+            retVal.completeExceptionally(new MessagingException(false, "Could not get cached config."));
+            return retVal;
+        }
+
+        List<Messaging> messaging = cachedConfig.get().getMessaging();
+        long timeout = cachedConfig.get().getMessagingTimeout();
+        long start = System.nanoTime();
+
+        int total = 0;
+        for (Messaging m : messaging) {
+            if (m != exclude) {
+                total++;
+            }
+        }
+        if (total == 0) {
+            retVal.complete(null);
+            return retVal;
+        }
+
+        removeClosed();
+
+        AtomicInteger remaining = new AtomicInteger(total);
+        AtomicBoolean canRecover = new AtomicBoolean(false);
+        for (Messaging m : messaging) {
+            if (m == exclude) {
+                continue;
+            }
+
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            try {
+                getWorkPool(m).execute(() -> {
+                    if (future.isDone()) {
+                        // Already timed out while queued, and reported as failed
+                        return;
+                    }
+                    try {
+                        call.send(m);
+                        future.complete(null);
+                    } catch (MessagingException ex) {
+                        future.completeExceptionally(ex);
+                    } catch (Throwable ex) {
+                        future.completeExceptionally(new MessagingException(false, ex));
+                    }
+                });
+                ScheduledFuture<?> timeoutFuture = timeoutPool.schedule(() -> future.completeExceptionally(new MessagingException(true, m.getClass().getSimpleName() + " timed out after " + timeout + "ms sending " + description + ".")), timeout, TimeUnit.MILLISECONDS);
+                future.whenComplete((v, ex) -> timeoutFuture.cancel(false));
+            } catch (RejectedExecutionException ex) {
+                if (closed) {
+                    future.completeExceptionally(new MessagingException(false, "Messaging is closed.", ex));
+                } else {
+                    numShed.getAndIncrement();
+                    future.completeExceptionally(new MessagingException(true, m.getClass().getSimpleName() + " has " + MAX_QUEUED_SENDS + " sends queued, dropping " + description + ".", ex));
+                }
+            }
+
+            future.whenComplete((v, ex) -> {
+                if (ex == null) {
+                    if (!retVal.complete(null) && ConfigUtil.getDebugOrFalse()) {
+                        logger.info(m.getClass().getSimpleName() + " acknowledged " + description + " after " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms.");
+                    }
+                } else {
+                    boolean recoverable = ex instanceof MessagingException && ((MessagingException) ex).isAutomaticallyRecoverable();
+                    logger.error("[Recoverable: " + recoverable + "] Could not send " + description + " through " + m.getClass().getSimpleName() + ".", ex);
+                    if (recoverable) {
+                        canRecover.set(true);
+                    }
+                }
+
+                if (remaining.decrementAndGet() == 0 && !retVal.isDone()) {
+                    retVal.completeExceptionally(new MessagingException(canRecover.get(), "Could not send " + description + " through messaging."));
+                }
+            });
+        }
+
+        return retVal;
+    }
+
+    private ExecutorService getWorkPool(Messaging messaging) {
+        if (closed) {
+            throw new RejectedExecutionException("Messaging is closed.");
+        }
+        return workPools.computeIfAbsent(messaging, m -> new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(MAX_QUEUED_SENDS), new ThreadFactoryBuilder().setNameFormat("SimpleStaffChat-Messaging-" + m.getClass().getSimpleName() + "-%d").build()));
+    }
+
+    // Engines are replaced on reload, and their threads shouldn't outlive them
+    private void removeClosed() {
+        workPools.entrySet().removeIf(e -> {
+            if (e.getKey().isClosed()) {
+                e.getValue().shutdown();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    public interface MessagingCall {
+        void send(Messaging messaging) throws MessagingException;
+    }
+}
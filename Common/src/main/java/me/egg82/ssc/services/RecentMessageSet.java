@@ -0,0 +1,144 @@
+package me.egg82.ssc.services;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers message IDs seen within a sliding time window, without boxing or allocating per message
+ *
+ * The window is split into generations, each an open-addressing table of UUIDs stored as two longs.
+ * When the newest generation's slice of time is up (or it fills) the oldest is wiped and reused,
+ * so memory is fixed at construction and IDs are remembered for between (generations - 1) and generations slices
+ */
+public class RecentMessageSet {
+    private static final int GENERATIONS = 4;
+    // Tables never get fuller than this, so probes stay short
+    private static final float MAX_LOAD = 0.75f;
+
+    private final long[][] mostBits = new long[GENERATIONS][];
+    private final long[][] leastBits = new long[GENERATIONS][];
+    private final int[] sizes = new int[GENERATIONS];
+    // The nil UUID marks an empty slot, so it gets tracked on its own
+    private final boolean[] hasNil = new boolean[GENERATIONS];
+
+    private final int mask;
+    private final int maxSize;
+    private final long sliceNanos;
+
+    private int current = 0;
+    private long sliceStart;
+
+    public RecentMessageSet(long window, TimeUnit unit, int capacityPerGeneration) {
+        if (window <= 0L) {
+            throw new IllegalArgumentException("window must be positive.");
+        }
+        if (capacityPerGeneration < 1) {
+            throw new IllegalArgumentException("capacityPerGeneration must be at least 1.");
+        }
+
+        int tableSize = Integer.highestOneBit(Math.max(2, (int) Math.ceil(capacityPerGeneration / MAX_LOAD)) - 1) << 1;
+        for (int i = 0; i < GENERATIONS; i++) {
+            mostBits[i] = new long[tableSize];
+            leastBits[i] = new long[tableSize];
+        }
+        mask = tableSize - 1;
+        maxSize = (int) (tableSize * MAX_LOAD);
+        sliceNanos = unit.toNanos(window) / (GENERATIONS - 1);
+        sliceStart = System.nanoTime();
+    }
+
+    /**
+     * Records the ID
+     * @return true if the ID was not seen within the window, false if it's a duplicate
+     */
+    public synchronized boolean add(UUID uuid) { return add(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()); }
+
+    public synchronized boolean contains(UUID uuid) {
+        long most = uuid.getMostSignificantBits();
+        long least = uuid.getLeastSignificantBits();
+        for (int i = 0; i < GENERATIONS; i++) {
+            if (contains(i, most, least)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized int size() {
+        int retVal = 0;
+        for (int i = 0; i < GENERATIONS; i++) {
+            retVal += sizes[i] + (hasNil[i] ? 1 : 0);
+        }
+        return retVal;
+    }
+
+    private boolean add(long most, long least) {
+        for (int i = 0; i < GENERATIONS; i++) {
+            if (contains(i, most, least)) {
+                return false;
+            }
+        }
+
+        long now = System.nanoTime();
+        if (now - sliceStart >= sliceNanos || sizes[current] >= maxSize) {
+            rotate(now);
+        }
+
+        if (most == 0L && least == 0L) {
+            hasNil[current] = true;
+            return true;
+        }
+
+        long[] mostTable = mostBits[current];
+        long[] leastTable = leastBits[current];
+        int index = hash(most, least) & mask;
+        while (mostTable[index] != 0L || leastTable[index] != 0L) {
+            index = (index + 1) & mask;
+        }
+        mostTable[index] = most;
+        leastTable[index] = least;
+        sizes[current]++;
+        return true;
+    }
+
+    private boolean contains(int generation, long most, long least) {
+        if (most == 0L && least == 0L) {
+            return hasNil[generation];
+        }
+        if (sizes[generation] == 0) {
+            return false;
+        }
+
+        long[] mostTable = mostBits[generation];
+        long[] leastTable = leastBits[generation];
+        int index = hash(most, least) & mask;
+        while (mostTable[index] != 0L || leastTable[index] != 0L) {
+            if (mostTable[index] == most && leastTable[index] == least) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    private void rotate(long now) {
+        current = (current + 1) % GENERATIONS;
+        if (sizes[current] > 0) {
+            Arrays.fill(mostBits[current], 0L);
+            Arrays.fill(leastBits[current], 0L);
+        }
+        sizes[current] = 0;
+        hasNil[current] = false;
+        sliceStart = now;
+    }
+
+    private static int hash(long most, long least) {
+        // Random UUIDs are already well-mixed, but not every sender is guaranteed to use them
+        long h = most ^ Long.rotateLeft(least, 32);
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
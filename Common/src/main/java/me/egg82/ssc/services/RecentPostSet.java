@@ -0,0 +1,75 @@
+package me.egg82.ssc.services;
+
+/**
+ * Remembers the most recent post IDs in a fixed-size ring of bits
+ *
+ * Post IDs only ever go up, so the ring covers the newest IDs seen.
+ * Anything that has fallen behind the ring is treated as already seen
+ */
+public class RecentPostSet {
+    private final long[] bits;
+    private final int windowSize;
+    private final int mask;
+
+    private long highest = -1L;
+
+    public RecentPostSet(int windowSize) {
+        if (windowSize < 64) {
+            throw new IllegalArgumentException("windowSize must be at least 64.");
+        }
+
+        this.windowSize = Integer.highestOneBit(windowSize - 1) << 1;
+        this.mask = this.windowSize - 1;
+        this.bits = new long[this.windowSize >>> 6];
+    }
+
+    /**
+     * Records the ID
+     * @return true if the ID is new, false if it's a duplicate or too old to tell
+     */
+    public synchronized boolean add(long id) {
+        if (id < 0L) {
+            return true;
+        }
+        if (highest >= 0L && id <= highest - windowSize) {
+            return false;
+        }
+
+        if (id > highest) {
+            advance(id);
+        }
+
+        int index = (int) (id & mask);
+        long bit = 1L << index;
+        int word = index >>> 6;
+        if ((bits[word] & bit) != 0L) {
+            return false;
+        }
+        bits[word] |= bit;
+        return true;
+    }
+
+    public synchronized boolean contains(long id) {
+        if (id < 0L || id > highest) {
+            return false;
+        }
+        if (id <= highest - windowSize) {
+            return true;
+        }
+        int index = (int) (id & mask);
+        return (bits[index >>> 6] & (1L << index)) != 0L;
+    }
+
+    private void advance(long id) {
+        // Slots between the old and new highest ID now belong to newer IDs, so they start out unseen
+        if (highest < 0L || id - highest >= windowSize) {
+            java.util.Arrays.fill(bits, 0L);
+        } else {
+            for (long i = highest + 1L; i <= id; i++) {
+                int index = (int) (i & mask);
+                bits[index >>> 6] &= ~(1L << index);
+            }
+        }
+        highest = id;
+    }
+}
@@ -5,4 +5,5 @@ import me.egg82.ssc.storage.Storage;
 
 public interface StorageHandler {
     void playerIDCreationCallback(UUID playerID, long longPlayerID, Storage callingStorage);
+    void levelUpdateCallback(byte level, String name, Storage callingStorage);
 }
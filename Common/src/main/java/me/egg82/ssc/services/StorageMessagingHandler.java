@@ -1,8 +1,7 @@
 package me.egg82.ssc.services;
 
-import com.github.benmanes.caffeine.cache.Caffeine;
-import com.github.benmanes.caffeine.cache.LoadingCache;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.File;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -13,7 +12,6 @@ import me.egg82.ssc.core.ChatResult;
 import me.egg82.ssc.extended.CachedConfigValues;
 import me.egg82.ssc.extended.PostHandler;
 import me.egg82.ssc.messaging.Messaging;
-import me.egg82.ssc.messaging.MessagingException;
 import me.egg82.ssc.storage.Storage;
 import me.egg82.ssc.storage.StorageException;
 import me.egg82.ssc.utils.ConfigUtil;
@@ -23,32 +21,77 @@ import org.slf4j.LoggerFactory;
 public class StorageMessagingHandler implements StorageHandler, MessagingHandler {
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
-    private final LoadingCache<UUID, Boolean> cachedMessages = Caffeine.newBuilder().expireAfterAccess(5L, TimeUnit.MINUTES).expireAfterWrite(10L, TimeUnit.MINUTES).build(k -> Boolean.FALSE);
-    private final LoadingCache<Long, Boolean> cachedPosts = Caffeine.newBuilder().expireAfterAccess(2L, TimeUnit.MINUTES).expireAfterWrite(5L, TimeUnit.MINUTES).build(k -> Boolean.FALSE);
+    // Every callback arrives once per messaging engine, so these are checked (and added to) atomically
+    private final RecentMessageSet cachedMessages = new RecentMessageSet(10L, TimeUnit.MINUTES, 4096);
+    private final RecentPostSet cachedPosts = new RecentPostSet(16384);
 
     private final ExecutorService workPool = Executors.newFixedThreadPool(1, new ThreadFactoryBuilder().setNameFormat("SimpleStaffChat-SMH-%d").build());
 
     private final PostHandler handler;
+    private final StorageReplicator replicator;
+    private final MessagingDispatcher dispatcher = new MessagingDispatcher();
+    private final LevelRegistry levels = new LevelRegistry();
+    private final ChatRetention retention = new ChatRetention();
 
     private final AtomicLong receivedMessages = new AtomicLong(0L);
 
-    public StorageMessagingHandler(PostHandler handler) {
+    // Queue polls speed up after activity and back off while idle
+    private final Object pollLock = new Object();
+    private volatile long pollInterval = 1000L;
+    private final AtomicLong numPolls = new AtomicLong(0L);
+    private final AtomicLong numActivePolls = new AtomicLong(0L);
+
+    public StorageMessagingHandler(PostHandler handler, File spoolFolder) {
         this.handler = handler;
+        this.replicator = new StorageReplicator(spoolFolder);
         workPool.execute(this::getQueue);
     }
 
-    public void cacheMessage(UUID uuid) { cachedMessages.put(uuid, Boolean.TRUE); }
+    public StorageReplicator getReplicator() { return replicator; }
+
+    public MessagingDispatcher getDispatcher() { return dispatcher; }
 
-    public void cachePost(long id) { cachedPosts.put(id, Boolean.TRUE); }
+    public LevelRegistry getLevelRegistry() { return levels; }
 
-    public void postMessage(ChatResult chat) { handler.handle(chat); }
+    public void cacheMessage(UUID uuid) { cachedMessages.add(uuid); }
+
+    public void cachePost(long id) { cachedPosts.add(id); }
+
+    public void postMessage(ChatResult chat) {
+        wakeQueue();
+        handler.handle(chat);
+    }
 
     public void doToggle(UUID playerID, byte level) { handler.toggle(playerID, level); }
 
     public long numReceivedMessages() { return receivedMessages.get(); }
 
+    public long numQueuePolls() { return numPolls.get(); }
+
+    public long numActiveQueuePolls() { return numActivePolls.get(); }
+
+    public long getQueuePollInterval() { return pollInterval; }
+
+    /**
+     * Drops the queue poll interval back to its floor
+     * Called on local posts and messaging events, since replies from other servers tend to follow
+     */
+    public void wakeQueue() {
+        Optional<CachedConfigValues> cachedConfig = ConfigUtil.getCachedConfig();
+        long floor = cachedConfig.isPresent() ? cachedConfig.get().getQueuePollFloor() : 1000L;
+        synchronized (pollLock) {
+            if (pollInterval > floor) {
+                pollInterval = floor;
+                pollLock.notifyAll();
+            }
+        }
+    }
+
     public void close() {
         workPool.shutdown();
+        synchronized (pollLock) {
+            pollLock.notifyAll();
+        }
         try {
             if (!workPool.awaitTermination(4L, TimeUnit.SECONDS)) {
                 workPool.shutdownNow();
@@ -56,6 +99,10 @@ public class StorageMessagingHandler implements StorageHandler, MessagingHandler
         } catch (InterruptedException ignored) {
             Thread.currentThread().interrupt();
         }
+        dispatcher.close();
+        replicator.close();
+        levels.close();
+        retention.close();
     }
 
     private void getQueue() {
@@ -83,13 +130,17 @@ public class StorageMessagingHandler implements StorageHandler, MessagingHandler
             }
         }
 
+        numPolls.getAndIncrement();
+        if (!queue.isEmpty()) {
+            numActivePolls.getAndIncrement();
+        }
+
         for (Iterator<ChatResult> i = queue.iterator(); i.hasNext();) {
             ChatResult c = i.next();
-            if (cachedPosts.get(c.getID())) {
+            if (!cachedPosts.add(c.getID())) {
                 i.remove();
                 continue;
             }
-            cachedPosts.put(c.getID(), Boolean.TRUE);
             receivedMessages.getAndIncrement();
             try {
                 handler.handle(c);
@@ -98,166 +149,106 @@ public class StorageMessagingHandler implements StorageHandler, MessagingHandler
             }
         }
 
-        try {
-            Thread.sleep(10L * 1000L);
-        } catch (InterruptedException ignored) {
-            Thread.currentThread().interrupt();
+        long floor = cachedConfig.get().getQueuePollFloor();
+        long ceiling = cachedConfig.get().getQueuePollCeiling();
+        synchronized (pollLock) {
+            pollInterval = queue.isEmpty() ? Math.max(floor, Math.min(pollInterval * 2L, ceiling)) : floor;
+        }
+        if (ConfigUtil.getDebugOrFalse() && !queue.isEmpty()) {
+            logger.info("Got " + queue.size() + " post(s) from queue. Next poll in " + pollInterval + "ms.");
         }
 
+        waitForNextPoll();
+
         try {
             workPool.execute(this::getQueue);
         } catch (RejectedExecutionException ignored) { }
     }
 
+    private void waitForNextPoll() {
+        long start = System.currentTimeMillis();
+        synchronized (pollLock) {
+            // The interval may be cut short by wakeQueue() while waiting
+            long remaining;
+            while (!workPool.isShutdown() && (remaining = start + pollInterval - System.currentTimeMillis()) > 0L) {
+                try {
+                    pollLock.wait(remaining);
+                } catch (InterruptedException ignored) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
     public void playerIDCreationCallback(UUID playerID, long longPlayerID, Storage callingStorage) {
         if (ConfigUtil.getDebugOrFalse()) {
             logger.info("Player created: " + playerID.toString() + " = " + longPlayerID);
             logger.info("Propagating to storage & messaging");
         }
 
-        Optional<CachedConfigValues> cachedConfig = ConfigUtil.getCachedConfig();
-        if (!cachedConfig.isPresent()) {
-            logger.error("Cached config could not be fetched.");
-            return;
-        }
-
-        for (Storage storage : cachedConfig.get().getStorage()) {
-            if (storage != callingStorage) {
-                try {
-                    storage.setPlayerRaw(longPlayerID, playerID);
-                } catch (StorageException ex) {
-                    logger.error("Could not set raw player data for " + storage.getClass().getSimpleName() + ".", ex);
-                }
-            }
-        }
+        replicator.setPlayer(callingStorage, longPlayerID, playerID);
 
         UUID messageID = UUID.randomUUID();
-        cachedMessages.put(messageID, Boolean.TRUE);
+        cachedMessages.add(messageID);
 
-        for (Messaging messaging : cachedConfig.get().getMessaging()) {
-            try {
-                messaging.sendPlayer(messageID, longPlayerID, playerID);
-            } catch (MessagingException ex) {
-                logger.error("Could not send raw player data for " + messaging.getClass().getSimpleName() + ".", ex);
-            }
-        }
+        dispatcher.dispatch("raw player data", null, m -> m.sendPlayer(messageID, longPlayerID, playerID));
     }
 
+    public void levelUpdateCallback(byte level, String name, Storage callingStorage) { levels.put(level, name); }
+
     public void levelCallback(UUID messageID, byte level, String name, Messaging callingMessaging) {
-        if (cachedMessages.get(messageID)) {
+        if (!cachedMessages.add(messageID)) {
             return;
         }
-        cachedMessages.put(messageID, Boolean.TRUE);
 
         if (ConfigUtil.getDebugOrFalse()) {
             logger.info("Level created/updated: " + level + " = \"" + name + "\"");
             logger.info("Propagating to storage & messaging");
         }
 
-        Optional<CachedConfigValues> cachedConfig = ConfigUtil.getCachedConfig();
-        if (!cachedConfig.isPresent()) {
-            logger.error("Cached config could not be fetched.");
-            return;
-        }
+        levels.put(level, name);
+        replicator.setLevel(null, level, name);
 
-        for (Storage storage : cachedConfig.get().getStorage()) {
-            try {
-                storage.setLevelRaw(level, name);
-            } catch (StorageException ex) {
-                logger.error("Could not set raw level data for " + storage.getClass().getSimpleName() + ".", ex);
-            }
-        }
-
-        for (Messaging messaging : cachedConfig.get().getMessaging()) {
-            if (messaging != callingMessaging) {
-                try {
-                    messaging.sendLevel(messageID, level, name);
-                } catch (MessagingException ex) {
-                    logger.error("Could not send raw level data for " + messaging.getClass().getSimpleName() + ".", ex);
-                }
-            }
-        }
+        dispatcher.dispatch("raw level data", callingMessaging, m -> m.sendLevel(messageID, level, name));
     }
 
     public void serverCallback(UUID messageID, long longServerID, UUID serverID, String name, Messaging callingMessaging) {
-        if (cachedMessages.get(messageID)) {
+        if (!cachedMessages.add(messageID)) {
             return;
         }
-        cachedMessages.put(messageID, Boolean.TRUE);
 
         if (ConfigUtil.getDebugOrFalse()) {
             logger.info("Server created/updated: " + serverID.toString() + " = \"" + name + "\"");
             logger.info("Propagating to storage & messaging");
         }
 
-        Optional<CachedConfigValues> cachedConfig = ConfigUtil.getCachedConfig();
-        if (!cachedConfig.isPresent()) {
-            logger.error("Cached config could not be fetched.");
-            return;
-        }
-
-        for (Storage storage : cachedConfig.get().getStorage()) {
-            try {
-                storage.setServerRaw(longServerID, serverID, name);
-            } catch (StorageException ex) {
-                logger.error("Could not set raw server data for " + storage.getClass().getSimpleName() + ".", ex);
-            }
-        }
+        replicator.setServer(null, longServerID, serverID, name);
 
-        for (Messaging messaging : cachedConfig.get().getMessaging()) {
-            if (messaging != callingMessaging) {
-                try {
-                    messaging.sendServer(messageID, longServerID, serverID, name);
-                } catch (MessagingException ex) {
-                    logger.error("Could not send raw server data for " + messaging.getClass().getSimpleName() + ".", ex);
-                }
-            }
-        }
+        dispatcher.dispatch("raw server data", callingMessaging, m -> m.sendServer(messageID, longServerID, serverID, name));
     }
 
     public void playerCallback(UUID messageID, UUID playerID, long longPlayerID, Messaging callingMessaging) {
-        if (cachedMessages.get(messageID)) {
+        if (!cachedMessages.add(messageID)) {
             return;
         }
-        cachedMessages.put(messageID, Boolean.TRUE);
 
         if (ConfigUtil.getDebugOrFalse()) {
             logger.info("Player created: " + playerID.toString() + " = " + longPlayerID);
             logger.info("Propagating to storage & messaging");
         }
 
-        Optional<CachedConfigValues> cachedConfig = ConfigUtil.getCachedConfig();
-        if (!cachedConfig.isPresent()) {
-            logger.error("Cached config could not be fetched.");
-            return;
-        }
+        replicator.setPlayer(null, longPlayerID, playerID);
 
-        for (Storage storage : cachedConfig.get().getStorage()) {
-            try {
-                storage.setPlayerRaw(longPlayerID, playerID);
-            } catch (StorageException ex) {
-                logger.error("Could not set raw player data for " + storage.getClass().getSimpleName() + ".", ex);
-            }
-        }
-
-        for (Messaging messaging : cachedConfig.get().getMessaging()) {
-            if (messaging != callingMessaging) {
-                try {
-                    messaging.sendPlayer(messageID, longPlayerID, playerID);
-                } catch (MessagingException ex) {
-                    logger.error("Could not send raw player data for " + messaging.getClass().getSimpleName() + ".", ex);
-                }
-            }
-        }
+        dispatcher.dispatch("raw player data", callingMessaging, m -> m.sendPlayer(messageID, longPlayerID, playerID));
     }
 
-    public void postCallback(UUID messageID, long postID, long longServerID, UUID serverID, String serverName, long longPlayerID, UUID playerID, byte level, String levelName, String message, long date, Messaging callingMessaging) {
-        if (cachedMessages.get(messageID)) {
+    public void postCallback(UUID messageID, long postID, long longServerID, UUID serverID, String serverName, long longPlayerID, UUID playerID, String playerName, byte level, String levelName, String message, long date, Messaging callingMessaging) {
+        if (!cachedMessages.add(messageID)) {
             return;
         }
-        cachedMessages.put(messageID, Boolean.TRUE);
 
-        if (cachedPosts.get(postID)) {
+        if (!cachedPosts.add(postID)) {
             return;
         }
 
@@ -266,44 +257,23 @@ public class StorageMessagingHandler implements StorageHandler, MessagingHandler
             logger.info("Propagating to storage & messaging");
         }
 
-        cachedPosts.put(postID, Boolean.TRUE);
         receivedMessages.getAndIncrement();
+        wakeQueue();
         try {
-            handler.handle(new ChatResult(postID, serverID, serverName, playerID, level, levelName, message, date));
+            handler.handle(new ChatResult(postID, serverID, serverName, playerID, playerName, level, levelName, message, date));
         } catch (Throwable ex) {
             logger.error("Could not handle post.", ex);
         }
 
-        Optional<CachedConfigValues> cachedConfig = ConfigUtil.getCachedConfig();
-        if (!cachedConfig.isPresent()) {
-            logger.error("Cached config could not be fetched.");
-            return;
-        }
-
-        for (Storage storage : cachedConfig.get().getStorage()) {
-            try {
-                storage.postRaw(postID, longServerID, longPlayerID, level, message, date);
-            } catch (StorageException ex) {
-                logger.error("Could not set raw post data for " + storage.getClass().getSimpleName() + ".", ex);
-            }
-        }
+        replicator.post(null, postID, longServerID, longPlayerID, playerName, level, message, date);
 
-        for (Messaging messaging : cachedConfig.get().getMessaging()) {
-            if (messaging != callingMessaging) {
-                try {
-                    messaging.sendPost(messageID, postID, longServerID, serverID, serverName, longPlayerID, playerID, level, levelName, message, date);
-                } catch (MessagingException ex) {
-                    logger.error("Could not send raw post data for " + messaging.getClass().getSimpleName() + ".", ex);
-                }
-            }
-        }
+        dispatcher.dispatch("raw post data", callingMessaging, m -> m.sendPost(messageID, postID, longServerID, serverID, serverName, longPlayerID, playerID, playerName, level, levelName, message, date));
     }
 
     public void toggleCallback(UUID messageID, UUID playerID, byte level, Messaging callingMessaging) {
-        if (cachedMessages.get(messageID)) {
+        if (!cachedMessages.add(messageID)) {
             return;
         }
-        cachedMessages.put(messageID, Boolean.TRUE);
 
         if (ConfigUtil.getDebugOrFalse()) {
             logger.info("Toggle received: " + playerID + " - \"" + level + "\"");
@@ -316,20 +286,6 @@ public class StorageMessagingHandler implements StorageHandler, MessagingHandler
             logger.error("Could not handle toggle.", ex);
         }
 
-        Optional<CachedConfigValues> cachedConfig = ConfigUtil.getCachedConfig();
-        if (!cachedConfig.isPresent()) {
-            logger.error("Cached config could not be fetched.");
-            return;
-        }
-
-        for (Messaging messaging : cachedConfig.get().getMessaging()) {
-            if (messaging != callingMessaging) {
-                try {
-                    messaging.sendToggle(messageID, playerID, level);
-                } catch (MessagingException ex) {
-                    logger.error("Could not send toggle data for " + messaging.getClass().getSimpleName() + ".", ex);
-                }
-            }
-        }
+        dispatcher.dispatch("toggle data", callingMessaging, m -> m.sendToggle(messageID, playerID, level));
     }
 }
@@ -0,0 +1,458 @@
+package me.egg82.ssc.services;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import me.egg82.ssc.extended.CachedConfigValues;
+import me.egg82.ssc.storage.Storage;
+import me.egg82.ssc.storage.StorageException;
+import me.egg82.ssc.utils.ConfigUtil;
+import me.egg82.ssc.utils.ValidationUtil;
+import ninja.egg82.analytics.utils.JSONUtil;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Copies writes from the storage that accepted them to every other storage engine in the background
+ * Each engine gets its own ordered queue and worker, so a slow or broken secondary never holds up the sender or the other engines
+ */
+public class StorageReplicator {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final int BATCH_SIZE = 100;
+    private static final int MAX_QUEUE_SIZE = 10000;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long MAX_BACKOFF = 30L * 1000L;
+
+    private final ExecutorService workPool = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("SimpleStaffChat-Replication-%d").build());
+    private final ConcurrentMap<Storage, Worker> workers = new ConcurrentHashMap<>();
+    // Kept by name rather than on the worker, so the count survives a worker being replaced
+    private final ConcurrentMap<String, AtomicLong> dropped = new ConcurrentHashMap<>();
+    private final Object spoolLock = new Object();
+
+    private final File spoolFolder;
+
+    private volatile boolean closed = false;
+
+    /**
+     * @param spoolFolder The folder pending writes are spooled to, or null to keep everything in memory
+     */
+    public StorageReplicator(File spoolFolder) {
+        this.spoolFolder = spoolFolder;
+    }
+
+    public void close() {
+        closed = true;
+        for (Worker worker : workers.values()) {
+            worker.wake();
+        }
+        workPool.shutdown();
+        try {
+            if (!workPool.awaitTermination(4L, TimeUnit.SECONDS)) {
+                workPool.shutdownNow();
+            }
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void setLevel(Storage source, byte level, String name) { enqueue(source, new Entry(EntryType.LEVEL, level, name)); }
+
+    public void setServer(Storage source, long longServerID, UUID serverID, String name) { enqueue(source, new Entry(EntryType.SERVER, longServerID, serverID, name)); }
+
+    public void setPlayer(Storage source, long longPlayerID, UUID playerID) { enqueue(source, new Entry(EntryType.PLAYER, longPlayerID, playerID)); }
+
+    public void post(Storage source, long postID, long longServerID, long longPlayerID, String playerName, byte level, String message, long date) { enqueue(source, new Entry(EntryType.POST, postID, longServerID, longPlayerID, playerName, level, message, date)); }
+
+    /**
+     * How far behind each storage engine is
+     * @return Map of storage engine name to the age, in milliseconds, of its oldest unapplied write
+     */
+    public Map<String, Long> getLag() {
+        Map<String, Long> retVal = new LinkedHashMap<>();
+        long now = System.currentTimeMillis();
+        for (Worker worker : workers.values()) {
+            retVal.put(worker.name, worker.getLag(now));
+        }
+        return retVal;
+    }
+
+    /**
+     * @return Map of storage engine name to the number of writes waiting in memory
+     */
+    public Map<String, Integer> getPending() {
+        Map<String, Integer> retVal = new LinkedHashMap<>();
+        for (Worker worker : workers.values()) {
+            retVal.put(worker.name, worker.size());
+        }
+        return retVal;
+    }
+
+    /**
+     * @return Map of storage engine name to the number of writes dropped because its queue was full and couldn't be spooled
+     */
+    public Map<String, Long> getDropped() {
+        Map<String, Long> retVal = new LinkedHashMap<>();
+        for (Map.Entry<String, AtomicLong> kvp : dropped.entrySet()) {
+            retVal.put(kvp.getKey(), kvp.getValue().get());
+        }
+        return retVal;
+    }
+
+    private void enqueue(Storage source, Entry entry) {
+        Optional<CachedConfigValues> cachedConfig = ConfigUtil.getCachedConfig();
+        if (!cachedConfig.isPresent()) {
+            logger.error("Cached config could not be fetched.");
+            return;
+        }
+        if (closed) {
+            logger.warn("Replication is closed. Dropping " + entry.type.name().toLowerCase() + " write.");
+            return;
+        }
+
+        for (Storage storage : cachedConfig.get().getStorage()) {
+            if (storage == source || storage.isClosed()) {
+                continue;
+            }
+            Worker worker = getWorker(storage);
+            if (worker == null) {
+                logger.warn("Replication is closed. Dropping " + entry.type.name().toLowerCase() + " write.");
+                addDropped(storage.getClass().getSimpleName(), 1L);
+                continue;
+            }
+            worker.add(entry);
+        }
+    }
+
+    /**
+     * @return The running worker for the engine, or null if one couldn't be started
+     */
+    private Worker getWorker(Storage storage) {
+        // A worker that was never started is left out of the map, so the next write tries again rather than queueing where nothing reads
+        return workers.computeIfAbsent(storage, k -> {
+            Worker worker = new Worker(k);
+            try {
+                workPool.execute(worker);
+            } catch (RejectedExecutionException ignored) {
+                return null;
+            }
+            return worker;
+        });
+    }
+
+    private void addDropped(String name, long count) { dropped.computeIfAbsent(name, k -> new AtomicLong(0L)).getAndAdd(count); }
+
+    private File getSpoolFile(String name) {
+        if (spoolFolder == null) {
+            return null;
+        }
+        Optional<CachedConfigValues> cachedConfig = ConfigUtil.getCachedConfig();
+        if (cachedConfig.isPresent() && !cachedConfig.get().getReplicationSpool()) {
+            return null;
+        }
+        return new File(spoolFolder, name.toLowerCase() + ".spool");
+    }
+
+    private class Worker implements Runnable {
+        private final Storage storage;
+        private final String name;
+        private final Deque<Entry> queue = new ArrayDeque<>();
+        // Whether the spool file has writes in it. Kept up to date by the worker, so adding a write never has to check the disk
+        private boolean spooled;
+
+        private Worker(Storage storage) {
+            this.storage = storage;
+            this.name = storage.getClass().getSimpleName();
+
+            File spoolFile = getSpoolFile(name);
+            spooled = spoolFile != null && spoolFile.exists();
+        }
+
+        private synchronized void add(Entry entry) {
+            // Once anything is spooled, everything after it is too, or it would be applied out of order
+            File spoolFile = getSpoolFile(name);
+            if (spoolFile != null && (queue.size() >= MAX_QUEUE_SIZE || spooled)) {
+                if (spool(spoolFile, Collections.singletonList(entry))) {
+                    spooled = true;
+                    return;
+                }
+            }
+            if (queue.size() >= MAX_QUEUE_SIZE) {
+                logger.warn(name + " replication queue is full. Dropping " + entry.type.name().toLowerCase() + " write.");
+                addDropped(name, 1L);
+                return;
+            }
+
+            queue.addLast(entry);
+            notifyAll();
+        }
+
+        private synchronized void wake() { notifyAll(); }
+
+        private synchronized int size() { return queue.size(); }
+
+        private synchronized long getLag(long now) {
+            Entry head = queue.peekFirst();
+            return head == null ? 0L : now - head.created;
+        }
+
+        public void run() {
+            long backoff = 1000L;
+            List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+
+            while (!closed && !storage.isClosed()) {
+                synchronized (this) {
+                    // Also picks up writes a previous worker for this engine spooled on its way out
+                    File spoolFile = getSpoolFile(name);
+                    if (queue.isEmpty() && spoolFile != null && spoolFile.exists()) {
+                        queue.addAll(unspool(spoolFile));
+                    }
+                    spooled = spoolFile != null && spoolFile.exists();
+                    if (queue.isEmpty()) {
+                        try {
+                            wait(1000L);
+                        } catch (InterruptedException ignored) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                        continue;
+                    }
+
+                    Iterator<Entry> i = queue.iterator();
+                    while (i.hasNext() && batch.size() < BATCH_SIZE) {
+                        batch.add(i.next());
+                    }
+                }
+
+                int applied = 0;
+                boolean failed = false;
+                for (Entry entry : batch) {
+                    try {
+                        entry.apply(storage);
+                        applied++;
+                    } catch (StorageException ex) {
+                        entry.attempts++;
+                        if (!ex.isAutomaticallyRecoverable() && entry.attempts >= MAX_ATTEMPTS) {
+                            logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] Could not replicate " + entry.type.name().toLowerCase() + " to " + name + " after " + entry.attempts + " attempts. Dropping.", ex);
+                            addDropped(name, 1L);
+                            applied++;
+                            continue;
+                        }
+                        logger.error("[Recoverable: " + ex.isAutomaticallyRecoverable() + "] Could not replicate " + entry.type.name().toLowerCase() + " to " + name + ". Retrying.", ex);
+                        failed = true;
+                        break;
+                    }
+                }
+
+                synchronized (this) {
+                    for (int j = 0; j < applied; j++) {
+                        queue.pollFirst();
+                    }
+                }
+                batch.clear();
+
+                if (failed) {
+                    try {
+                        Thread.sleep(backoff);
+                    } catch (InterruptedException ignored) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    backoff = Math.min(backoff * 2L, MAX_BACKOFF);
+                } else {
+                    backoff = 1000L;
+                }
+            }
+
+            workers.remove(storage, this);
+            synchronized (this) {
+                if (queue.isEmpty()) {
+                    return;
+                }
+
+                // Anything left over is picked up by the next worker for this engine
+                File spoolFile = getSpoolFile(name);
+                List<Entry> remaining = new ArrayList<>(queue);
+                queue.clear();
+                if (spoolFile == null || !spoolFirst(spoolFile, remaining)) {
+                    logger.warn("Lost " + remaining.size() + " unreplicated write(s) for " + name + ".");
+                    addDropped(name, remaining.size());
+                }
+            }
+        }
+    }
+
+    private boolean spool(File spoolFile, List<Entry> entries) {
+        synchronized (spoolLock) {
+            try {
+                if (!spoolFolder.exists() && !spoolFolder.mkdirs()) {
+                    throw new IOException("Could not create spool folder.");
+                }
+                try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(spoolFile, true), StandardCharsets.UTF_8))) {
+                    for (Entry entry : entries) {
+                        out.write(entry.toJSON().toJSONString());
+                        out.newLine();
+                    }
+                }
+                return true;
+            } catch (IOException ex) {
+                logger.error("Could not write to replication spool " + spoolFile.getName() + ".", ex);
+                return false;
+            }
+        }
+    }
+
+    private boolean spoolFirst(File spoolFile, List<Entry> entries) {
+        synchronized (spoolLock) {
+            // Keep order: these writes were queued before anything already in the spool
+            List<Entry> existing = spoolFile.exists() ? unspool(spoolFile) : Collections.emptyList();
+            List<Entry> all = new ArrayList<>(entries.size() + existing.size());
+            all.addAll(entries);
+            all.addAll(existing);
+            return spool(spoolFile, all);
+        }
+    }
+
+    private List<Entry> unspool(File spoolFile) {
+        synchronized (spoolLock) {
+            List<Entry> retVal = new ArrayList<>();
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(spoolFile), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    try {
+                        Entry entry = Entry.fromJSON(JSONUtil.parseObject(line));
+                        if (entry != null) {
+                            retVal.add(entry);
+                        }
+                    } catch (ParseException | ClassCastException | NullPointerException ex) {
+                        logger.warn("Could not parse replication spool entry.", ex);
+                    }
+                }
+                Files.delete(spoolFile.toPath());
+            } catch (IOException ex) {
+                logger.error("Could not read replication spool " + spoolFile.getName() + ".", ex);
+            }
+            return retVal;
+        }
+    }
+
+    private enum EntryType {
+        LEVEL,
+        SERVER,
+        PLAYER,
+        POST
+    }
+
+    private static class Entry {
+        private final EntryType type;
+        private long created = System.currentTimeMillis();
+        private int attempts = 0;
+
+        private long id;
+        private long longServerID;
+        private long longPlayerID;
+        private UUID uuid;
+        private byte level;
+        private String text;
+        private String playerName;
+        private long date;
+
+        private Entry(EntryType type, byte level, String name) {
+            this.type = type;
+            this.level = level;
+            this.text = name;
+        }
+
+        private Entry(EntryType type, long id, UUID uuid, String name) {
+            this.type = type;
+            this.id = id;
+            this.uuid = uuid;
+            this.text = name;
+        }
+
+        private Entry(EntryType type, long id, UUID uuid) {
+            this.type = type;
+            this.id = id;
+            this.uuid = uuid;
+        }
+
+        private Entry(EntryType type, long id, long longServerID, long longPlayerID, String playerName, byte level, String message, long date) {
+            this.type = type;
+            this.id = id;
+            this.longServerID = longServerID;
+            this.longPlayerID = longPlayerID;
+            this.playerName = playerName;
+            this.level = level;
+            this.text = message;
+            this.date = date;
+        }
+
+        private void apply(Storage storage) throws StorageException {
+            switch (type) {
+                case LEVEL:
+                    storage.setLevelRaw(level, text);
+                    break;
+                case SERVER:
+                    storage.setServerRaw(id, uuid, text);
+                    break;
+                case PLAYER:
+                    storage.setPlayerRaw(id, uuid);
+                    break;
+                case POST:
+                    storage.postRaw(id, longServerID, longPlayerID, playerName, level, text, date);
+                    break;
+            }
+        }
+
+        private JSONObject toJSON() {
+            JSONObject obj = new JSONObject();
+            obj.put("type", type.name());
+            obj.put("created", created);
+            obj.put("id", id);
+            obj.put("serverID", longServerID);
+            obj.put("playerID", longPlayerID);
+            obj.put("uuid", uuid == null ? null : uuid.toString());
+            obj.put("level", level);
+            obj.put("text", text);
+            obj.put("playerName", playerName);
+            obj.put("date", date);
+            return obj;
+        }
+
+        private static Entry fromJSON(JSONObject obj) {
+            EntryType type = EntryType.valueOf((String) obj.get("type"));
+            String uuid = (String) obj.get("uuid");
+            if (uuid != null && !ValidationUtil.isValidUuid(uuid)) {
+                return null;
+            }
+
+            Entry retVal = new Entry(
+                    type,
+                    ((Number) obj.get("id")).longValue(),
+                    ((Number) obj.get("serverID")).longValue(),
+                    ((Number) obj.get("playerID")).longValue(),
+                    (String) obj.get("playerName"), // Missing from entries spooled by older versions
+                    ((Number) obj.get("level")).byteValue(),
+                    (String) obj.get("text"),
+                    ((Number) obj.get("date")).longValue()
+            );
+            retVal.uuid = uuid == null ? null : UUID.fromString(uuid);
+            retVal.created = ((Number) obj.get("created")).longValue();
+            return retVal;
+        }
+    }
+}
@@ -1,31 +1,55 @@
 package me.egg82.ssc.storage;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.common.primitives.Ints;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import me.egg82.ssc.utils.ConfigUtil;
+import ninja.egg82.core.SQLExecuteResult;
 import ninja.egg82.core.SQLQueryResult;
 import ninja.egg82.sql.FileImporter;
 import ninja.egg82.sql.SQL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public abstract class AbstractSQL implements Storage {
     protected SQL sql;
     protected String database = "";
     protected String prefix = "";
+    protected PostBatcher postBatcher = null;
+
+    // The last name written for each player, so a post only touches the players table when a name changes
+    private final Cache<Long, String> playerNameCache = Caffeine.newBuilder().expireAfterAccess(1L, TimeUnit.HOURS).build();
 
     protected static class SQLVersionUtil {
+        private static final Logger logger = LoggerFactory.getLogger(SQLVersionUtil.class);
+
+        // Every schema version after the base one, in the order they're applied
+        private static final String[] VERSIONS = new String[] {
+                "1.1", // Player names
+                "1.2", // posted_chat indexes
+                "1.3", // Queue procedure bounded by ID only
+                "1.4" // Truncate procedure
+        };
+
+        private static final String STEP_MARKER = "-- @step";
+
         public static void conformVersion(AbstractSQL storage, String sqlResourceName) throws IOException, StorageException {
             try {
-                if (!storage.sql.tableExists(sqlResourceName.equalsIgnoreCase("sqlite") ? null : storage.database, storage.prefix + "data")) {
-                    boolean legacyMySQL = false;
-                    if (sqlResourceName.equalsIgnoreCase("mysql")) {
-                        legacyMySQL = isLegacyMySQL(storage);
-                    }
+                FileImporter importer = new FileImporter(storage.sql);
 
-                    FileImporter importer = new FileImporter(storage.sql);
+                boolean legacyMySQL = false;
+                if (sqlResourceName.equalsIgnoreCase("mysql")) {
+                    legacyMySQL = isLegacyMySQL(storage);
+                }
 
+                if (!storage.sql.tableExists(sqlResourceName.equalsIgnoreCase("sqlite") ? null : storage.database, storage.prefix + "data")) {
                     InputStream stream = SQLVersionUtil.class.getClassLoader().getResourceAsStream(sqlResourceName + ".sql");
                     StringBuilder builder = new StringBuilder();
                     try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8.name()))) {
@@ -47,29 +71,87 @@ public abstract class AbstractSQL implements Storage {
                     // Insert DB version
                     storage.setKey("db_version", "1.0");
                 }
-                /*if (oldVersion < 1.1d) {
-                    toVersion(storage, sqlResourceName, "1.1", importer);
-                }*/
+                for (String version : VERSIONS) {
+                    if (oldVersion < Double.parseDouble(version)) {
+                        toVersion(storage, sqlResourceName, version, importer, legacyMySQL);
+                    }
+                }
             } catch (SQLException ex) {
                 throw new StorageException(false, "Could not get/update SQL version.", ex);
             }
         }
 
-        private static void toVersion(AbstractSQL storage, String sqlResourceName, String version, FileImporter importer) throws IOException, SQLException {
-            // Update DB
-            InputStream stream = SQLVersionUtil.class.getClassLoader().getResourceAsStream(sqlResourceName + "_" + version + ".sql");
+        /**
+         * Migrates the database to the version with the script {@code <sqlResourceName>_<version>.sql}
+         *
+         * Scripts are split into steps by "-- @step" lines, and each step is checkpointed once it's done.
+         * DDL can't be rolled back on MySQL, so a migration that was interrupted picks up again at the step it stopped on
+         * rather than repeating the ones that already went through
+         */
+        private static void toVersion(AbstractSQL storage, String sqlResourceName, String version, FileImporter importer, boolean legacyMySQL) throws IOException, SQLException {
+            List<String> steps = readSteps(storage, sqlResourceName + "_" + version + ".sql", legacyMySQL);
+            if (steps == null) {
+                // Nothing changed for this engine in this version
+                storage.setKey("db_version", version);
+                return;
+            }
+
+            int step = 0;
+            String checkpoint = storage.getString("db_version_step");
+            if (checkpoint != null && checkpoint.startsWith(version + ":")) {
+                step = Integer.parseInt(checkpoint.substring(version.length() + 1));
+            }
+
+            logger.info("Updating database to version " + version + (step > 0 ? " from step " + (step + 1) : "") + "..");
+            for (; step < steps.size(); step++) {
+                long start = System.currentTimeMillis();
+                importer.readString(steps.get(step), true);
+                storage.setKey("db_version_step", version + ":" + (step + 1));
+                if (ConfigUtil.getDebugOrFalse()) {
+                    logger.info("Database version " + version + " step " + (step + 1) + "/" + steps.size() + " took " + (System.currentTimeMillis() - start) + "ms.");
+                }
+            }
+
+            // Update DB version
+            storage.setKey("db_version", version);
+        }
+
+        private static List<String> readSteps(AbstractSQL storage, String resourceName, boolean legacyMySQL) throws IOException {
+            List<String> retVal = new ArrayList<>();
+
+            InputStream stream = SQLVersionUtil.class.getClassLoader().getResourceAsStream(resourceName);
+            if (stream == null) {
+                return null;
+            }
             StringBuilder builder = new StringBuilder();
             try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8.name()))) {
                 String line;
                 while ((line = reader.readLine()) != null) {
-                    builder.append(line.replace("{prefix}", storage.prefix));
+                    if (line.trim().equals(STEP_MARKER)) {
+                        addStep(retVal, builder);
+                        builder = new StringBuilder();
+                        continue;
+                    }
+
+                    line = line.replace("{prefix}", storage.prefix);
+                    if (legacyMySQL) {
+                        // Online DDL clauses aren't understood before MySQL 5.6, where index builds always lock the table anyway
+                        line = line.replace(", ALGORITHM=INPLACE, LOCK=NONE", "");
+                    }
+                    builder.append(line);
                     builder.append('\n');
                 }
             } catch (UnsupportedEncodingException ignored) { }
-            importer.readString(builder.toString(), true);
+            addStep(retVal, builder);
 
-            // Update DB version
-            storage.setKey("db_version", version);
+            return retVal;
+        }
+
+        private static void addStep(List<String> steps, StringBuilder builder) {
+            String step = builder.toString();
+            if (!step.trim().isEmpty()) {
+                steps.add(step);
+            }
         }
 
         private static boolean isLegacyMySQL(AbstractSQL storage) throws StorageException {
@@ -170,9 +252,80 @@ public abstract class AbstractSQL implements Storage {
         }
     }
 
+    /**
+     * Writes the post, through the batcher if batching is enabled
+     * @param post The post to write. Its ID and date are filled in once written
+     * @throws StorageException if the post could not be written
+     */
+    protected void writePost(PostBatcher.PendingPost post) throws StorageException {
+        if (postBatcher != null) {
+            postBatcher.submit(post);
+            return;
+        }
+
+        try {
+            postBatch(Collections.singletonList(post));
+        } catch (SQLException ex) {
+            throw new StorageException(isAutomaticallyRecoverable(ex), ex);
+        }
+    }
+
+    /**
+     * Stores the player's current name, if it's different from the last one stored
+     * @param longPlayerID The player's ID
+     * @param name The player's name. Nothing is done if this is null
+     * @throws StorageException if the name could not be written
+     */
+    protected void setPlayerName(long longPlayerID, String name) throws StorageException {
+        if (name == null || name.equals(playerNameCache.getIfPresent(longPlayerID))) {
+            return;
+        }
+
+        try {
+            executeWrite("UPDATE `" + prefix + "players` SET `name`=? WHERE `id`=?;", name, longPlayerID);
+        } catch (SQLException ex) {
+            throw new StorageException(isAutomaticallyRecoverable(ex), ex);
+        }
+        playerNameCache.put(longPlayerID, name);
+    }
+
+    protected void invalidatePlayerNames() { playerNameCache.invalidateAll(); }
+
+    /**
+     * @return The INSERT with placeholders for each row, so the rows are written in one statement
+     */
+    protected static String getMultiInsert(String insert, int columns, int rows) {
+        StringBuilder row = new StringBuilder("(");
+        for (int i = 0; i < columns; i++) {
+            row.append(i == 0 ? "?" : ", ?");
+        }
+        row.append(')');
+
+        StringBuilder retVal = new StringBuilder(insert.length() + 8 + rows * (row.length() + 2));
+        retVal.append(insert).append(" VALUES ");
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                retVal.append(", ");
+            }
+            retVal.append(row);
+        }
+        return retVal.append(';').toString();
+    }
+
+    /**
+     * Runs a statement that changes data, for engines that need writes to go somewhere other than the pool
+     */
+    protected SQLExecuteResult executeWrite(String query, Object... params) throws SQLException, StorageException { return sql.execute(query, params); }
+
+    public PostBatcher getPostBatcher() { return postBatcher; }
+
+    protected abstract void postBatch(List<PostBatcher.PendingPost> posts) throws SQLException, StorageException;
+
     protected abstract void setKey(String key, String value) throws SQLException;
 
     protected abstract double getDouble(String key) throws SQLException;
 
+    protected abstract String getString(String key) throws SQLException;
+
     protected abstract boolean isAutomaticallyRecoverable(SQLException ex);
 }
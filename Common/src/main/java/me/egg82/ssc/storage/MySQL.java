@@ -23,9 +23,7 @@ import org.slf4j.LoggerFactory;
 public class MySQL extends AbstractSQL {
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
-    private final Object levelCacheLock = new Object();
-    private volatile long lastLevelCacheTime = 0L;
-    private final Set<LevelResult> tmpLevelCache = new LinkedHashSet<>();
+    private static final int LOAD_BATCH_ROWS = 500;
 
     private final LoadingCache<Byte, String> levelCache = Caffeine.newBuilder().expireAfterAccess(10L, TimeUnit.MINUTES).expireAfterWrite(30L, TimeUnit.SECONDS).build(this::getLevelExpensive);
     private final LoadingCache<UUID, Long> longPlayerIDCache = Caffeine.newBuilder().build(this::getLongPlayerIDExpensive);
@@ -36,6 +34,7 @@ public class MySQL extends AbstractSQL {
     private long longServerID;
     private volatile long lastMessageID;
     private StorageHandler handler;
+    private MySQLPartitioning partitioning = null;
 
     private MySQL() { }
 
@@ -43,6 +42,12 @@ public class MySQL extends AbstractSQL {
 
     public void close() {
         closed = true;
+        if (postBatcher != null) {
+            postBatcher.close();
+        }
+        if (partitioning != null) {
+            partitioning.close();
+        }
         sql.close();
     }
 
@@ -53,6 +58,9 @@ public class MySQL extends AbstractSQL {
     public static class Builder {
         private final MySQL result = new MySQL();
         private final HikariConfig config = new HikariConfig();
+        private long batchWindow = 0L;
+        private int batchSize = 1;
+        private boolean partitioning = false;
 
         private Builder(UUID serverID, String serverName, StorageHandler handler) {
             if (serverID == null) {
@@ -130,12 +138,29 @@ public class MySQL extends AbstractSQL {
             return this;
         }
 
+        public MySQL.Builder batch(long window, int size) {
+            batchWindow = window;
+            batchSize = size;
+            return this;
+        }
+
+        public MySQL.Builder partitioning(boolean value) {
+            partitioning = value;
+            return this;
+        }
+
         public MySQL build() throws IOException, StorageException {
             result.sql = new SQL(config);
             SQLVersionUtil.conformVersion(result, "mysql");
             result.setServerName(result.serverName);
             result.longServerID = getLongServerID();
             result.lastMessageID = getLastMessageID();
+            if (batchWindow > 0L && batchSize > 1) {
+                result.postBatcher = new PostBatcher(result, batchWindow, batchSize);
+            }
+            if (partitioning) {
+                result.partitioning = new MySQLPartitioning(result);
+            }
             return result;
         }
 
@@ -167,18 +192,11 @@ public class MySQL extends AbstractSQL {
     }
 
     public ImmutableList<LevelResult> getLevels() throws StorageException {
-        if (lastLevelCacheTime <= System.currentTimeMillis() - 300000L) { // 5 mins
-            synchronized (levelCacheLock) {
-                tmpLevelCache.clear();
-                try {
-                    tmpLevelCache.addAll(fetchLevelsExpensive());
-                } catch (SQLException ex) {
-                    throw new StorageException(isAutomaticallyRecoverable(ex), "Could not get levels.");
-                }
-                lastLevelCacheTime = System.currentTimeMillis();
-            }
+        try {
+            return ImmutableList.copyOf(fetchLevelsExpensive());
+        } catch (SQLException ex) {
+            throw new StorageException(isAutomaticallyRecoverable(ex), "Could not get levels.");
         }
-        return ImmutableList.copyOf(tmpLevelCache);
     }
 
     private List<LevelResult> fetchLevelsExpensive() throws SQLException {
@@ -231,48 +249,93 @@ public class MySQL extends AbstractSQL {
         return retVal;
     }
 
-    public PostChatResult post(UUID playerID, byte level, String message) throws StorageException {
+    public List<ChatResult> getHistoryByPlayer(UUID playerID, ChatCursor after, int limit) throws StorageException {
         if (playerID == null) {
             throw new IllegalArgumentException("playerID cannot be null.");
         }
-        if (message == null) {
-            throw new IllegalArgumentException("message cannot be null.");
+        // Looked up in the query so a player with no history isn't created along the way
+        return getHistory("`c`.`player_id` = (SELECT `id` FROM `" + prefix + "players` WHERE `uuid`=?)", playerID.toString(), after, limit);
+    }
+
+    public List<ChatResult> getHistoryByLevel(byte level, ChatCursor after, int limit) throws StorageException { return getHistory("`c`.`level` = ?", level, after, limit); }
+
+    public List<ChatResult> getHistoryByServer(UUID serverID, ChatCursor after, int limit) throws StorageException {
+        if (serverID == null) {
+            throw new IllegalArgumentException("serverID cannot be null.");
         }
+        return getHistory("`c`.`server_id` = (SELECT `id` FROM `" + prefix + "servers` WHERE `uuid`=?)", serverID.toString(), after, limit);
+    }
 
-        long longPlayerID = longPlayerIDCache.get(playerID);
-        SQLExecuteResult result;
-        try {
-            result = sql.execute("INSERT INTO `" + prefix + "posted_chat` (`server_id`, `player_id`, `level`, `message`) VALUES (?, ?, ?, ?);", longServerID, longPlayerID, level, message);
-        } catch (SQLException ex) {
-            throw new StorageException(isAutomaticallyRecoverable(ex), ex);
+    private List<ChatResult> getHistory(String filter, Object filterValue, ChatCursor after, int limit) throws StorageException {
+        if (after == null) {
+            throw new IllegalArgumentException("after cannot be null.");
         }
-        if (result.getAutoGeneratedKeys().length != 1) {
-            throw new StorageException(false, "Could not get generated keys from inserted post.");
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be greater than zero.");
         }
 
-        long id = ((Number) result.getAutoGeneratedKeys()[0]).longValue();
-
-        SQLQueryResult query;
+        Timestamp date = new Timestamp(after.getDate());
+        List<ChatResult> retVal = new ArrayList<>();
+        SQLQueryResult result;
         try {
-            query = sql.query("SELECT `date` FROM `" + prefix + "posted_chat` WHERE `id`=?;", id);
+            // Keyset pagination: the cursor picks up exactly where the last page left off, no matter how deep it is
+            // The plain lower bound on the date lets the (filter, date) index seek straight to the cursor
+            result = sql.query(
+                    "SELECT" +
+                        "  `c`.`id`," +
+                        "  `s`.`uuid` AS `server_id`," +
+                        "  `s`.`name` AS `server_name`," +
+                        "  `p`.`uuid` AS `player_id`," +
+                        "  `p`.`name` AS `player_name`," +
+                        "  `c`.`level`," +
+                        "  `l`.`name` AS `level_name`," +
+                        "  `c`.`message`," +
+                        "  `c`.`date` " +
+                        "FROM `" + prefix + "posted_chat` `c` " +
+                        "JOIN `" + prefix + "servers` `s` ON `s`.`id` = `c`.`server_id` " +
+                        "JOIN `" + prefix + "players` `p` ON `p`.`id` = `c`.`player_id` " +
+                        "JOIN `" + prefix + "levels` `l` ON `l`.`id` = `c`.`level` " +
+                        "WHERE " + filter + " AND `c`.`date` >= ? AND (`c`.`date` > ? OR (`c`.`date` = ? AND `c`.`id` > ?)) " +
+                        "ORDER BY `c`.`date`, `c`.`id` " +
+                        "LIMIT ?;",
+                    filterValue, date, date, date, after.getID(), limit);
         } catch (SQLException ex) {
             throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
-        if (query.getData().length != 1) {
-            throw new StorageException(false, "Could not get date from inserted post.");
+        for (Object[] row : result.getData()) {
+            ChatResult r = getResult(row);
+            if (r != null) {
+                retVal.add(r);
+            }
+        }
+        return retVal;
+    }
+
+    public PostChatResult post(UUID playerID, String playerName, byte level, String message) throws StorageException {
+        if (playerID == null) {
+            throw new IllegalArgumentException("playerID cannot be null.");
+        }
+        if (message == null) {
+            throw new IllegalArgumentException("message cannot be null.");
         }
 
+        long longPlayerID = longPlayerIDCache.get(playerID);
+        setPlayerName(longPlayerID, playerName);
+        PostBatcher.PendingPost post = new PostBatcher.PendingPost(longPlayerID, level, message);
+        writePost(post);
+
         return new PostChatResult(
-                id,
+                post.getID(),
                 longServerID,
                 uuidServerID,
                 serverName,
                 longPlayerID,
                 playerID,
+                playerName,
                 level,
                 levelCache.get(level),
                 message,
-                ((Timestamp) query.getData()[0][0]).getTime()
+                post.getDate()
         );
     }
 
@@ -280,9 +343,7 @@ public class MySQL extends AbstractSQL {
         try {
             sql.execute("INSERT INTO `" + prefix + "levels` (`id`, `name`) VALUES (?, ?) ON DUPLICATE KEY UPDATE `name`=?;", level, name, name);
             levelCache.put(level, name);
-            LevelResult l = new LevelResult(level, name);
-            tmpLevelCache.remove(l);
-            tmpLevelCache.add(l);
+            handler.levelUpdateCallback(level, name, this);
         } catch (SQLException ex) {
             throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
@@ -305,7 +366,8 @@ public class MySQL extends AbstractSQL {
         longPlayerIDCache.put(playerID, longPlayerID);
     }
 
-    public void postRaw(long postID, long longServerID, long longPlayerID, byte level, String message, long date) throws StorageException {
+    public void postRaw(long postID, long longServerID, long longPlayerID, String playerName, byte level, String message, long date) throws StorageException {
+        setPlayerName(longPlayerID, playerName);
         try {
             sql.execute("INSERT IGNORE INTO `" + prefix + "posted_chat` (`id`, `server_id`, `player_id`, `level`, `message`, `date`) VALUES (?, ?, ?, ?, ?, ?);", postID, longServerID, longPlayerID, level, message, new Timestamp(date));
         } catch (SQLException ex) {
@@ -313,6 +375,37 @@ public class MySQL extends AbstractSQL {
         }
     }
 
+    protected void postBatch(List<PostBatcher.PendingPost> posts) throws SQLException, StorageException {
+        // Dates are set here rather than defaulted by the database so the insert is the only round trip
+        // Truncated to the second to match what the column (and CURRENT_TIMESTAMP) would store
+        long date = System.currentTimeMillis() / 1000L * 1000L;
+        Timestamp timestamp = new Timestamp(date);
+
+        StringBuilder query = new StringBuilder(64 + posts.size() * 20);
+        query.append("INSERT INTO `" + prefix + "posted_chat` (`server_id`, `player_id`, `level`, `message`, `date`) VALUES ");
+        Object[] params = new Object[posts.size() * 5];
+        for (int i = 0; i < posts.size(); i++) {
+            PostBatcher.PendingPost post = posts.get(i);
+            query.append(i == 0 ? "(?, ?, ?, ?, ?)" : ", (?, ?, ?, ?, ?)");
+            params[i * 5] = longServerID;
+            params[i * 5 + 1] = post.getLongPlayerID();
+            params[i * 5 + 2] = post.getLevel();
+            params[i * 5 + 3] = post.getMessage();
+            params[i * 5 + 4] = timestamp;
+            post.setDate(date);
+        }
+        query.append(';');
+
+        // A single multi-row INSERT is atomic, so the whole batch is one commit
+        SQLExecuteResult result = sql.execute(query.toString(), params);
+        if (result.getAutoGeneratedKeys().length != posts.size()) {
+            throw new StorageException(false, "Could not get generated keys from inserted posts.");
+        }
+        for (int i = 0; i < posts.size(); i++) {
+            posts.get(i).setID(((Number) result.getAutoGeneratedKeys()[i]).longValue());
+        }
+    }
+
     public void setLevel(byte level, String name) throws StorageException {
         if (name == null) {
             throw new IllegalArgumentException("name cannot be null.");
@@ -332,7 +425,12 @@ public class MySQL extends AbstractSQL {
         }
     }
 
-    protected void setKey(String key, String value) throws SQLException { sql.execute("INSERT INTO `" + prefix + "data` (`key`, `value`) VALUES (?, ?) ON DUPLICATE KEY UPDATE `value`=?;", key, value, value); }
+    protected void setKey(String key, String value) throws SQLException {
+        // An INSERT takes an ID from data's tiny AUTO_INCREMENT even when it ends up updating, so keys that are already there are updated in place
+        if (sql.execute("UPDATE `" + prefix + "data` SET `value`=? WHERE `key`=?;", value, key).getRecordsAffected() == 0L && getString(key) == null) {
+            sql.execute("INSERT INTO `" + prefix + "data` (`key`, `value`) VALUES (?, ?) ON DUPLICATE KEY UPDATE `value`=?;", key, value, value);
+        }
+    }
 
     protected double getDouble(String key) throws SQLException {
         SQLQueryResult result = sql.query("SELECT `value` FROM `" + prefix + "data` WHERE `key`=?;", key);
@@ -342,6 +440,14 @@ public class MySQL extends AbstractSQL {
         return -1.0d;
     }
 
+    protected String getString(String key) throws SQLException {
+        SQLQueryResult result = sql.query("SELECT `value` FROM `" + prefix + "data` WHERE `key`=?;", key);
+        if (result.getData().length == 1) {
+            return (String) result.getData()[0][0];
+        }
+        return null;
+    }
+
     public long getLongPlayerID(UUID playerID) { return longPlayerIDCache.get(playerID); }
 
     public Set<LevelResult> dumpLevels() throws StorageException {
@@ -365,16 +471,23 @@ public class MySQL extends AbstractSQL {
     }
 
     public void loadLevels(Set<LevelResult> levels) throws StorageException {
-        // TODO: Batch execute
         try {
-            sql.execute("SET FOREIGN_KEY_CHECKS = 0;");
-            sql.execute("TRUNCATE `" + prefix + "levels`;");
+            truncate("levels");
             levelCache.invalidateAll();
-            for (LevelResult level : levels) {
-                sql.execute("INSERT INTO `" + prefix + "levels` (`id`, `name`) VALUES (?, ?);", level.getLevel(), level.getName());
-                levelCache.put(level.getLevel(), level.getName());
+            List<LevelResult> rows = new ArrayList<>(levels);
+            for (int i = 0; i < rows.size(); i += LOAD_BATCH_ROWS) {
+                List<LevelResult> chunk = rows.subList(i, Math.min(i + LOAD_BATCH_ROWS, rows.size()));
+                Object[] params = new Object[chunk.size() * 2];
+                for (int j = 0; j < chunk.size(); j++) {
+                    LevelResult level = chunk.get(j);
+                    params[j * 2] = level.getLevel();
+                    params[j * 2 + 1] = level.getName();
+                }
+                sql.execute(getMultiInsert("INSERT INTO `" + prefix + "levels` (`id`, `name`)", 2, chunk.size()), params);
+                for (LevelResult level : chunk) {
+                    levelCache.put(level.getLevel(), level.getName());
+                }
             }
-            sql.execute("SET FOREIGN_KEY_CHECKS = 1;");
         } catch (SQLException ex) {
             throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
@@ -408,25 +521,32 @@ public class MySQL extends AbstractSQL {
     }
 
     public void loadServers(Set<ServerResult> servers) throws StorageException {
-        // TODO: Batch execute
         try {
-            sql.execute("SET FOREIGN_KEY_CHECKS = 0;");
-            sql.execute("TRUNCATE `" + prefix + "servers`;");
-            for (ServerResult server : servers) {
-                sql.execute("INSERT INTO `" + prefix + "servers` (`id`, `uuid`, `name`) VALUES (?, ?, ?);", server.getLongServerID(), server.getServerID().toString(), server.getName());
+            truncate("servers");
+            List<ServerResult> rows = new ArrayList<>(servers);
+            for (int i = 0; i < rows.size(); i += LOAD_BATCH_ROWS) {
+                List<ServerResult> chunk = rows.subList(i, Math.min(i + LOAD_BATCH_ROWS, rows.size()));
+                Object[] params = new Object[chunk.size() * 3];
+                for (int j = 0; j < chunk.size(); j++) {
+                    ServerResult server = chunk.get(j);
+                    params[j * 3] = server.getLongServerID();
+                    params[j * 3 + 1] = server.getServerID().toString();
+                    params[j * 3 + 2] = server.getName();
+                }
+                sql.execute(getMultiInsert("INSERT INTO `" + prefix + "servers` (`id`, `uuid`, `name`)", 3, chunk.size()), params);
             }
-            sql.execute("SET FOREIGN_KEY_CHECKS = 1;");
         } catch (SQLException ex) {
             throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
     }
 
-    public Set<PlayerResult> dumpPlayers(long begin, int size) throws StorageException {
+    public Set<PlayerResult> dumpPlayers(long afterID, int size) throws StorageException {
         Set<PlayerResult> retVal = new LinkedHashSet<>();
 
         SQLQueryResult result;
         try {
-            result = sql.query("SELECT `id`, `uuid` FROM `" + prefix + "players` LIMIT ?, ?;", begin - 1, size);
+            // Seeks on the primary key, so a page costs the same however deep into the table it is
+            result = sql.query("SELECT `id`, `uuid`, `name` FROM `" + prefix + "players` WHERE `id` > ? ORDER BY `id` LIMIT ?;", afterID, size);
         } catch (SQLException ex) {
             throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
@@ -440,7 +560,8 @@ public class MySQL extends AbstractSQL {
 
             retVal.add(new PlayerResult(
                     ((Number) row[0]).longValue(),
-                    UUID.fromString(pid)
+                    UUID.fromString(pid),
+                    (String) row[2]
             ));
         }
 
@@ -448,31 +569,39 @@ public class MySQL extends AbstractSQL {
     }
 
     public void loadPlayers(Set<PlayerResult> players, boolean truncate) throws StorageException {
-        // TODO: Batch execute
         try {
             if (truncate) {
-                sql.execute("SET FOREIGN_KEY_CHECKS = 0;");
-                sql.execute("TRUNCATE `" + prefix + "players`;");
+                truncate("players");
                 longPlayerIDCache.invalidateAll();
+                invalidatePlayerNames();
             }
-            for (PlayerResult player : players) {
-                sql.execute("INSERT INTO `" + prefix + "players` (`id`, `uuid`) VALUES (?, ?);", player.getLongPlayerID(), player.getPlayerID().toString());
-                longPlayerIDCache.put(player.getPlayerID(), player.getLongPlayerID());
-            }
-            if (truncate) {
-                sql.execute("SET FOREIGN_KEY_CHECKS = 1;");
+            // Each multi-row INSERT is its own transaction, rather than one per row
+            List<PlayerResult> rows = new ArrayList<>(players);
+            for (int i = 0; i < rows.size(); i += LOAD_BATCH_ROWS) {
+                List<PlayerResult> chunk = rows.subList(i, Math.min(i + LOAD_BATCH_ROWS, rows.size()));
+                Object[] params = new Object[chunk.size() * 3];
+                for (int j = 0; j < chunk.size(); j++) {
+                    PlayerResult player = chunk.get(j);
+                    params[j * 3] = player.getLongPlayerID();
+                    params[j * 3 + 1] = player.getPlayerID().toString();
+                    params[j * 3 + 2] = player.getName();
+                }
+                sql.execute(getMultiInsert("INSERT INTO `" + prefix + "players` (`id`, `uuid`, `name`)", 3, chunk.size()), params);
+                for (PlayerResult player : chunk) {
+                    longPlayerIDCache.put(player.getPlayerID(), player.getLongPlayerID());
+                }
             }
         } catch (SQLException ex) {
             throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
     }
 
-    public Set<RawChatResult> dumpChat(long begin, int size) throws StorageException {
+    public Set<RawChatResult> dumpChat(long afterID, int size) throws StorageException {
         Set<RawChatResult> retVal = new LinkedHashSet<>();
 
         SQLQueryResult result;
         try {
-            result = sql.query("SELECT `id`, `server_id`, `player_id`, `level`, `message`, `date` FROM `" + prefix + "posted_chat` LIMIT ?, ?;", begin - 1, size);
+            result = sql.query("SELECT `c`.`id`, `c`.`server_id`, `c`.`player_id`, `p`.`name`, `c`.`level`, `c`.`message`, `c`.`date` FROM `" + prefix + "posted_chat` `c` LEFT JOIN `" + prefix + "players` `p` ON `p`.`id` = `c`.`player_id` WHERE `c`.`id` > ? ORDER BY `c`.`id` LIMIT ?;", afterID, size);
         } catch (SQLException ex) {
             throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
@@ -482,9 +611,10 @@ public class MySQL extends AbstractSQL {
                     ((Number) row[0]).longValue(),
                     ((Number) row[1]).longValue(),
                     ((Number) row[2]).longValue(),
-                    ((Number) row[3]).byteValue(),
-                    (String) row[4],
-                    ((Timestamp) row[5]).getTime()
+                    (String) row[3],
+                    ((Number) row[4]).byteValue(),
+                    (String) row[5],
+                    ((Timestamp) row[6]).getTime()
             ));
         }
 
@@ -492,18 +622,86 @@ public class MySQL extends AbstractSQL {
     }
 
     public void loadChat(Set<RawChatResult> chat, boolean truncate) throws StorageException {
-        // TODO: Batch execute
+        // Player names come across with the players themselves
         try {
             if (truncate) {
-                sql.execute("SET FOREIGN_KEY_CHECKS = 0;");
-                sql.execute("TRUNCATE `" + prefix + "posted_chat`;");
+                truncate("posted_chat");
             }
-            for (RawChatResult c : chat) {
-                sql.execute("INSERT INTO `" + prefix + "posted_chat` (`id`, `server_id`, `player_id`, `level`, `message`, `date`) VALUES (?, ?, ?, ?, ?, ?);", c.getID(), c.getLongServerID(), c.getLongPlayerID(), c.getLevel(), c.getMessage(), new Timestamp(c.getDate()));
+            List<RawChatResult> rows = new ArrayList<>(chat);
+            for (int i = 0; i < rows.size(); i += LOAD_BATCH_ROWS) {
+                List<RawChatResult> chunk = rows.subList(i, Math.min(i + LOAD_BATCH_ROWS, rows.size()));
+                Object[] params = new Object[chunk.size() * 6];
+                for (int j = 0; j < chunk.size(); j++) {
+                    RawChatResult c = chunk.get(j);
+                    params[j * 6] = c.getID();
+                    params[j * 6 + 1] = c.getLongServerID();
+                    params[j * 6 + 2] = c.getLongPlayerID();
+                    params[j * 6 + 3] = c.getLevel();
+                    params[j * 6 + 4] = c.getMessage();
+                    params[j * 6 + 5] = new Timestamp(c.getDate());
+                }
+                sql.execute(getMultiInsert("INSERT INTO `" + prefix + "posted_chat` (`id`, `server_id`, `player_id`, `level`, `message`, `date`)", 6, chunk.size()), params);
             }
-            if (truncate) {
-                sql.execute("SET FOREIGN_KEY_CHECKS = 1;");
+        } catch (SQLException ex) {
+            throw new StorageException(isAutomaticallyRecoverable(ex), ex);
+        }
+    }
+
+    // Foreign key checks are per-connection, so the procedure turns them off and back on within the one call
+    private void truncate(String table) throws SQLException { sql.execute("CALL `" + prefix + "truncate`(?);", table); }
+
+    public long getPlayerCount() throws StorageException { return count("players"); }
+
+    public long getChatCount() throws StorageException { return count("posted_chat"); }
+
+    private long count(String table) throws StorageException {
+        SQLQueryResult result;
+        try {
+            result = sql.query("SELECT COUNT(*) FROM `" + prefix + table + "`;");
+        } catch (SQLException ex) {
+            throw new StorageException(isAutomaticallyRecoverable(ex), ex);
+        }
+        return result.getData().length == 1 ? ((Number) result.getData()[0][0]).longValue() : 0L;
+    }
+
+    public int deleteChatBefore(long date, int limit) throws StorageException {
+        try {
+            if (partitioning != null) {
+                // Whole months go at once as a metadata change. Only the month the date falls in is left to delete row by row
+                long dropped = partitioning.dropBefore(date);
+                if (dropped > 0L) {
+                    return (int) Math.min(Integer.MAX_VALUE, dropped);
+                }
             }
+            // Walks the date index from the oldest post, so each chunk only ever touches the rows it deletes
+            return sql.execute("DELETE FROM `" + prefix + "posted_chat` WHERE `date` < ? ORDER BY `date` LIMIT ?;", new Timestamp(date), limit).getRecordsAffected();
+        } catch (SQLException ex) {
+            throw new StorageException(isAutomaticallyRecoverable(ex), ex);
+        }
+    }
+
+    public int deleteChatBelow(long postID, int limit) throws StorageException {
+        try {
+            return sql.execute("DELETE FROM `" + prefix + "posted_chat` WHERE `id` < ? ORDER BY `id` LIMIT ?;", postID, limit).getRecordsAffected();
+        } catch (SQLException ex) {
+            throw new StorageException(isAutomaticallyRecoverable(ex), ex);
+        }
+    }
+
+    public long getChatIDFromNewest(long offset) throws StorageException {
+        SQLQueryResult result;
+        try {
+            result = sql.query("SELECT `id` FROM `" + prefix + "posted_chat` ORDER BY `id` DESC LIMIT ?, 1;", offset);
+        } catch (SQLException ex) {
+            throw new StorageException(isAutomaticallyRecoverable(ex), ex);
+        }
+        return result.getData().length == 1 ? ((Number) result.getData()[0][0]).longValue() : -1L;
+    }
+
+    public void compact() throws StorageException {
+        // InnoDB reuses the freed pages on its own. Rebuilding the table to shrink it would lock it, so only the statistics are refreshed
+        try {
+            sql.query("ANALYZE TABLE `" + prefix + "posted_chat`;");
         } catch (SQLException ex) {
             throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
@@ -526,10 +724,11 @@ public class MySQL extends AbstractSQL {
                 UUID.fromString(serverID),
                 (String) row[2],
                 UUID.fromString(playerID),
-                ((Number) row[4]).byteValue(),
-                (String) row[5],
+                (String) row[4],
+                ((Number) row[5]).byteValue(),
                 (String) row[6],
-                ((Timestamp) row[7]).getTime()
+                (String) row[7],
+                ((Timestamp) row[8]).getTime()
         );
     }
 
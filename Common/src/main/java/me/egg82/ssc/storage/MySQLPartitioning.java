@@ -0,0 +1,313 @@
+package me.egg82.ssc.storage;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import me.egg82.ssc.utils.ConfigUtil;
+import ninja.egg82.core.SQLQueryResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Moves MySQL chat into a table partitioned by month, then keeps partitions made ahead of time
+ *
+ * The move happens in the background while chat keeps flowing. Triggers mirror new and deleted posts into the new table
+ * as they happen, while older rows are copied over in chunks by ID, with progress checkpointed in the data table so a
+ * restart carries on where it left off. Once the copy has caught up the tables are swapped with a single atomic rename,
+ * and since the new table already has every post, IDs carry on from where they were with nothing left to copy afterwards
+ */
+class MySQLPartitioning {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final int COPY_CHUNK_SIZE = 1000;
+    private static final long COPY_PAUSE_MILLIS = 100L;
+    private static final int MONTHS_AHEAD = 2;
+    private static final long UPKEEP_INTERVAL_MILLIS = 24L * 60L * 60L * 1000L;
+
+    private static final DateTimeFormatter PARTITION_NAME = DateTimeFormatter.ofPattern("'p'yyyyMM");
+    private static final DateTimeFormatter PARTITION_BOUND = DateTimeFormatter.ofPattern("yyyy-MM-'01'");
+    private static final DateTimeFormatter MONTH = DateTimeFormatter.ofPattern("yyyyMM");
+
+    private final MySQL storage;
+    private final String table;
+    private final String newTable;
+    private final String oldTable;
+    private final String insertTrigger;
+    private final String deleteTrigger;
+
+    private final ScheduledExecutorService workPool = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("SimpleStaffChat-Partitioning-%d").setPriority(Thread.MIN_PRIORITY).build());
+
+    private volatile boolean partitioned = false;
+
+    MySQLPartitioning(MySQL storage) {
+        this.storage = storage;
+        this.table = storage.prefix + "posted_chat";
+        this.newTable = storage.prefix + "posted_chat_partitioned";
+        this.oldTable = storage.prefix + "posted_chat_unpartitioned";
+        this.insertTrigger = storage.prefix + "posted_chat_partition_insert";
+        this.deleteTrigger = storage.prefix + "posted_chat_partition_delete";
+
+        workPool.execute(this::migrate);
+    }
+
+    void close() {
+        workPool.shutdown();
+        try {
+            if (!workPool.awaitTermination(4L, TimeUnit.SECONDS)) {
+                workPool.shutdownNow();
+            }
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Drops the oldest month of chat that's entirely older than the date, along with any empty months before it
+     * @return The number of posts dropped, which is 0 if no month was old enough
+     */
+    long dropBefore(long date) throws SQLException {
+        if (!partitioned) {
+            return 0L;
+        }
+
+        YearMonth cutoff = getMonth(date);
+        for (String partition : getPartitions()) {
+            // A month's bound is the first of the next month, so it can only go once every post in it is older than the date
+            if ("pmax".equals(partition) || !getMonth(partition).isBefore(cutoff)) {
+                break;
+            }
+
+            SQLQueryResult result = storage.sql.query("SELECT COUNT(*) FROM `" + table + "` PARTITION (`" + partition + "`);");
+            long count = ((Number) result.getData()[0][0]).longValue();
+            storage.sql.execute("ALTER TABLE `" + table + "` DROP PARTITION `" + partition + "`;");
+            if (ConfigUtil.getDebugOrFalse()) {
+                logger.info("Dropped chat partition " + partition + " with " + count + " post(s).");
+            }
+            if (count > 0L) {
+                return count;
+            }
+        }
+        return 0L;
+    }
+
+    private void migrate() {
+        try {
+            if (!isTablePartitioned(table)) {
+                if (!canPartition()) {
+                    logger.warn("MySQL chat can only be partitioned with a datetime date column. Skipping.");
+                    return;
+                }
+                if (!storage.sql.tableExists(storage.database, newTable)) {
+                    createTable();
+                }
+                createTriggers();
+                copy();
+                swap();
+            }
+            if (storage.sql.tableExists(storage.database, oldTable)) {
+                // Interrupted between the swap and cleaning up afterwards
+                finishSwap();
+            }
+            partitioned = true;
+        } catch (SQLException ex) {
+            logger.error("Could not partition MySQL chat. Progress is saved, and will continue on the next start.", ex);
+            return;
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        try {
+            workPool.scheduleWithFixedDelay(this::upkeep, 0L, UPKEEP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ignored) { }
+    }
+
+    private void createTable() throws SQLException {
+        SQLQueryResult result = storage.sql.query("SELECT DATE_FORMAT(MIN(`date`), '%Y%m') FROM `" + table + "`;");
+        Object min = result.getData().length == 1 ? result.getData()[0][0] : null;
+        YearMonth now = getMonth(System.currentTimeMillis());
+        YearMonth first = min instanceof String ? YearMonth.parse((String) min, MONTH) : now;
+
+        StringBuilder partitions = new StringBuilder();
+        for (YearMonth month = first; !month.isAfter(now.plusMonths(MONTHS_AHEAD)); month = month.plusMonths(1L)) {
+            partitions.append(getPartition(month)).append(",\n");
+        }
+        partitions.append("  PARTITION `pmax` VALUES LESS THAN (MAXVALUE)");
+
+        // Partitioned InnoDB tables can't have foreign keys, and every unique key has to include the date
+        storage.sql.execute(
+                "CREATE TABLE `" + newTable + "` (\n" +
+                "  `id` bigint(8) unsigned NOT NULL AUTO_INCREMENT,\n" +
+                "  `server_id` bigint(8) unsigned NOT NULL,\n" +
+                "  `player_id` bigint(8) unsigned NOT NULL,\n" +
+                "  `level` tinyint(3) unsigned NOT NULL DEFAULT 1,\n" +
+                "  `message` mediumtext COLLATE utf8mb4_unicode_ci NOT NULL,\n" +
+                "  `date` datetime NOT NULL DEFAULT CURRENT_TIMESTAMP,\n" +
+                "  PRIMARY KEY (`id`, `date`),\n" +
+                "  KEY `" + storage.prefix + "posted_chat_date_idx` (`date`),\n" +
+                "  KEY `" + storage.prefix + "posted_chat_player_id_date_idx` (`player_id`, `date`),\n" +
+                "  KEY `" + storage.prefix + "posted_chat_level_date_idx` (`level`, `date`),\n" +
+                "  KEY `" + storage.prefix + "posted_chat_server_id_date_idx` (`server_id`, `date`)\n" +
+                ") ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci\n" +
+                "PARTITION BY RANGE COLUMNS(`date`) (\n" + partitions + "\n);"
+        );
+        storage.setKey("partition_copied_id", "0");
+        logger.info("Created partitioned chat table. Copying chat over in the background..");
+    }
+
+    private void createTriggers() throws SQLException {
+        // Same transaction as the post or delete itself, so nothing can land in the old table without the new one seeing it
+        storage.sql.execute("DROP TRIGGER IF EXISTS `" + insertTrigger + "`;");
+        storage.sql.execute(
+                "CREATE TRIGGER `" + insertTrigger + "` AFTER INSERT ON `" + table + "` FOR EACH ROW " +
+                "INSERT IGNORE INTO `" + newTable + "` (`id`, `server_id`, `player_id`, `level`, `message`, `date`) VALUES (NEW.`id`, NEW.`server_id`, NEW.`player_id`, NEW.`level`, NEW.`message`, NEW.`date`);"
+        );
+        storage.sql.execute("DROP TRIGGER IF EXISTS `" + deleteTrigger + "`;");
+        storage.sql.execute(
+                "CREATE TRIGGER `" + deleteTrigger + "` AFTER DELETE ON `" + table + "` FOR EACH ROW " +
+                "DELETE FROM `" + newTable + "` WHERE `id` = OLD.`id` AND `date` = OLD.`date`;"
+        );
+    }
+
+    private void copy() throws SQLException, InterruptedException {
+        long copied = getCheckpoint();
+        long start = System.currentTimeMillis();
+        long rows = 0L;
+
+        while (true) {
+            if (workPool.isShutdown()) {
+                throw new InterruptedException();
+            }
+
+            // Find where this chunk ends first, so the copy itself is a plain primary key range
+            SQLQueryResult result = storage.sql.query("SELECT `id` FROM `" + table + "` WHERE `id` > ? ORDER BY `id` LIMIT ?, 1;", copied, COPY_CHUNK_SIZE - 1);
+            if (result.getData().length != 1) {
+                // Less than a chunk left. The swap copies the rest
+                break;
+            }
+            long end = ((Number) result.getData()[0][0]).longValue();
+
+            rows += copyRange(copied, end);
+            copied = end;
+            storage.setKey("partition_copied_id", String.valueOf(copied));
+
+            if (ConfigUtil.getDebugOrFalse()) {
+                logger.info("Copied chat up to ID " + copied + " into the partitioned table.");
+            }
+            Thread.sleep(COPY_PAUSE_MILLIS);
+        }
+
+        logger.info("Copied " + rows + " post(s) into the partitioned table in " + (System.currentTimeMillis() - start) + "ms.");
+    }
+
+    private void swap() throws SQLException {
+        // The rest of the rows from before the triggers, then swap both tables at once
+        copyRange(getCheckpoint(), Long.MAX_VALUE);
+        storage.sql.execute("RENAME TABLE `" + table + "` TO `" + oldTable + "`, `" + newTable + "` TO `" + table + "`;");
+        logger.info("Swapped in the partitioned chat table.");
+
+        finishSwap();
+    }
+
+    private void finishSwap() throws SQLException {
+        // The triggers go with the old table
+        storage.sql.execute("DROP TABLE `" + oldTable + "`;");
+        storage.setKey("partition_copied_id", "-1");
+    }
+
+    private long copyRange(long after, long to) throws SQLException {
+        return storage.sql.execute(
+                "INSERT IGNORE INTO `" + newTable + "` (`id`, `server_id`, `player_id`, `level`, `message`, `date`) " +
+                "SELECT `id`, `server_id`, `player_id`, `level`, `message`, `date` FROM `" + table + "` WHERE `id` > ? AND `id` <= ?;",
+                after, to
+        ).getRecordsAffected();
+    }
+
+    private void upkeep() {
+        try {
+            List<String> partitions = getPartitions();
+            YearMonth last = null;
+            for (String partition : partitions) {
+                if (!"pmax".equals(partition)) {
+                    last = getMonth(partition);
+                }
+            }
+
+            YearMonth now = getMonth(System.currentTimeMillis());
+            YearMonth target = now.plusMonths(MONTHS_AHEAD);
+            YearMonth month = last == null ? now : last.plusMonths(1L);
+            if (month.isAfter(target)) {
+                return;
+            }
+
+            // pmax only ever holds posts dated in the future, so splitting it is close to free
+            StringBuilder added = new StringBuilder();
+            for (; !month.isAfter(target); month = month.plusMonths(1L)) {
+                added.append(getPartition(month)).append(",\n");
+            }
+            added.append("  PARTITION `pmax` VALUES LESS THAN (MAXVALUE)");
+            storage.sql.execute("ALTER TABLE `" + table + "` REORGANIZE PARTITION `pmax` INTO (\n" + added + "\n);");
+
+            if (ConfigUtil.getDebugOrFalse()) {
+                logger.info("Added chat partitions up to " + target + ".");
+            }
+        } catch (SQLException ex) {
+            logger.error("Could not add chat partitions.", ex);
+        }
+    }
+
+    private List<String> getPartitions() throws SQLException {
+        SQLQueryResult result = storage.sql.query(
+                "SELECT `PARTITION_NAME` FROM `information_schema`.`PARTITIONS` WHERE `TABLE_SCHEMA` = ? AND `TABLE_NAME` = ? AND `PARTITION_NAME` IS NOT NULL ORDER BY `PARTITION_ORDINAL_POSITION`;",
+                storage.database, table
+        );
+        List<String> retVal = new ArrayList<>();
+        for (Object[] row : result.getData()) {
+            retVal.add((String) row[0]);
+        }
+        return retVal;
+    }
+
+    private boolean isTablePartitioned(String name) throws SQLException {
+        SQLQueryResult result = storage.sql.query(
+                "SELECT COUNT(*) FROM `information_schema`.`PARTITIONS` WHERE `TABLE_SCHEMA` = ? AND `TABLE_NAME` = ? AND `PARTITION_NAME` IS NOT NULL;",
+                storage.database, name
+        );
+        return ((Number) result.getData()[0][0]).longValue() > 0L;
+    }
+
+    private boolean canPartition() throws SQLException {
+        // Legacy servers get a timestamp date column, which RANGE COLUMNS doesn't accept
+        SQLQueryResult result = storage.sql.query(
+                "SELECT `DATA_TYPE` FROM `information_schema`.`COLUMNS` WHERE `TABLE_SCHEMA` = ? AND `TABLE_NAME` = ? AND `COLUMN_NAME` = 'date';",
+                storage.database, table
+        );
+        return result.getData().length == 1 && "datetime".equalsIgnoreCase(String.valueOf(result.getData()[0][0]));
+    }
+
+    private long getCheckpoint() throws SQLException {
+        String value = storage.getString("partition_copied_id");
+        return value == null ? 0L : Math.max(0L, Long.parseLong(value));
+    }
+
+    private YearMonth getMonth(String partition) { return YearMonth.parse(partition, PARTITION_NAME); }
+
+    /**
+     * Dates go into MySQL as bound Timestamps and land in whatever zone the driver and session put them in,
+     * which is what the partition bounds are compared against, so MySQL works out the month the same way
+     */
+    private YearMonth getMonth(long date) throws SQLException {
+        SQLQueryResult result = storage.sql.query("SELECT DATE_FORMAT(?, '%Y%m');", new Timestamp(date));
+        return YearMonth.parse((String) result.getData()[0][0], MONTH);
+    }
+
+    private String getPartition(YearMonth month) { return "  PARTITION `" + month.format(PARTITION_NAME) + "` VALUES LESS THAN ('" + month.plusMonths(1L).format(PARTITION_BOUND) + "')"; }
+}
@@ -0,0 +1,225 @@
+package me.egg82.ssc.storage;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import me.egg82.ssc.utils.ConfigUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Group-commit stage in front of an {@link AbstractSQL} storage engine
+ * Posts are gathered for up to a few milliseconds (or until the batch is full)
+ * and written as a single multi-row INSERT, so a burst of staff chat costs one round trip and one commit
+ */
+public class PostBatcher {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    // Well past the connection timeout and SQLite's write timeout, so a slow batch fails on its own first
+    // and this only trips if the batch thread itself is stuck
+    private static final long SUBMIT_TIMEOUT_MILLIS = SQLiteWriter.WRITE_TIMEOUT_MILLIS + 30000L;
+
+    private final ExecutorService workPool;
+    private final BlockingQueue<PendingPost> queue = new LinkedBlockingQueue<>();
+
+    private final AbstractSQL storage;
+    private final long windowNanos;
+    private final int maxSize;
+
+    private final AtomicLong numBatches = new AtomicLong(0L);
+    private final AtomicLong numPosts = new AtomicLong(0L);
+    private final AtomicLong maxBatchSize = new AtomicLong(0L);
+    private final AtomicLong totalFlushNanos = new AtomicLong(0L);
+
+    private volatile boolean closed = false;
+    // Held while checking closed and queueing, so nothing can be queued once close() has started draining
+    private final Object queueLock = new Object();
+
+    public PostBatcher(AbstractSQL storage, long windowMillis, int maxSize) {
+        if (storage == null) {
+            throw new IllegalArgumentException("storage cannot be null.");
+        }
+        if (windowMillis < 0L) {
+            throw new IllegalArgumentException("windowMillis cannot be negative.");
+        }
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1.");
+        }
+
+        this.storage = storage;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxSize = maxSize;
+
+        workPool = Executors.newFixedThreadPool(1, new ThreadFactoryBuilder().setNameFormat("SimpleStaffChat-" + storage.getClass().getSimpleName() + "-Batch-%d").build());
+        workPool.execute(this::run);
+    }
+
+    public void close() {
+        synchronized (queueLock) {
+            closed = true;
+        }
+        workPool.shutdown();
+        try {
+            if (!workPool.awaitTermination(4L, TimeUnit.SECONDS)) {
+                workPool.shutdownNow();
+            }
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Anything left over never made it to a batch
+        PendingPost post;
+        while ((post = queue.poll()) != null) {
+            post.future.completeExceptionally(new StorageException(false, "Storage was closed before the post could be written."));
+        }
+    }
+
+    /**
+     * Queues the post for the next batch and waits for it to be written
+     * @param post The post to write. Its ID and date are filled in once written
+     * @throws StorageException if the batch could not be written
+     */
+    public void submit(PendingPost post) throws StorageException {
+        synchronized (queueLock) {
+            if (closed) {
+                throw new StorageException(false, "Storage is closed.");
+            }
+            queue.add(post);
+        }
+
+        try {
+            post.future.get(SUBMIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            // Only safe to try the next storage if it never made it into a batch. Otherwise it may still be written,
+            // and posting it again elsewhere would store it twice
+            if (queue.remove(post)) {
+                throw new StorageException(true, "Timed out waiting for post to be written.", ex);
+            }
+            throw new StorageException(false, "Timed out waiting for post to be written. It may still be written.", ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            if (queue.remove(post)) {
+                throw new StorageException(true, "Interrupted while waiting for post to be written.", ex);
+            }
+            throw new StorageException(false, "Interrupted while waiting for post to be written. It may still be written.", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof StorageException) {
+                throw (StorageException) ex.getCause();
+            }
+            throw new StorageException(false, "Could not write post.", ex.getCause());
+        }
+    }
+
+    public long getNumBatches() { return numBatches.get(); }
+
+    public long getNumPosts() { return numPosts.get(); }
+
+    public long getMaxBatchSize() { return maxBatchSize.get(); }
+
+    public double getAverageBatchSize() {
+        long batches = numBatches.get();
+        return batches == 0L ? 0.0d : (double) numPosts.get() / batches;
+    }
+
+    public double getAverageFlushMillis() {
+        long batches = numBatches.get();
+        return batches == 0L ? 0.0d : (double) TimeUnit.NANOSECONDS.toMicros(totalFlushNanos.get()) / batches / 1000.0d;
+    }
+
+    private void run() {
+        List<PendingPost> batch = new ArrayList<>(maxSize);
+        while (!closed) {
+            try {
+                PendingPost first = queue.poll(1L, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingPost next = remaining > 0L ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+                closed = true;
+            }
+
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<PendingPost> batch) {
+        long start = System.nanoTime();
+        try {
+            storage.postBatch(batch);
+        } catch (SQLException ex) {
+            StorageException storageEx = new StorageException(storage.isAutomaticallyRecoverable(ex), ex);
+            for (PendingPost post : batch) {
+                post.future.completeExceptionally(storageEx);
+            }
+            return;
+        } catch (StorageException | RuntimeException ex) {
+            for (PendingPost post : batch) {
+                post.future.completeExceptionally(ex);
+            }
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        numBatches.getAndIncrement();
+        numPosts.getAndAdd(batch.size());
+        totalFlushNanos.getAndAdd(elapsed);
+        maxBatchSize.accumulateAndGet(batch.size(), Math::max);
+
+        if (ConfigUtil.getDebugOrFalse()) {
+            logger.info("Wrote batch of " + batch.size() + " post(s) to " + storage.getClass().getSimpleName() + " in " + TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms (avg batch " + String.format("%.2f", getAverageBatchSize()) + ", avg flush " + String.format("%.2f", getAverageFlushMillis()) + "ms)");
+        }
+
+        for (PendingPost post : batch) {
+            post.future.complete(null);
+        }
+    }
+
+    public static class PendingPost {
+        private final long longPlayerID;
+        private final byte level;
+        private final String message;
+
+        private volatile long id = -1L;
+        private volatile long date = -1L;
+
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        public PendingPost(long longPlayerID, byte level, String message) {
+            this.longPlayerID = longPlayerID;
+            this.level = level;
+            this.message = message;
+        }
+
+        public long getLongPlayerID() { return longPlayerID; }
+
+        public byte getLevel() { return level; }
+
+        public String getMessage() { return message; }
+
+        public long getID() { return id; }
+
+        public void setID(long id) { this.id = id; }
+
+        public long getDate() { return date; }
+
+        public void setDate(long date) { this.date = date; }
+    }
+}
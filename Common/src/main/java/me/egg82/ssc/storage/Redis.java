@@ -1,13 +1,18 @@
 package me.egg82.ssc.storage;
 
+import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import me.egg82.ssc.core.*;
 import me.egg82.ssc.services.StorageHandler;
+import me.egg82.ssc.utils.ConfigUtil;
 import me.egg82.ssc.utils.ValidationUtil;
 import ninja.egg82.analytics.utils.JSONUtil;
 import org.json.simple.JSONObject;
@@ -20,14 +25,19 @@ import redis.clients.jedis.exceptions.JedisException;
 public class Redis implements Storage {
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
-    private final Object levelCacheLock = new Object();
-    private volatile long lastLevelCacheTime = 0L;
-    private final Set<LevelResult> tmpLevelCache = new LinkedHashSet<>();
+    private static final int QUEUE_CHUNK_SIZE = 250;
+    private static final long BACKFILL_INTERVAL_MILLIS = 60L * 1000L;
+    // Missing posts this close to the newest ID may just not be written yet, so the backfill comes back for them
+    private static final long BACKFILL_RECHECK_IDS = 1000L;
 
     private final LoadingCache<Byte, String> levelCache = Caffeine.newBuilder().expireAfterAccess(10L, TimeUnit.MINUTES).expireAfterWrite(30L, TimeUnit.SECONDS).build(this::getLevelExpensive);
     private final LoadingCache<UUID, Long> longPlayerIDCache = Caffeine.newBuilder().build(this::getLongPlayerIDExpensive);
+    // The last name written for each player, so a post only touches its player's key when a name changes
+    private final Cache<Long, String> playerNameCache = Caffeine.newBuilder().expireAfterAccess(1L, TimeUnit.HOURS).build();
 
     private JedisPool pool;
+    private final ScheduledExecutorService backfillPool = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("SimpleStaffChat-Redis-Backfill-%d").build());
+    private boolean legacyPlayerHistory = true;
 
     private String serverName;
     private String serverID;
@@ -43,6 +53,14 @@ public class Redis implements Storage {
 
     public void close() {
         closed = true;
+        backfillPool.shutdown();
+        try {
+            if (!backfillPool.awaitTermination(4L, TimeUnit.SECONDS)) {
+                backfillPool.shutdownNow();
+            }
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
         pool.close();
     }
 
@@ -96,6 +114,15 @@ public class Redis implements Storage {
             return this;
         }
 
+        /**
+         * Whether or not to keep writing player history as the lists older versions read
+         * Meant to be turned off once every server sharing the storage is on this version
+         */
+        public Redis.Builder legacyPlayerHistory(boolean value) {
+            result.legacyPlayerHistory = value;
+            return this;
+        }
+
         public Redis.Builder life(long lifetime, int timeout) {
             config.setMinEvictableIdleTimeMillis(lifetime);
             config.setMaxWaitMillis(timeout);
@@ -112,6 +139,11 @@ public class Redis implements Storage {
             result.setServerName(result.serverName);
             result.longServerID = getLongServerID();
             result.lastMessageID = new AtomicLong(getLastMessageID());
+            result.backfillPool.execute(result::backfillIndexes);
+            if (result.legacyPlayerHistory) {
+                // Servers still on an older version post without indexing, so keep catching up on them
+                result.backfillPool.scheduleWithFixedDelay(result::backfillIndexes, BACKFILL_INTERVAL_MILLIS, BACKFILL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            }
             return result;
         }
 
@@ -203,16 +235,7 @@ public class Redis implements Storage {
         }
     }
 
-    public ImmutableList<LevelResult> getLevels() throws StorageException {
-        if (lastLevelCacheTime <= System.currentTimeMillis() - 300000L) { // 5 mins
-            synchronized (levelCacheLock) {
-                tmpLevelCache.clear();
-                tmpLevelCache.addAll(fetchLevelsExpensive());
-                lastLevelCacheTime = System.currentTimeMillis();
-            }
-        }
-        return ImmutableList.copyOf(tmpLevelCache);
-    }
+    public ImmutableList<LevelResult> getLevels() throws StorageException { return ImmutableList.copyOf(fetchLevelsExpensive()); }
 
     private List<LevelResult> fetchLevelsExpensive() throws StorageException {
         List<LevelResult> retVal = new ArrayList<>();
@@ -248,64 +271,338 @@ public class Redis implements Storage {
     public Set<ChatResult> getQueue() throws StorageException {
         Set<ChatResult> retVal = new LinkedHashSet<>();
 
+        long max;
         try (Jedis redis = pool.getResource()) {
-            long max = Long.parseLong(redis.get(prefix + "posted_chat:idx"));
+            max = Long.parseLong(redis.get(prefix + "posted_chat:idx"));
             while (redis.exists(prefix + "posted_chat:" + (max + 1))) {
                 max = redis.incr(prefix + "posted_chat:idx");
             }
+        } catch (JedisException ex) {
+            throw new StorageException(isAutomaticallyRecoverable(ex), ex);
+        }
 
-            if (lastMessageID.get() >= max) {
-                lastMessageID.set(max);
-                return retVal;
-            }
+        if (lastMessageID.get() >= max) {
+            lastMessageID.set(max);
+            return retVal;
+        }
 
-            long next;
-            while ((next = lastMessageID.getAndIncrement()) < max) {
-                ChatResult r = null;
-                try {
-                    r = getResult(next, redis.get(prefix + "posted_chat:" + next), redis);
-                } catch (StorageException | JedisException | ParseException | ClassCastException ex) {
-                    logger.warn("Could not get post data for ID " + next + ".", ex);
-                }
-                if (r != null) {
-                    retVal.add(r);
+        // lastMessageID is the last post we've seen, so start just after it
+        for (long begin = lastMessageID.get() + 1L; begin <= max; begin += QUEUE_CHUNK_SIZE) {
+            long end = Math.min(begin + QUEUE_CHUNK_SIZE - 1L, max);
+            try {
+                retVal.addAll(getQueue(begin, end));
+            } catch (StorageException ex) {
+                if (retVal.isEmpty()) {
+                    throw ex;
                 }
+                // Hand back what was read, and the next call picks up from the failed chunk
+                logger.warn("Could not get posts " + begin + " to " + end + ", returning the " + retVal.size() + " read before it.", ex);
+                break;
             }
+            lastMessageID.set(end);
+        }
 
-            return retVal;
+        return retVal;
+    }
+
+    private List<ChatResult> getQueue(long begin, long end) throws StorageException {
+        String[] keys = new String[(int) (end - begin + 1L)];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = prefix + "posted_chat:" + (begin + i);
+        }
+
+        List<String> bodies;
+        try (Jedis redis = pool.getResource()) {
+            bodies = redis.mget(keys);
         } catch (JedisException ex) {
             throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
+
+        List<RawPost> posts = new ArrayList<>(bodies.size());
+        for (int i = 0; i < bodies.size(); i++) {
+            long id = begin + i;
+            String json = bodies.get(i);
+            if (json == null) {
+                continue;
+            }
+            try {
+                RawPost post = parsePost(id, json);
+                if (post.longServerID != longServerID) {
+                    posts.add(post);
+                }
+            } catch (ParseException | ClassCastException | NullPointerException ex) {
+                logger.warn("Could not get post data for ID " + id + ".", ex);
+            }
+        }
+        return resolve(posts);
     }
 
     public Set<ChatResult> getByPlayer(UUID playerID, int days) throws StorageException {
         Set<ChatResult> retVal = new LinkedHashSet<>();
 
+        long longPlayerID = longPlayerIDCache.get(playerID);
+        List<String> ids;
         try (Jedis redis = pool.getResource()) {
-            long longPlayerID = longPlayerIDCache.get(playerID);
-            long len = redis.llen(prefix + "posted_chat:player:" + longPlayerID);
+            long min = getTime(redis.time()) - (days * 86400000L);
+            ids = new ArrayList<>(redis.zrangeByScore(prefix + "posted_chat:player_idx:" + longPlayerID, String.valueOf(min), "+inf"));
+        } catch (JedisException ex) {
+            throw new StorageException(isAutomaticallyRecoverable(ex), ex);
+        }
+
+        for (int begin = 0; begin < ids.size(); begin += QUEUE_CHUNK_SIZE) {
+            List<String> chunk = ids.subList(begin, Math.min(begin + QUEUE_CHUNK_SIZE, ids.size()));
 
-            for (long i = 0L; i < len; i++) {
-                ChatResult r = null;
+            String[] keys = new String[chunk.size()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = prefix + "posted_chat:" + chunk.get(i);
+            }
+
+            List<String> bodies;
+            try (Jedis redis = pool.getResource()) {
+                bodies = redis.mget(keys);
+            } catch (JedisException ex) {
+                throw new StorageException(isAutomaticallyRecoverable(ex), ex);
+            }
+
+            List<RawPost> posts = new ArrayList<>(bodies.size());
+            for (int i = 0; i < bodies.size(); i++) {
+                String json = bodies.get(i);
+                if (json == null) {
+                    continue;
+                }
                 try {
-                    r = getResultPlayer(longPlayerID, redis.lindex(prefix + "posted_chat:player:" + longPlayerID, i), redis, days);
-                } catch (StorageException | JedisException | ParseException | ClassCastException ex) {
-                    logger.warn("Could not get post data for player " + longPlayerID + " at index " + i + ".", ex);
+                    RawPost post = parsePost(Long.parseLong(chunk.get(i)), json);
+                    if (post.longServerID != longServerID) {
+                        posts.add(post);
+                    }
+                } catch (ParseException | ClassCastException | NullPointerException | NumberFormatException ex) {
+                    logger.warn("Could not get post data for player " + longPlayerID + " with ID " + chunk.get(i) + ".", ex);
                 }
-                if (r != null) {
-                    retVal.add(r);
+            }
+
+            retVal.addAll(resolve(posts));
+        }
+
+        return retVal;
+    }
+
+    public List<ChatResult> getHistoryByPlayer(UUID playerID, ChatCursor after, int limit) throws StorageException {
+        if (playerID == null) {
+            throw new IllegalArgumentException("playerID cannot be null.");
+        }
+        // Looked up directly so a player with no history isn't created along the way
+        Long longPlayerID = getLongID(prefix + "players:" + playerID.toString());
+        return longPlayerID == null ? new ArrayList<>() : getHistory(prefix + "posted_chat:player_idx:" + longPlayerID, after, limit);
+    }
+
+    public List<ChatResult> getHistoryByLevel(byte level, ChatCursor after, int limit) throws StorageException { return getHistory(prefix + "posted_chat:level:" + level, after, limit); }
+
+    public List<ChatResult> getHistoryByServer(UUID serverID, ChatCursor after, int limit) throws StorageException {
+        if (serverID == null) {
+            throw new IllegalArgumentException("serverID cannot be null.");
+        }
+        Long longServerID = getLongID(prefix + "servers:" + serverID.toString());
+        return longServerID == null ? new ArrayList<>() : getHistory(prefix + "posted_chat:server:" + longServerID, after, limit);
+    }
+
+    private List<ChatResult> getHistory(String indexKey, ChatCursor after, int limit) throws StorageException {
+        if (after == null) {
+            throw new IllegalArgumentException("after cannot be null.");
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be greater than zero.");
+        }
+
+        // Post ID -> date
+        Map<Long, Long> candidates = new HashMap<>();
+        try (Jedis redis = pool.getResource()) {
+            String min = String.valueOf(after.getDate());
+            int found = 0;
+            while (found < limit) {
+                Set<Tuple> tuples = redis.zrangeByScoreWithScores(indexKey, min, "+inf", 0, limit);
+                if (tuples.isEmpty()) {
+                    break;
+                }
+
+                double last = 0.0d;
+                for (Tuple tuple : tuples) {
+                    last = tuple.getScore();
+                    found += addCandidate(candidates, tuple, after);
+                }
+                // Redis orders equal dates by member string rather than by ID, so pull in the rest of the last date to be able to order them properly
+                for (Tuple tuple : redis.zrangeByScoreWithScores(indexKey, last, last)) {
+                    found += addCandidate(candidates, tuple, after);
                 }
+
+                if (tuples.size() < limit) {
+                    break;
+                }
+                min = "(" + (long) last;
             }
+        } catch (JedisException ex) {
+            throw new StorageException(isAutomaticallyRecoverable(ex), ex);
+        }
 
-            return retVal;
+        List<Long> ids = new ArrayList<>(candidates.keySet());
+        ids.sort((a, b) -> ChatCursor.compare(candidates.get(a), a, candidates.get(b), b));
+        if (ids.size() > limit) {
+            ids = ids.subList(0, limit);
+        }
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        String[] keys = new String[ids.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = prefix + "posted_chat:" + ids.get(i);
+        }
+
+        List<String> bodies;
+        try (Jedis redis = pool.getResource()) {
+            bodies = redis.mget(keys);
+        } catch (JedisException ex) {
+            throw new StorageException(isAutomaticallyRecoverable(ex), ex);
+        }
+
+        List<RawPost> posts = new ArrayList<>(bodies.size());
+        for (int i = 0; i < bodies.size(); i++) {
+            String json = bodies.get(i);
+            if (json == null) {
+                continue;
+            }
+            try {
+                posts.add(parsePost(ids.get(i), json));
+            } catch (ParseException | ClassCastException | NullPointerException ex) {
+                logger.warn("Could not get post data for ID " + ids.get(i) + ".", ex);
+            }
+        }
+        return resolve(posts);
+    }
+
+    private int addCandidate(Map<Long, Long> candidates, Tuple tuple, ChatCursor after) {
+        long id;
+        try {
+            id = Long.parseLong(tuple.getElement());
+        } catch (NumberFormatException ex) {
+            logger.warn("Could not parse post ID \"" + tuple.getElement() + "\".", ex);
+            return 0;
+        }
+        long date = (long) tuple.getScore();
+        if (!after.includes(date, id)) {
+            return 0;
+        }
+        return candidates.put(id, date) == null ? 1 : 0;
+    }
+
+    private Long getLongID(String key) throws StorageException {
+        String json;
+        try (Jedis redis = pool.getResource()) {
+            json = redis.get(key);
         } catch (JedisException ex) {
             throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
+        if (json == null) {
+            return null;
+        }
+        try {
+            return ((Number) JSONUtil.parseObject(json).get("longID")).longValue();
+        } catch (ParseException | ClassCastException | NullPointerException ex) {
+            logger.warn("Could not parse data for " + key + ".", ex);
+            return null;
+        }
+    }
+
+    private void index(Pipeline pipeline, long postID, long longServerID, long longPlayerID, byte level, String message, long date) {
+        // Each post is indexed by date for history by player, level and server
+        String id = String.valueOf(postID);
+        pipeline.zadd(prefix + "posted_chat:player_idx:" + longPlayerID, date, id);
+        pipeline.zadd(prefix + "posted_chat:level:" + level, date, id);
+        pipeline.zadd(prefix + "posted_chat:server:" + longServerID, date, id);
+        if (legacyPlayerHistory) {
+            pipeline.rpush(prefix + "posted_chat:player:" + longPlayerID, getLegacyJSON(postID, longServerID, level, message, date));
+        }
+    }
+
+    /**
+     * A post as older versions keep it in their per-player list
+     * Built the same way every time, so the same post always gives the same string to remove it by
+     */
+    private String getLegacyJSON(long postID, long longServerID, byte level, String message, long date) {
+        JSONObject obj = new JSONObject();
+        obj.put("serverID", longServerID);
+        obj.put("level", level);
+        obj.put("message", message);
+        obj.put("date", date);
+        obj.put("id", postID);
+        return obj.toJSONString();
+    }
+
+    /**
+     * Indexes posts from where the last run left off
+     *
+     * This covers history written before there were indexes, without holding up startup to build them,
+     * and older versions only add their posts to the per-player lists, so posts they make are picked up here too
+     */
+    private void backfillIndexes() {
+        try (Jedis redis = pool.getResource()) {
+            String idx = redis.get(prefix + "posted_chat:idx");
+            if (idx == null) {
+                return;
+            }
+            long max = Long.parseLong(idx);
+            String checkpoint = redis.get(prefix + "posted_chat:indexed");
+            String floorValue = redis.get(prefix + "posted_chat:floor");
+            long begin = Math.max(checkpoint == null ? 1L : Long.parseLong(checkpoint) + 1L, floorValue == null ? 1L : Long.parseLong(floorValue));
+
+            long indexed = 0L;
+            // Older versions take an ID before writing the post, so the first missing ID near the head holds the checkpoint back
+            long firstMissing = -1L;
+            for (; begin <= max && !closed; begin += QUEUE_CHUNK_SIZE) {
+                long end = Math.min(begin + QUEUE_CHUNK_SIZE - 1L, max);
+
+                String[] keys = new String[(int) (end - begin + 1L)];
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i] = prefix + "posted_chat:" + (begin + i);
+                }
+
+                List<String> bodies = redis.mget(keys);
+                Pipeline pipeline = redis.pipelined();
+                for (int i = 0; i < bodies.size(); i++) {
+                    long id = begin + i;
+                    String json = bodies.get(i);
+                    if (json == null) {
+                        if (firstMissing == -1L && id > max - BACKFILL_RECHECK_IDS) {
+                            firstMissing = id;
+                        }
+                        continue;
+                    }
+                    try {
+                        RawPost post = parsePost(id, json);
+                        pipeline.zadd(prefix + "posted_chat:player_idx:" + post.longPlayerID, post.date, String.valueOf(id));
+                        pipeline.zadd(prefix + "posted_chat:level:" + post.level, post.date, String.valueOf(id));
+                        pipeline.zadd(prefix + "posted_chat:server:" + post.longServerID, post.date, String.valueOf(id));
+                        indexed++;
+                    } catch (ParseException | ClassCastException | NullPointerException ex) {
+                        logger.warn("Could not index post ID " + id + ".", ex);
+                    }
+                }
+                // Checkpointed as it goes, so a restart picks up where this left off
+                pipeline.set(prefix + "posted_chat:indexed", String.valueOf(firstMissing == -1L ? end : firstMissing - 1L));
+                pipeline.sync();
+            }
+
+            if (indexed > 0L && ConfigUtil.getDebugOrFalse()) {
+                logger.info("Indexed " + indexed + " post(s) by player, level and server.");
+            }
+        } catch (JedisException | NumberFormatException ex) {
+            logger.error("Could not index chat history.", ex);
+        }
     }
 
-    public PostChatResult post(UUID playerID, byte level, String message) throws StorageException {
+    public PostChatResult post(UUID playerID, String playerName, byte level, String message) throws StorageException {
         try (Jedis redis = pool.getResource()) {
             long longPlayerID = longPlayerIDCache.get(playerID);
+            setPlayerName(redis, longPlayerID, playerName);
 
             JSONObject obj = new JSONObject();
             obj.put("serverID", longServerID);
@@ -323,9 +620,9 @@ public class Redis implements Storage {
                 obj.put("date", date);
             } while (redis.setnx(prefix + "posted_chat:" + id, obj.toJSONString()) == 0L);
 
-            obj.remove("playerID");
-            obj.put("id", id);
-            redis.rpush(prefix + "posted_chat:player:" + longPlayerID, obj.toJSONString());
+            Pipeline pipeline = redis.pipelined();
+            index(pipeline, id, longServerID, longPlayerID, level, message, date);
+            pipeline.sync();
 
             return new PostChatResult(
                     id,
@@ -334,6 +631,7 @@ public class Redis implements Storage {
                     serverName,
                     longPlayerID,
                     playerID,
+                    playerName,
                     level,
                     levelCache.get(level),
                     message,
@@ -350,9 +648,7 @@ public class Redis implements Storage {
             obj.put("name", name);
             redis.set(prefix + "levels:" + level, obj.toJSONString());
             levelCache.put(level, name);
-            LevelResult l = new LevelResult(level, name);
-            tmpLevelCache.remove(l);
-            tmpLevelCache.add(l);
+            handler.levelUpdateCallback(level, name, this);
         } catch (JedisException ex) {
             throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
@@ -390,13 +686,17 @@ public class Redis implements Storage {
                     prefix + "players:" + playerID.toString(), obj2.toJSONString()
             );
             longPlayerIDCache.put(playerID, longPlayerID);
+            // The key was rewritten without a name
+            playerNameCache.invalidate(longPlayerID);
         } catch (JedisException ex) {
             throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
     }
 
-    public void postRaw(long postID, long longServerID, long longPlayerID, byte level, String message, long date) throws StorageException {
+    public void postRaw(long postID, long longServerID, long longPlayerID, String playerName, byte level, String message, long date) throws StorageException {
         try (Jedis redis = pool.getResource()) {
+            setPlayerName(redis, longPlayerID, playerName);
+
             JSONObject obj = new JSONObject();
             obj.put("serverID", longServerID);
             obj.put("playerID", longPlayerID);
@@ -405,10 +705,9 @@ public class Redis implements Storage {
             obj.put("date", date);
 
             redis.set(prefix + "posted_chat:" + postID, obj.toJSONString());
-
-            obj.remove("playerID");
-            obj.put("id", postID);
-            redis.rpush(prefix + "posted_chat:player:" + longPlayerID, obj.toJSONString());
+            Pipeline pipeline = redis.pipelined();
+            index(pipeline, postID, longServerID, longPlayerID, level, message, date);
+            pipeline.sync();
         } catch (JedisException ex) {
             throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
@@ -561,33 +860,44 @@ public class Redis implements Storage {
         }
     }
 
-    public Set<PlayerResult> dumpPlayers(long begin, int size) throws StorageException {
+    public Set<PlayerResult> dumpPlayers(long afterID, int size) throws StorageException {
         Set<PlayerResult> retVal = new LinkedHashSet<>();
 
         try (Jedis redis = pool.getResource()) {
-            for (long i = begin; i < begin + size; i++) {
-                PlayerResult r = null;
-                try {
-                    String json = redis.get(prefix + "players:" + i);
+            String idx = redis.get(prefix + "players:idx");
+            long max = idx == null ? 0L : Long.parseLong(idx);
+            // IDs are sequential, so they're fetched a window at a time (skipping any gaps) until the page is full
+            for (long begin = afterID + 1L; begin <= max && retVal.size() < size; begin += size) {
+                long end = Math.min(begin + size - 1L, max);
+                String[] keys = new String[(int) (end - begin + 1L)];
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i] = prefix + "players:" + (begin + i);
+                }
+                List<String> values = redis.mget(keys);
+
+                for (int i = 0; i < keys.length && retVal.size() < size; i++) {
+                    long id = begin + i;
+                    String json = values.get(i);
                     if (json == null) {
                         continue;
                     }
-                    JSONObject obj = JSONUtil.parseObject(json);
-                    String pid = (String) obj.get("id");
-                    if (!ValidationUtil.isValidUuid(pid)) {
-                        logger.warn("Player ID " + i + " has an invalid UUID \"" + pid + "\".");
-                        continue;
-                    }
 
-                    r = new PlayerResult(
-                            i,
-                            UUID.fromString(pid)
-                    );
-                } catch (ParseException | ClassCastException ex) {
-                    logger.warn("Could not get player data for ID " + i + ".", ex);
-                }
-                if (r != null) {
-                    retVal.add(r);
+                    try {
+                        JSONObject obj = JSONUtil.parseObject(json);
+                        String pid = (String) obj.get("id");
+                        if (!ValidationUtil.isValidUuid(pid)) {
+                            logger.warn("Player ID " + id + " has an invalid UUID \"" + pid + "\".");
+                            continue;
+                        }
+
+                        retVal.add(new PlayerResult(
+                                id,
+                                UUID.fromString(pid),
+                                (String) obj.get("name")
+                        ));
+                    } catch (ParseException | ClassCastException ex) {
+                        logger.warn("Could not get player data for ID " + id + ".", ex);
+                    }
                 }
             }
 
@@ -602,54 +912,74 @@ public class Redis implements Storage {
             if (truncate) {
                 deleteNamespace(redis, prefix + "players:");
                 longPlayerIDCache.invalidateAll();
+                playerNameCache.invalidateAll();
             }
-            long max = 0;
+            String idx = redis.get(prefix + "players:idx");
+            long max = idx == null ? 0L : Long.parseLong(idx);
+            Pipeline pipeline = redis.pipelined();
             for (PlayerResult player : players) {
                 max = Math.max(max, player.getLongPlayerID());
 
                 JSONObject obj = new JSONObject();
                 obj.put("id", player.getPlayerID().toString());
+                if (player.getName() != null) {
+                    obj.put("name", player.getName());
+                }
 
                 JSONObject obj2 = new JSONObject();
                 obj2.put("longID", player.getLongPlayerID());
 
-                redis.mset(
+                pipeline.mset(
                         prefix + "players:" + player.getLongPlayerID(), obj.toJSONString(),
                         prefix + "players:" + player.getPlayerID().toString(), obj2.toJSONString()
                 );
+            }
+            pipeline.set(prefix + "players:idx", String.valueOf(max));
+            pipeline.sync();
+            for (PlayerResult player : players) {
                 longPlayerIDCache.put(player.getPlayerID(), player.getLongPlayerID());
             }
-            redis.set(prefix + "players:idx", String.valueOf(max));
         } catch (JedisException ex) {
             throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
     }
 
-    public Set<RawChatResult> dumpChat(long begin, int size) throws StorageException {
+    public Set<RawChatResult> dumpChat(long afterID, int size) throws StorageException {
         Set<RawChatResult> retVal = new LinkedHashSet<>();
 
         try (Jedis redis = pool.getResource()) {
-            for (long i = begin; i < begin + size; i++) {
-                RawChatResult r = null;
-                try {
-                    String json = redis.get(prefix + "posted_chat:" + i);
+            String idx = redis.get(prefix + "posted_chat:idx");
+            long max = idx == null ? 0L : Long.parseLong(idx);
+            for (long begin = afterID + 1L; begin <= max && retVal.size() < size; begin += size) {
+                long end = Math.min(begin + size - 1L, max);
+                String[] keys = new String[(int) (end - begin + 1L)];
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i] = prefix + "posted_chat:" + (begin + i);
+                }
+                List<String> values = redis.mget(keys);
+
+                for (int i = 0; i < keys.length && retVal.size() < size; i++) {
+                    long id = begin + i;
+                    String json = values.get(i);
                     if (json == null) {
                         continue;
                     }
-                    JSONObject obj = JSONUtil.parseObject(json);
-                    r = new RawChatResult(
-                            i,
-                            ((Number) obj.get("serverID")).longValue(),
-                            ((Number) obj.get("playerID")).longValue(),
-                            ((Number) obj.get("level")).byteValue(),
-                            (String) obj.get("message"),
-                            ((Number) obj.get("date")).longValue()
-                    );
-                } catch (ParseException | ClassCastException ex) {
-                    logger.warn("Could not get chat data for ID " + i + ".", ex);
-                }
-                if (r != null) {
-                    retVal.add(r);
+
+                    try {
+                        JSONObject obj = JSONUtil.parseObject(json);
+                        // Names are kept with the players rather than the posts
+                        retVal.add(new RawChatResult(
+                                id,
+                                ((Number) obj.get("serverID")).longValue(),
+                                ((Number) obj.get("playerID")).longValue(),
+                                null,
+                                ((Number) obj.get("level")).byteValue(),
+                                (String) obj.get("message"),
+                                ((Number) obj.get("date")).longValue()
+                        ));
+                    } catch (ParseException | ClassCastException ex) {
+                        logger.warn("Could not get chat data for ID " + id + ".", ex);
+                    }
                 }
             }
 
@@ -664,7 +994,10 @@ public class Redis implements Storage {
             if (truncate) {
                 deleteNamespace(redis, prefix + "posted_chat:");
             }
-            long max = 0;
+            // The whole page goes in one round trip
+            String idx = redis.get(prefix + "posted_chat:idx");
+            long max = idx == null ? 0L : Long.parseLong(idx);
+            Pipeline pipeline = redis.pipelined();
             for (RawChatResult c : chat) {
                 max = Math.max(max, c.getID());
                 JSONObject obj = new JSONObject();
@@ -674,18 +1007,157 @@ public class Redis implements Storage {
                 obj.put("message", c.getMessage());
                 obj.put("date", c.getDate());
 
-                redis.set(prefix + "posted_chat:" + c.getID(), obj.toJSONString());
+                String postID = String.valueOf(c.getID());
+                pipeline.set(prefix + "posted_chat:" + postID, obj.toJSONString());
+                index(pipeline, c.getID(), c.getLongServerID(), c.getLongPlayerID(), c.getLevel(), c.getMessage(), c.getDate());
+            }
+            pipeline.set(prefix + "posted_chat:idx", String.valueOf(max));
+            pipeline.sync();
+        } catch (JedisException ex) {
+            throw new StorageException(isAutomaticallyRecoverable(ex), ex);
+        }
+    }
+
+    public long getPlayerCount() throws StorageException {
+        try (Jedis redis = pool.getResource()) {
+            // Counting keys means scanning the whole keyspace, so the ID counter stands in for it
+            String idx = redis.get(prefix + "players:idx");
+            return idx == null ? 0L : Long.parseLong(idx);
+        } catch (JedisException ex) {
+            throw new StorageException(isAutomaticallyRecoverable(ex), ex);
+        }
+    }
+
+    public long getChatCount() throws StorageException {
+        try (Jedis redis = pool.getResource()) {
+            // Everything below the floor was deleted by retention
+            String floorValue = redis.get(prefix + "posted_chat:floor");
+            long floor = floorValue == null ? 1L : Long.parseLong(floorValue);
+            String idx = redis.get(prefix + "posted_chat:idx");
+            return idx == null ? 0L : Math.max(0L, Long.parseLong(idx) - floor + 1L);
+        } catch (JedisException ex) {
+            throw new StorageException(isAutomaticallyRecoverable(ex), ex);
+        }
+    }
 
-                obj.remove("playerID");
-                obj.put("id", c.getID());
-                redis.rpush(prefix + "posted_chat:player:" + c.getLongPlayerID(), obj.toJSONString());
+    public int deleteChatBefore(long date, int limit) throws StorageException {
+        try (Jedis redis = pool.getResource()) {
+            // Every post is in exactly one level index, so between them they cover everything by date
+            // The indexes themselves are scanned for, since posts can be on levels that levels:idx doesn't reach
+            int deleted = 0;
+            for (String key : getKeys(redis, prefix + "posted_chat:level:*")) {
+                if (deleted >= limit) {
+                    break;
+                }
+                List<String> ids = new ArrayList<>(redis.zrangeByScore(key, "-inf", "(" + date, 0, limit - deleted));
+                deleted += deletePosts(redis, ids, key);
             }
-            redis.set(prefix + "posted_chat:idx", String.valueOf(max));
+            return deleted;
+        } catch (JedisException ex) {
+            throw new StorageException(isAutomaticallyRecoverable(ex), ex);
+        }
+    }
+
+    public int deleteChatBelow(long postID, int limit) throws StorageException {
+        try (Jedis redis = pool.getResource()) {
+            // Post IDs only go up, so everything below the floor is already gone
+            String floorValue = redis.get(prefix + "posted_chat:floor");
+            long floor = floorValue == null ? 1L : Long.parseLong(floorValue);
+
+            int deleted = 0;
+            // Keep walking over gaps (from posts that aged out) until something is deleted, so a run doesn't stop on them
+            while (deleted == 0 && floor < postID) {
+                long end = Math.min(floor + limit - 1L, postID - 1L);
+                List<String> ids = new ArrayList<>((int) (end - floor + 1L));
+                for (long id = floor; id <= end; id++) {
+                    ids.add(String.valueOf(id));
+                }
+                deleted = deletePosts(redis, ids, null);
+                floor = end + 1L;
+                redis.set(prefix + "posted_chat:floor", String.valueOf(floor));
+            }
+            return deleted;
+        } catch (JedisException ex) {
+            throw new StorageException(isAutomaticallyRecoverable(ex), ex);
+        }
+    }
+
+    public long getChatIDFromNewest(long offset) throws StorageException {
+        try (Jedis redis = pool.getResource()) {
+            // Post IDs are handed out in order with no reuse, so counting back from the newest ID is close enough
+            long id = Long.parseLong(redis.get(prefix + "posted_chat:idx")) - offset;
+            return id > 0L ? id : -1L;
         } catch (JedisException ex) {
             throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
     }
 
+    // Redis frees memory as keys are deleted
+    public void compact() { }
+
+    /**
+     * Deletes the posts along with their entries in every history index
+     * @param indexKey The index the IDs were read from, if any. Cleaned up even if a post is already gone
+     * @return The number of posts deleted
+     */
+    private int deletePosts(Jedis redis, List<String> ids, String indexKey) throws JedisException {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        String[] keys = new String[ids.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = prefix + "posted_chat:" + ids.get(i);
+        }
+        List<String> bodies = redis.mget(keys);
+
+        int deleted = 0;
+        Pipeline pipeline = redis.pipelined();
+        for (int i = 0; i < bodies.size(); i++) {
+            String id = ids.get(i);
+            String json = bodies.get(i);
+            if (indexKey != null) {
+                pipeline.zrem(indexKey, id);
+            }
+            if (json == null) {
+                continue;
+            }
+
+            try {
+                RawPost post = parsePost(Long.parseLong(id), json);
+                pipeline.zrem(prefix + "posted_chat:player_idx:" + post.longPlayerID, id);
+                if (legacyPlayerHistory) {
+                    pipeline.lrem(prefix + "posted_chat:player:" + post.longPlayerID, 1L, getLegacyJSON(post.id, post.longServerID, post.level, post.message, post.date));
+                }
+                pipeline.zrem(prefix + "posted_chat:level:" + post.level, id);
+                pipeline.zrem(prefix + "posted_chat:server:" + post.longServerID, id);
+            } catch (ParseException | ClassCastException | NullPointerException | NumberFormatException ex) {
+                logger.warn("Could not get post data for ID " + id + ". Its history entries will be left behind.", ex);
+            }
+            pipeline.del(keys[i]);
+            deleted++;
+        }
+        pipeline.sync();
+        return deleted;
+    }
+
+    private Set<String> getKeys(Jedis redis, String pattern) throws JedisException {
+        Set<String> retVal = new LinkedHashSet<>();
+
+        long current = 0;
+        ScanParams params = new ScanParams();
+        params.match(pattern);
+        params.count(500);
+
+        ScanResult<String> result;
+        do {
+            result = redis.scan(String.valueOf(current), params);
+            retVal.addAll(result.getResult());
+            current = Long.parseLong(result.getCursor());
+        } while (!result.isCompleteIteration());
+        return retVal;
+    }
+
     private void deleteNamespace(Jedis redis, String namespace) throws JedisException {
         long current = 0;
         ScanParams params = new ScanParams();
@@ -764,6 +1236,29 @@ public class Redis implements Storage {
         }
     }
 
+    private void setPlayerName(Jedis redis, long longPlayerID, String name) throws JedisException {
+        if (name == null || name.equals(playerNameCache.getIfPresent(longPlayerID))) {
+            return;
+        }
+
+        String json = redis.get(prefix + "players:" + longPlayerID);
+        if (json == null) {
+            return;
+        }
+        JSONObject obj;
+        try {
+            obj = JSONUtil.parseObject(json);
+        } catch (ParseException | ClassCastException ex) {
+            logger.warn("Could not parse player data for ID " + longPlayerID + ".", ex);
+            return;
+        }
+        if (!name.equals(obj.get("name"))) {
+            obj.put("name", name);
+            redis.set(prefix + "players:" + longPlayerID, obj.toJSONString());
+        }
+        playerNameCache.put(longPlayerID, name);
+    }
+
     private boolean isAutomaticallyRecoverable(JedisException ex) {
         if (
                 ex.getMessage().startsWith("Failed connecting")
@@ -774,122 +1269,149 @@ public class Redis implements Storage {
         return false;
     }
 
-    private ChatResult getResult(long id, String json, Jedis redis) throws StorageException, JedisException, ParseException, ClassCastException {
-        if (json == null) {
-            return null;
+    /**
+     * Turns raw posts into chat results, looking up each distinct server, player, and level only once
+     */
+    private List<ChatResult> resolve(List<RawPost> posts) throws StorageException {
+        if (posts.isEmpty()) {
+            return Collections.emptyList();
         }
 
-        JSONObject obj = JSONUtil.parseObject(json);
-        long longServerID = ((Number) obj.get("serverID")).longValue();
-        long longPlayerID = ((Number) obj.get("playerID")).longValue();
-        byte level = ((Number) obj.get("level")).byteValue();
-        String message = (String) obj.get("message");
-        long date = ((Number) obj.get("date")).longValue();
-
-        if (longServerID == this.longServerID) {
-            return null;
+        Set<Long> serverIDs = new LinkedHashSet<>();
+        Set<Long> playerIDs = new LinkedHashSet<>();
+        Set<Byte> levels = new LinkedHashSet<>();
+        for (RawPost post : posts) {
+            serverIDs.add(post.longServerID);
+            playerIDs.add(post.longPlayerID);
+            levels.add(post.level);
         }
 
-        String serverJSON = redis.get(prefix + "servers:" + longServerID);
-        if (serverJSON == null) {
-            throw new StorageException(false, "Could not get server data for ID " + longServerID + ".");
+        List<String> keys = new ArrayList<>(serverIDs.size() + playerIDs.size() + levels.size());
+        for (long id : serverIDs) {
+            keys.add(prefix + "servers:" + id);
         }
-        JSONObject serverObj = JSONUtil.parseObject(serverJSON);
-        String sid = (String) serverObj.get("id");
-        if (!ValidationUtil.isValidUuid(sid)) {
-            redis.del(prefix + "servers:" + longServerID);
-            throw new StorageException(false, "Server ID " + longServerID + " has an invalid UUID \"" + sid + "\".");
+        for (long id : playerIDs) {
+            keys.add(prefix + "players:" + id);
         }
-        String serverName = (String) serverObj.get("name");
-
-        String playerJSON = redis.get(prefix + "players:" + longPlayerID);
-        if (playerJSON == null) {
-            throw new StorageException(false, "Could not get player data for ID " + longPlayerID + ".");
-        }
-        JSONObject playerObj = JSONUtil.parseObject(playerJSON);
-        String pid = (String) playerObj.get("id");
-        if (!ValidationUtil.isValidUuid(pid)) {
-            redis.del(prefix + "players:" + longPlayerID);
-            throw new StorageException(false, "Player ID " + longServerID + " has an invalid UUID \"" + pid + "\".");
-        }
-
-        String levelJSON = redis.get(prefix + "levels:" + level);
-        if (levelJSON == null) {
-            throw new StorageException(false, "Could not get level data for ID " + level + ".");
+        for (byte level : levels) {
+            keys.add(prefix + "levels:" + level);
         }
-        JSONObject levelObj = JSONUtil.parseObject(levelJSON);
-        String levelName = (String) levelObj.get("name");
-
-        return new ChatResult(
-                id,
-                UUID.fromString(sid),
-                serverName,
-                UUID.fromString(pid),
-                level,
-                levelName,
-                message,
-                date
-        );
-    }
 
-    private ChatResult getResultPlayer(long longPlayerID, String json, Jedis redis, int days) throws StorageException, JedisException, ParseException, ClassCastException {
-        if (json == null) {
-            return null;
+        List<String> values;
+        try (Jedis redis = pool.getResource()) {
+            values = redis.mget(keys.toArray(new String[0]));
+        } catch (JedisException ex) {
+            throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
 
-        JSONObject obj = JSONUtil.parseObject(json);
-        long id = ((Number) obj.get("id")).longValue();
-        long longServerID = ((Number) obj.get("serverID")).longValue();
-        byte level = ((Number) obj.get("level")).byteValue();
-        String message = (String) obj.get("message");
-        long date = ((Number) obj.get("date")).longValue();
+        Map<Long, ServerResult> servers = new HashMap<>();
+        Map<Long, PlayerResult> players = new HashMap<>();
+        Map<Byte, String> levelNames = new HashMap<>();
 
-        if (longServerID == this.longServerID || date < getTime(redis.time()) - (days * 86400000L)) {
-            return null;
+        int index = 0;
+        for (long id : serverIDs) {
+            String json = values.get(index++);
+            if (json == null) {
+                logger.warn("Could not get server data for ID " + id + ".");
+                continue;
+            }
+            try {
+                JSONObject obj = JSONUtil.parseObject(json);
+                String sid = (String) obj.get("id");
+                if (!ValidationUtil.isValidUuid(sid)) {
+                    logger.warn("Server ID " + id + " has an invalid UUID \"" + sid + "\".");
+                    continue;
+                }
+                servers.put(id, new ServerResult(id, UUID.fromString(sid), (String) obj.get("name")));
+            } catch (ParseException | ClassCastException ex) {
+                logger.warn("Could not get server data for ID " + id + ".", ex);
+            }
         }
-
-        String serverJSON = redis.get(prefix + "servers:" + longServerID);
-        if (serverJSON == null) {
-            throw new StorageException(false, "Could not get server data for ID " + longServerID + ".");
+        for (long id : playerIDs) {
+            String json = values.get(index++);
+            if (json == null) {
+                logger.warn("Could not get player data for ID " + id + ".");
+                continue;
+            }
+            try {
+                JSONObject obj = JSONUtil.parseObject(json);
+                String pid = (String) obj.get("id");
+                if (!ValidationUtil.isValidUuid(pid)) {
+                    logger.warn("Player ID " + id + " has an invalid UUID \"" + pid + "\".");
+                    continue;
+                }
+                players.put(id, new PlayerResult(id, UUID.fromString(pid), (String) obj.get("name")));
+            } catch (ParseException | ClassCastException ex) {
+                logger.warn("Could not get player data for ID " + id + ".", ex);
+            }
         }
-        JSONObject serverObj = JSONUtil.parseObject(serverJSON);
-        String sid = (String) serverObj.get("id");
-        if (!ValidationUtil.isValidUuid(sid)) {
-            redis.del(prefix + "servers:" + longServerID);
-            throw new StorageException(false, "Server ID " + longServerID + " has an invalid UUID \"" + sid + "\".");
+        for (byte level : levels) {
+            String json = values.get(index++);
+            if (json == null) {
+                logger.warn("Could not get level data for ID " + level + ".");
+                continue;
+            }
+            try {
+                levelNames.put(level, (String) JSONUtil.parseObject(json).get("name"));
+            } catch (ParseException | ClassCastException ex) {
+                logger.warn("Could not get level data for ID " + level + ".", ex);
+            }
         }
-        String serverName = (String) serverObj.get("name");
 
-        String playerJSON = redis.get(prefix + "players:" + longPlayerID);
-        if (playerJSON == null) {
-            throw new StorageException(false, "Could not get player data for ID " + longPlayerID + ".");
-        }
-        JSONObject playerObj = JSONUtil.parseObject(playerJSON);
-        String pid = (String) playerObj.get("id");
-        if (!ValidationUtil.isValidUuid(pid)) {
-            redis.del(prefix + "players:" + longPlayerID);
-            throw new StorageException(false, "Player ID " + longPlayerID + " has an invalid UUID \"" + pid + "\".");
-        }
+        List<ChatResult> retVal = new ArrayList<>(posts.size());
+        for (RawPost post : posts) {
+            ServerResult server = servers.get(post.longServerID);
+            PlayerResult player = players.get(post.longPlayerID);
+            String levelName = levelNames.get(post.level);
+            if (server == null || player == null || levelName == null) {
+                continue;
+            }
 
-        String levelJSON = redis.get(prefix + "levels:" + level);
-        if (levelJSON == null) {
-            throw new StorageException(false, "Could not get level data for ID " + level + ".");
+            retVal.add(new ChatResult(
+                    post.id,
+                    server.getServerID(),
+                    server.getName(),
+                    player.getPlayerID(),
+                    player.getName(),
+                    post.level,
+                    levelName,
+                    post.message,
+                    post.date
+            ));
         }
-        JSONObject levelObj = JSONUtil.parseObject(levelJSON);
-        String levelName = (String) levelObj.get("name");
+        return retVal;
+    }
 
-        return new ChatResult(
+    private RawPost parsePost(long id, String json) throws ParseException, ClassCastException {
+        JSONObject obj = JSONUtil.parseObject(json);
+        return new RawPost(
                 id,
-                UUID.fromString(sid),
-                serverName,
-                UUID.fromString(pid),
-                level,
-                levelName,
-                message,
-                date
+                ((Number) obj.get("serverID")).longValue(),
+                ((Number) obj.get("playerID")).longValue(),
+                ((Number) obj.get("level")).byteValue(),
+                (String) obj.get("message"),
+                ((Number) obj.get("date")).longValue()
         );
     }
 
+    private static class RawPost {
+        private final long id;
+        private final long longServerID;
+        private final long longPlayerID;
+        private final byte level;
+        private final String message;
+        private final long date;
+
+        private RawPost(long id, long longServerID, long longPlayerID, byte level, String message, long date) {
+            this.id = id;
+            this.longServerID = longServerID;
+            this.longPlayerID = longPlayerID;
+            this.level = level;
+            this.message = message;
+            this.date = date;
+        }
+    }
+
     // Redis returns a list
     // o[0] = unix time in seconds
     // o[1] = microseconds since last second
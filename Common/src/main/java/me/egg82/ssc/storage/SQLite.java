@@ -8,7 +8,13 @@ import java.io.File;
 import java.io.IOException;
 import java.io.StringReader;
 import java.sql.SQLException;
-import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 import me.egg82.ssc.core.*;
@@ -24,9 +30,26 @@ import org.sqlite.SQLiteErrorCode;
 public class SQLite extends AbstractSQL {
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
-    private final Object levelCacheLock = new Object();
-    private volatile long lastLevelCacheTime = 0L;
-    private final Set<LevelResult> tmpLevelCache = new LinkedHashSet<>();
+    private static final int MAX_BATCH_ROWS = 150;
+    private static final int VACUUM_PAGES = 2048;
+
+    // Per-connection settings. WAL lets reads carry on while the writer commits, and NORMAL only syncs at checkpoints,
+    // which in WAL mode can lose the last few commits on power loss but never corrupts the database
+    private static final String JOURNAL_MODE = "WAL";
+    private static final String SYNCHRONOUS = "NORMAL";
+    private static final String CACHE_SIZE = "-16384"; // KiB
+    private static final String MMAP_SIZE = "67108864"; // 64 MiB
+    private static final String BUSY_TIMEOUT = "5000";
+
+    // Dates are kept as UTC text, the same as CURRENT_TIMESTAMP writes them, so they compare and sort as text
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter DATE_FORMAT_MILLIS = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter DATE_PARSER = new DateTimeFormatterBuilder()
+            .appendPattern("yyyy-MM-dd HH:mm:ss")
+            .optionalStart()
+            .appendFraction(ChronoField.NANO_OF_SECOND, 0, 9, true)
+            .optionalEnd()
+            .toFormatter();
 
     private final LoadingCache<Byte, String> levelCache = Caffeine.newBuilder().expireAfterAccess(10L, TimeUnit.MINUTES).expireAfterWrite(30L, TimeUnit.SECONDS).build(this::getLevelExpensive);
     private final LoadingCache<UUID, Long> longPlayerIDCache = Caffeine.newBuilder().build(this::getLongPlayerIDExpensive);
@@ -37,6 +60,7 @@ public class SQLite extends AbstractSQL {
     private long longServerID;
     private volatile long lastMessageID;
     private StorageHandler handler;
+    private SQLiteWriter writer;
 
     private SQLite() { }
 
@@ -44,6 +68,10 @@ public class SQLite extends AbstractSQL {
 
     public void close() {
         closed = true;
+        if (postBatcher != null) {
+            postBatcher.close();
+        }
+        writer.close();
         sql.close();
     }
 
@@ -54,6 +82,8 @@ public class SQLite extends AbstractSQL {
     public static class Builder {
         private final SQLite result = new SQLite();
         private final HikariConfig config = new HikariConfig();
+        private long batchWindow = 0L;
+        private int batchSize = 1;
 
         private Builder(UUID serverID, String serverName, StorageHandler handler) {
             if (serverID == null) {
@@ -107,12 +137,39 @@ public class SQLite extends AbstractSQL {
             return this;
         }
 
+        public SQLite.Builder batch(long window, int size) {
+            batchWindow = window;
+            batchSize = size;
+            return this;
+        }
+
         public SQLite build() throws IOException, StorageException {
+            // Anything set in the options wins
+            Properties properties = config.getDataSourceProperties();
+            properties.putIfAbsent("journal_mode", JOURNAL_MODE);
+            properties.putIfAbsent("synchronous", SYNCHRONOUS);
+            properties.putIfAbsent("cache_size", CACHE_SIZE);
+            properties.putIfAbsent("mmap_size", MMAP_SIZE);
+            properties.putIfAbsent("busy_timeout", BUSY_TIMEOUT);
+
+            // The writer gets a connection of its own. The pool is left to readers
+            HikariConfig writerConfig = new HikariConfig();
+            config.copyStateTo(writerConfig);
+            writerConfig.setPoolName("SimpleStaffChat-SQLite-Writer");
+            writerConfig.setMaximumPoolSize(1);
+            writerConfig.setMinimumIdle(1);
+            // Batches are sent as separate statements between BEGIN and COMMIT, so the connection can't be retired halfway through one
+            writerConfig.setMaxLifetime(0L);
+
             result.sql = new SQL(config);
+            result.writer = new SQLiteWriter(new SQL(writerConfig), result);
             SQLVersionUtil.conformVersion(result, "sqlite");
             result.setServerName(result.serverName);
             result.longServerID = getLongServerID();
             result.lastMessageID = getLastMessageID();
+            if (batchWindow > 0L && batchSize > 1) {
+                result.postBatcher = new PostBatcher(result, batchWindow, batchSize);
+            }
             return result;
         }
 
@@ -145,18 +202,11 @@ public class SQLite extends AbstractSQL {
     }
 
     public ImmutableList<LevelResult> getLevels() throws StorageException {
-        if (lastLevelCacheTime <= System.currentTimeMillis() - 300000L) { // 5 mins
-            synchronized (levelCacheLock) {
-                tmpLevelCache.clear();
-                try {
-                    tmpLevelCache.addAll(fetchLevelsExpensive());
-                } catch (SQLException ex) {
-                    throw new StorageException(isAutomaticallyRecoverable(ex), "Could not get levels.");
-                }
-                lastLevelCacheTime = System.currentTimeMillis();
-            }
+        try {
+            return ImmutableList.copyOf(fetchLevelsExpensive());
+        } catch (SQLException ex) {
+            throw new StorageException(isAutomaticallyRecoverable(ex), "Could not get levels.");
         }
-        return ImmutableList.copyOf(tmpLevelCache);
     }
 
     private List<LevelResult> fetchLevelsExpensive() throws SQLException {
@@ -181,6 +231,7 @@ public class SQLite extends AbstractSQL {
                         "  `s`.`uuid` AS `server_id`," +
                         "  `s`.`name` AS `server_name`," +
                         "  `p`.`uuid` AS `player_id`," +
+                        "  `p`.`name` AS `player_name`," +
                         "  `c`.`level`," +
                         "  `l`.`name` AS `level_name`," +
                         "  `c`.`message`," +
@@ -189,8 +240,9 @@ public class SQLite extends AbstractSQL {
                         "JOIN `" + prefix + "servers` `s` ON `s`.`id` = `c`.`server_id`" +
                         "JOIN `" + prefix + "players` `p` ON `p`.`id` = `c`.`player_id`" +
                         "JOIN `" + prefix + "levels` `l` ON `l`.`id` = `c`.`level`" +
-                        "WHERE ? <> `c`.`server_id` AND `c`.`id` > ?;",
-                    serverID, lastMessageID);
+                        "WHERE `c`.`id` > ? AND `c`.`server_id` <> ? " +
+                        "ORDER BY `c`.`id`;",
+                    lastMessageID, longServerID);
         } catch (SQLException ex) {
             throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
@@ -219,6 +271,7 @@ public class SQLite extends AbstractSQL {
                         "  `s`.`uuid` AS `server_id`," +
                         "  `s`.`name` AS `server_name`," +
                         "  `p`.`uuid` AS `player_id`," +
+                        "  `p`.`name` AS `player_name`," +
                         "  `c`.`level`," +
                         "  `l`.`name` AS `level_name`," +
                         "  `c`.`message`," +
@@ -239,58 +292,105 @@ public class SQLite extends AbstractSQL {
         return retVal;
     }
 
-    public PostChatResult post(UUID playerID, byte level, String message) throws StorageException {
+    public List<ChatResult> getHistoryByPlayer(UUID playerID, ChatCursor after, int limit) throws StorageException {
         if (playerID == null) {
             throw new IllegalArgumentException("playerID cannot be null.");
         }
-        if (message == null) {
-            throw new IllegalArgumentException("message cannot be null.");
+        // Looked up in the query so a player with no history isn't created along the way
+        return getHistory("`c`.`player_id` = (SELECT `id` FROM `" + prefix + "players` WHERE `uuid`=?)", playerID.toString(), after, limit);
+    }
+
+    public List<ChatResult> getHistoryByLevel(byte level, ChatCursor after, int limit) throws StorageException { return getHistory("`c`.`level` = ?", level, after, limit); }
+
+    public List<ChatResult> getHistoryByServer(UUID serverID, ChatCursor after, int limit) throws StorageException {
+        if (serverID == null) {
+            throw new IllegalArgumentException("serverID cannot be null.");
         }
+        return getHistory("`c`.`server_id` = (SELECT `id` FROM `" + prefix + "servers` WHERE `uuid`=?)", serverID.toString(), after, limit);
+    }
 
-        long longPlayerID = longPlayerIDCache.get(playerID);
-        SQLExecuteResult result;
-        try {
-            result = sql.execute("INSERT INTO `" + prefix + "posted_chat` (`server_id`, `player_id`, `level`, `message`) VALUES (?, ?, ?, ?);", longServerID, longPlayerID, level, message);
-        } catch (SQLException ex) {
-            throw new StorageException(isAutomaticallyRecoverable(ex), ex);
+    private List<ChatResult> getHistory(String filter, Object filterValue, ChatCursor after, int limit) throws StorageException {
+        if (after == null) {
+            throw new IllegalArgumentException("after cannot be null.");
         }
-        if (result.getAutoGeneratedKeys().length != 1) {
-            throw new StorageException(false, "Could not get generated keys from inserted post.");
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be greater than zero.");
         }
 
-        long id = ((Number) result.getAutoGeneratedKeys()[0]).longValue();
+        // Dates are stored as text, so compare them as text
+        // Raw posts from older versions were stored with a trailing ".0" on whole seconds, so the same second can be spelled two ways
+        String date = formatDate(after.getDate());
+        String legacyDate = after.getDate() % 1000L == 0L ? date + ".0" : date;
 
-        SQLQueryResult query;
+        List<ChatResult> retVal = new ArrayList<>();
+        SQLQueryResult result;
         try {
-            query = sql.query("SELECT `date` FROM `" + prefix + "posted_chat` WHERE `id`=?;", id);
+            // Keyset pagination: the cursor picks up exactly where the last page left off, no matter how deep it is
+            // The plain lower bound on the date lets the (filter, date) index seek straight to the cursor
+            result = sql.query(
+                    "SELECT" +
+                        "  `c`.`id`," +
+                        "  `s`.`uuid` AS `server_id`," +
+                        "  `s`.`name` AS `server_name`," +
+                        "  `p`.`uuid` AS `player_id`," +
+                        "  `p`.`name` AS `player_name`," +
+                        "  `c`.`level`," +
+                        "  `l`.`name` AS `level_name`," +
+                        "  `c`.`message`," +
+                        "  `c`.`date` " +
+                        "FROM `" + prefix + "posted_chat` `c` " +
+                        "JOIN `" + prefix + "servers` `s` ON `s`.`id` = `c`.`server_id` " +
+                        "JOIN `" + prefix + "players` `p` ON `p`.`id` = `c`.`player_id` " +
+                        "JOIN `" + prefix + "levels` `l` ON `l`.`id` = `c`.`level` " +
+                        "WHERE " + filter + " AND `c`.`date` >= ? AND (`c`.`date` > ? OR (`c`.`date` IN (?, ?) AND `c`.`id` > ?)) " +
+                        "ORDER BY `c`.`date`, `c`.`id` " +
+                        "LIMIT ?;",
+                    filterValue, date, legacyDate, date, legacyDate, after.getID(), limit);
         } catch (SQLException ex) {
             throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
-        if (query.getData().length != 1) {
-            throw new StorageException(false, "Could not get date from inserted post.");
+        for (Object[] row : result.getData()) {
+            ChatResult r = getResult(row);
+            if (r != null) {
+                retVal.add(r);
+            }
         }
+        return retVal;
+    }
+
+    public PostChatResult post(UUID playerID, String playerName, byte level, String message) throws StorageException {
+        if (playerID == null) {
+            throw new IllegalArgumentException("playerID cannot be null.");
+        }
+        if (message == null) {
+            throw new IllegalArgumentException("message cannot be null.");
+        }
+
+        long longPlayerID = longPlayerIDCache.get(playerID);
+        setPlayerName(longPlayerID, playerName);
+        PostBatcher.PendingPost post = new PostBatcher.PendingPost(longPlayerID, level, message);
+        writePost(post);
 
         return new PostChatResult(
-                id,
+                post.getID(),
                 longServerID,
                 uuidServerID,
                 serverName,
                 longPlayerID,
                 playerID,
+                playerName,
                 level,
                 levelCache.get(level),
                 message,
-                getTime(query.getData()[0][0]).getTime()
+                post.getDate()
         );
     }
 
     public void setLevelRaw(byte level, String name) throws StorageException {
         try {
-            sql.execute("INSERT INTO `" + prefix + "levels` (`id`, `name`) VALUES (?, ?) ON CONFLICT(`id`) DO UPDATE SET `name`=?;", level, name, name);
+            writer.write(s -> s.execute("INSERT INTO `" + prefix + "levels` (`id`, `name`) VALUES (?, ?) ON CONFLICT(`id`) DO UPDATE SET `name`=?;", level, name, name));
             levelCache.put(level, name);
-            LevelResult l = new LevelResult(level, name);
-            tmpLevelCache.remove(l);
-            tmpLevelCache.add(l);
+            handler.levelUpdateCallback(level, name, this);
         } catch (SQLException ex) {
             throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
@@ -298,7 +398,7 @@ public class SQLite extends AbstractSQL {
 
     public void setServerRaw(long longServerID, UUID serverID, String name) throws StorageException {
         try {
-            sql.execute("INSERT INTO `" + prefix + "servers` (`id`, `uuid`, `name`) VALUES (?, ?, ?) ON CONFLICT(`id`) DO UPDATE SET `uuid`=?, `name`=?;", longServerID, serverID.toString(), name, serverID.toString(), name);
+            writer.write(s -> s.execute("INSERT INTO `" + prefix + "servers` (`id`, `uuid`, `name`) VALUES (?, ?, ?) ON CONFLICT(`id`) DO UPDATE SET `uuid`=?, `name`=?;", longServerID, serverID.toString(), name, serverID.toString(), name));
         } catch (SQLException ex) {
             throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
@@ -306,21 +406,70 @@ public class SQLite extends AbstractSQL {
 
     public void setPlayerRaw(long longPlayerID, UUID playerID) throws StorageException {
         try {
-            sql.execute("INSERT INTO `" + prefix + "players` (`id`, `uuid`) VALUES (?, ?) ON CONFLICT(`id`) DO UPDATE SET `uuid`=?;", longPlayerID, playerID.toString(), playerID.toString());
+            writer.write(s -> s.execute("INSERT INTO `" + prefix + "players` (`id`, `uuid`) VALUES (?, ?) ON CONFLICT(`id`) DO UPDATE SET `uuid`=?;", longPlayerID, playerID.toString(), playerID.toString()));
         } catch (SQLException ex) {
             throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
         longPlayerIDCache.put(playerID, longPlayerID);
     }
 
-    public void postRaw(long postID, long longServerID, long longPlayerID, byte level, String message, long date) throws StorageException {
+    public void postRaw(long postID, long longServerID, long longPlayerID, String playerName, byte level, String message, long date) throws StorageException {
+        setPlayerName(longPlayerID, playerName);
         try {
-            sql.execute("INSERT OR IGNORE INTO `" + prefix + "posted_chat` (`id`, `server_id`, `player_id`, `level`, `message`, `date`) VALUES (?, ?, ?, ?, ?, ?);", postID, longServerID, longPlayerID, level, message, new Timestamp(date).toString());
+            writer.write(s -> s.execute("INSERT OR IGNORE INTO `" + prefix + "posted_chat` (`id`, `server_id`, `player_id`, `level`, `message`, `date`) VALUES (?, ?, ?, ?, ?, ?);", postID, longServerID, longPlayerID, level, message, formatDate(date)));
         } catch (SQLException ex) {
             throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
     }
 
+    protected void postBatch(List<PostBatcher.PendingPost> posts) throws SQLException, StorageException {
+        writer.write(s -> {
+            // Older SQLite builds cap a statement at 999 parameters
+            for (int i = 0; i < posts.size(); i += MAX_BATCH_ROWS) {
+                postChunk(s, posts.subList(i, Math.min(i + MAX_BATCH_ROWS, posts.size())));
+            }
+            return null;
+        });
+    }
+
+    private void postChunk(SQL writeSql, List<PostBatcher.PendingPost> posts) throws SQLException, StorageException {
+        // Dates are set here rather than defaulted by the database so the insert is the only round trip
+        // Truncated to the second to match what the column (and CURRENT_TIMESTAMP) would store
+        long date = System.currentTimeMillis() / 1000L * 1000L;
+        String dateText = formatDate(date);
+
+        StringBuilder query = new StringBuilder(64 + posts.size() * 20);
+        query.append("INSERT INTO `" + prefix + "posted_chat` (`server_id`, `player_id`, `level`, `message`, `date`) VALUES ");
+        Object[] params = new Object[posts.size() * 5];
+        for (int i = 0; i < posts.size(); i++) {
+            PostBatcher.PendingPost post = posts.get(i);
+            query.append(i == 0 ? "(?, ?, ?, ?, ?)" : ", (?, ?, ?, ?, ?)");
+            params[i * 5] = longServerID;
+            params[i * 5 + 1] = post.getLongPlayerID();
+            params[i * 5 + 2] = post.getLevel();
+            params[i * 5 + 3] = post.getMessage();
+            params[i * 5 + 4] = dateText;
+            post.setDate(date);
+        }
+        query.append(';');
+
+        // Committed with the rest of the writer's batch
+        SQLExecuteResult result = writeSql.execute(query.toString(), params);
+        if (result.getAutoGeneratedKeys().length == posts.size()) {
+            for (int i = 0; i < posts.size(); i++) {
+                posts.get(i).setID(((Number) result.getAutoGeneratedKeys()[i]).longValue());
+            }
+        } else if (result.getAutoGeneratedKeys().length == 1) {
+            // The driver only reports the last row ID, and rows from a single statement are numbered sequentially
+            long last = ((Number) result.getAutoGeneratedKeys()[0]).longValue();
+            for (int i = 0; i < posts.size(); i++) {
+                posts.get(i).setID(last - (posts.size() - 1 - i));
+            }
+        } else {
+            throw new StorageException(false, "Could not get generated keys from inserted posts.");
+        }
+    }
+
     public void setLevel(byte level, String name) throws StorageException {
         if (name == null) {
             throw new IllegalArgumentException("name cannot be null.");
@@ -334,12 +483,13 @@ public class SQLite extends AbstractSQL {
         }
         // Don't redirect to raw. Will cause issues when server is first added
         try {
-            sql.execute("INSERT INTO `" + prefix + "servers` (`uuid`, `name`) VALUES(?, ?) ON CONFLICT(`uuid`) DO UPDATE SET `name`=?;", serverID, name, name);
+            writer.write(s -> s.execute("INSERT INTO `" + prefix + "servers` (`uuid`, `name`) VALUES(?, ?) ON CONFLICT(`uuid`) DO UPDATE SET `name`=?;", serverID, name, name));
         } catch (SQLException ex) {
             throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
     }
 
+    // Only written while the schema is being set up, before anything else is writing
     protected void setKey(String key, String value) throws SQLException { sql.execute("INSERT INTO `" + prefix + "data` (`key`, `value`) VALUES (?, ?) ON CONFLICT(`key`) DO UPDATE SET `value`=?;", key, value, value); }
 
     protected double getDouble(String key) throws SQLException {
@@ -350,6 +500,14 @@ public class SQLite extends AbstractSQL {
         return -1.0d;
     }
 
+    protected String getString(String key) throws SQLException {
+        SQLQueryResult result = sql.query("SELECT `value` FROM `" + prefix + "data` WHERE `key`=?;", key);
+        if (result.getData().length == 1) {
+            return (String) result.getData()[0][0];
+        }
+        return null;
+    }
+
     public long getLongPlayerID(UUID playerID) { return longPlayerIDCache.get(playerID); }
 
     public Set<LevelResult> dumpLevels() throws StorageException {
@@ -373,17 +531,33 @@ public class SQLite extends AbstractSQL {
     }
 
     public void loadLevels(Set<LevelResult> levels) throws StorageException {
-        // TODO: Batch execute
         try {
-            sql.execute("PRAGMA foreign_keys = OFF;");
-            sql.execute("DELETE FROM `" + prefix + "levels`;");
-            sql.execute("VACUUM;");
+            // Foreign keys can't be switched off inside a transaction
+            writer.writeAlone(s -> {
+                s.execute("PRAGMA foreign_keys = OFF;");
+                s.execute("DELETE FROM `" + prefix + "levels`;");
+                s.execute("VACUUM;");
+                return s.execute("PRAGMA foreign_keys = ON;");
+            });
             levelCache.invalidateAll();
-            for (LevelResult level : levels) {
-                sql.execute("INSERT INTO `" + prefix + "levels` (`id`, `name`) VALUES (?, ?);", level.getLevel(), level.getName());
+            // The rows go in with the writer's next transaction
+            List<LevelResult> rows = new ArrayList<>(levels);
+            writer.write(s -> {
+                for (int i = 0; i < rows.size(); i += MAX_BATCH_ROWS) {
+                    List<LevelResult> chunk = rows.subList(i, Math.min(i + MAX_BATCH_ROWS, rows.size()));
+                    Object[] params = new Object[chunk.size() * 2];
+                    for (int j = 0; j < chunk.size(); j++) {
+                        LevelResult level = chunk.get(j);
+                        params[j * 2] = level.getLevel();
+                        params[j * 2 + 1] = level.getName();
+                    }
+                    s.execute(getMultiInsert("INSERT INTO `" + prefix + "levels` (`id`, `name`)", 2, chunk.size()), params);
+                }
+                return null;
+            });
+            for (LevelResult level : rows) {
                 levelCache.put(level.getLevel(), level.getName());
             }
-            sql.execute("PRAGMA foreign_keys = ON;");
         } catch (SQLException ex) {
             throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
@@ -417,26 +591,40 @@ public class SQLite extends AbstractSQL {
     }
 
     public void loadServers(Set<ServerResult> servers) throws StorageException {
-        // TODO: Batch execute
         try {
-            sql.execute("PRAGMA foreign_keys = OFF;");
-            sql.execute("DELETE FROM `" + prefix + "servers`;");
-            sql.execute("VACUUM;");
-            for (ServerResult server : servers) {
-                sql.execute("INSERT INTO `" + prefix + "servers` (`id`, `uuid`, `name`) VALUES (?, ?, ?);", server.getLongServerID(), server.getServerID().toString(), server.getName());
-            }
-            sql.execute("PRAGMA foreign_keys = ON;");
+            writer.writeAlone(s -> {
+                s.execute("PRAGMA foreign_keys = OFF;");
+                s.execute("DELETE FROM `" + prefix + "servers`;");
+                s.execute("VACUUM;");
+                return s.execute("PRAGMA foreign_keys = ON;");
+            });
+            List<ServerResult> rows = new ArrayList<>(servers);
+            writer.write(s -> {
+                for (int i = 0; i < rows.size(); i += MAX_BATCH_ROWS) {
+                    List<ServerResult> chunk = rows.subList(i, Math.min(i + MAX_BATCH_ROWS, rows.size()));
+                    Object[] params = new Object[chunk.size() * 3];
+                    for (int j = 0; j < chunk.size(); j++) {
+                        ServerResult server = chunk.get(j);
+                        params[j * 3] = server.getLongServerID();
+                        params[j * 3 + 1] = server.getServerID().toString();
+                        params[j * 3 + 2] = server.getName();
+                    }
+                    s.execute(getMultiInsert("INSERT INTO `" + prefix + "servers` (`id`, `uuid`, `name`)", 3, chunk.size()), params);
+                }
+                return null;
+            });
         } catch (SQLException ex) {
             throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
     }
 
-    public Set<PlayerResult> dumpPlayers(long begin, int size) throws StorageException {
+    public Set<PlayerResult> dumpPlayers(long afterID, int size) throws StorageException {
         Set<PlayerResult> retVal = new LinkedHashSet<>();
 
         SQLQueryResult result;
         try {
-            result = sql.query("SELECT `id`, `uuid` FROM `" + prefix + "players` LIMIT ?, ?;", begin - 1, size);
+            // Seeks on the row ID, so a page costs the same however deep into the table it is
+            result = sql.query("SELECT `id`, `uuid`, `name` FROM `" + prefix + "players` WHERE `id` > ? ORDER BY `id` LIMIT ?;", afterID, size);
         } catch (SQLException ex) {
             throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
@@ -450,7 +638,8 @@ public class SQLite extends AbstractSQL {
 
             retVal.add(new PlayerResult(
                     ((Number) row[0]).longValue(),
-                    UUID.fromString(pid)
+                    UUID.fromString(pid),
+                    (String) row[2]
             ));
         }
 
@@ -458,32 +647,47 @@ public class SQLite extends AbstractSQL {
     }
 
     public void loadPlayers(Set<PlayerResult> players, boolean truncate) throws StorageException {
-        // TODO: Batch execute
         try {
             if (truncate) {
-                sql.execute("PRAGMA foreign_keys = OFF;");
-                sql.execute("DELETE FROM `" + prefix + "players`;");
-                sql.execute("VACUUM;");
+                writer.writeAlone(s -> {
+                    s.execute("PRAGMA foreign_keys = OFF;");
+                    s.execute("DELETE FROM `" + prefix + "players`;");
+                    s.execute("VACUUM;");
+                    return s.execute("PRAGMA foreign_keys = ON;");
+                });
                 longPlayerIDCache.invalidateAll();
+                invalidatePlayerNames();
             }
-            for (PlayerResult player : players) {
-                sql.execute("INSERT INTO `" + prefix + "players` (`id`, `uuid`) VALUES (?, ?);", player.getLongPlayerID(), player.getPlayerID().toString());
+            // The whole page goes in with the writer's next transaction
+            List<PlayerResult> rows = new ArrayList<>(players);
+            writer.write(s -> {
+                for (int i = 0; i < rows.size(); i += MAX_BATCH_ROWS) {
+                    List<PlayerResult> chunk = rows.subList(i, Math.min(i + MAX_BATCH_ROWS, rows.size()));
+                    Object[] params = new Object[chunk.size() * 3];
+                    for (int j = 0; j < chunk.size(); j++) {
+                        PlayerResult player = chunk.get(j);
+                        params[j * 3] = player.getLongPlayerID();
+                        params[j * 3 + 1] = player.getPlayerID().toString();
+                        params[j * 3 + 2] = player.getName();
+                    }
+                    s.execute(getMultiInsert("INSERT INTO `" + prefix + "players` (`id`, `uuid`, `name`)", 3, chunk.size()), params);
+                }
+                return null;
+            });
+            for (PlayerResult player : rows) {
                 longPlayerIDCache.put(player.getPlayerID(), player.getLongPlayerID());
             }
-            if (truncate) {
-                sql.execute("PRAGMA foreign_keys = ON;");
-            }
         } catch (SQLException ex) {
             throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
     }
 
-    public Set<RawChatResult> dumpChat(long begin, int size) throws StorageException {
+    public Set<RawChatResult> dumpChat(long afterID, int size) throws StorageException {
         Set<RawChatResult> retVal = new LinkedHashSet<>();
 
         SQLQueryResult result;
         try {
-            result = sql.query("SELECT `id`, `server_id`, `player_id`, `level`, `message`, `date` FROM `" + prefix + "posted_chat` LIMIT ?, ?;", begin - 1, size);
+            result = sql.query("SELECT `c`.`id`, `c`.`server_id`, `c`.`player_id`, `p`.`name`, `c`.`level`, `c`.`message`, `c`.`date` FROM `" + prefix + "posted_chat` `c` LEFT JOIN `" + prefix + "players` `p` ON `p`.`id` = `c`.`player_id` WHERE `c`.`id` > ? ORDER BY `c`.`id` LIMIT ?;", afterID, size);
         } catch (SQLException ex) {
             throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
@@ -493,9 +697,10 @@ public class SQLite extends AbstractSQL {
                     ((Number) row[0]).longValue(),
                     ((Number) row[1]).longValue(),
                     ((Number) row[2]).longValue(),
-                    ((Number) row[3]).byteValue(),
-                    (String) row[4],
-                    getTime(row[5]).getTime()
+                    (String) row[3],
+                    ((Number) row[4]).byteValue(),
+                    (String) row[5],
+                    getTime(row[6])
             ));
         }
 
@@ -503,24 +708,99 @@ public class SQLite extends AbstractSQL {
     }
 
     public void loadChat(Set<RawChatResult> chat, boolean truncate) throws StorageException {
-        // TODO: Batch execute
+        // Player names come across with the players themselves
         try {
             if (truncate) {
-                sql.execute("PRAGMA foreign_keys = OFF;");
-                sql.execute("DELETE FROM `" + prefix + "posted_chat`;");
-                sql.execute("VACUUM;");
-            }
-            for (RawChatResult c : chat) {
-                sql.execute("INSERT INTO `" + prefix + "posted_chat` (`id`, `server_id`, `player_id`, `level`, `message`, `date`) VALUES (?, ?, ?, ?, ?, ?);", c.getID(), c.getLongServerID(), c.getLongPlayerID(), c.getLevel(), c.getMessage(), new Timestamp(c.getDate()).toString());
-            }
-            if (truncate) {
-                sql.execute("PRAGMA foreign_keys = ON;");
+                writer.writeAlone(s -> {
+                    s.execute("PRAGMA foreign_keys = OFF;");
+                    s.execute("DELETE FROM `" + prefix + "posted_chat`;");
+                    s.execute("VACUUM;");
+                    return s.execute("PRAGMA foreign_keys = ON;");
+                });
             }
+            List<RawChatResult> rows = new ArrayList<>(chat);
+            writer.write(s -> {
+                for (int i = 0; i < rows.size(); i += MAX_BATCH_ROWS) {
+                    List<RawChatResult> chunk = rows.subList(i, Math.min(i + MAX_BATCH_ROWS, rows.size()));
+                    Object[] params = new Object[chunk.size() * 6];
+                    for (int j = 0; j < chunk.size(); j++) {
+                        RawChatResult c = chunk.get(j);
+                        params[j * 6] = c.getID();
+                        params[j * 6 + 1] = c.getLongServerID();
+                        params[j * 6 + 2] = c.getLongPlayerID();
+                        params[j * 6 + 3] = c.getLevel();
+                        params[j * 6 + 4] = c.getMessage();
+                        params[j * 6 + 5] = formatDate(c.getDate());
+                    }
+                    s.execute(getMultiInsert("INSERT INTO `" + prefix + "posted_chat` (`id`, `server_id`, `player_id`, `level`, `message`, `date`)", 6, chunk.size()), params);
+                }
+                return null;
+            });
+        } catch (SQLException ex) {
+            throw new StorageException(isAutomaticallyRecoverable(ex), ex);
+        }
+    }
+
+    public long getPlayerCount() throws StorageException { return count("players"); }
+
+    public long getChatCount() throws StorageException { return count("posted_chat"); }
+
+    private long count(String table) throws StorageException {
+        SQLQueryResult result;
+        try {
+            result = sql.query("SELECT COUNT(*) FROM `" + prefix + table + "`;");
         } catch (SQLException ex) {
             throw new StorageException(isAutomaticallyRecoverable(ex), ex);
         }
+        return result.getData().length == 1 ? ((Number) result.getData()[0][0]).longValue() : 0L;
     }
 
+    public int deleteChatBefore(long date, int limit) throws StorageException {
+        try {
+            // SQLite is usually built without DELETE .. LIMIT, so the chunk is picked out with a subquery instead
+            return writer.write(s -> s.execute("DELETE FROM `" + prefix + "posted_chat` WHERE `id` IN (SELECT `id` FROM `" + prefix + "posted_chat` WHERE `date` < ? ORDER BY `date` LIMIT ?);", formatDate(date), limit)).getRecordsAffected();
+        } catch (SQLException ex) {
+            throw new StorageException(isAutomaticallyRecoverable(ex), ex);
+        }
+    }
+
+    public int deleteChatBelow(long postID, int limit) throws StorageException {
+        try {
+            return writer.write(s -> s.execute("DELETE FROM `" + prefix + "posted_chat` WHERE `id` IN (SELECT `id` FROM `" + prefix + "posted_chat` WHERE `id` < ? ORDER BY `id` LIMIT ?);", postID, limit)).getRecordsAffected();
+        } catch (SQLException ex) {
+            throw new StorageException(isAutomaticallyRecoverable(ex), ex);
+        }
+    }
+
+    public long getChatIDFromNewest(long offset) throws StorageException {
+        SQLQueryResult result;
+        try {
+            result = sql.query("SELECT `id` FROM `" + prefix + "posted_chat` ORDER BY `id` DESC LIMIT 1 OFFSET ?;", offset);
+        } catch (SQLException ex) {
+            throw new StorageException(isAutomaticallyRecoverable(ex), ex);
+        }
+        return result.getData().length == 1 ? ((Number) result.getData()[0][0]).longValue() : -1L;
+    }
+
+    public void compact() throws StorageException {
+        try {
+            // Only databases created with incremental auto-vacuum can give pages back without a full (locking) VACUUM
+            // Freed pages are reused either way. Freeing a bounded number per run keeps the lock short
+            SQLQueryResult result = sql.query("PRAGMA auto_vacuum;");
+            boolean incremental = result.getData().length == 1 && ((Number) result.getData()[0][0]).intValue() == 2;
+            writer.writeAlone(s -> {
+                if (incremental) {
+                    s.execute("PRAGMA incremental_vacuum(" + VACUUM_PAGES + ");");
+                }
+                return s.execute("ANALYZE `" + prefix + "posted_chat`;");
+            });
+        } catch (SQLException ex) {
+            throw new StorageException(isAutomaticallyRecoverable(ex), ex);
+        }
+    }
+
+    protected SQLExecuteResult executeWrite(String query, Object... params) throws SQLException, StorageException { return writer.write(s -> s.execute(query, params)); }
+
     private ChatResult getResult(Object[] row) {
         String serverID = (String) row[1];
         String playerID = (String) row[3];
@@ -538,10 +818,11 @@ public class SQLite extends AbstractSQL {
                 UUID.fromString(serverID),
                 (String) row[2],
                 UUID.fromString(playerID),
-                ((Number) row[4]).byteValue(),
-                (String) row[5],
+                (String) row[4],
+                ((Number) row[5]).byteValue(),
                 (String) row[6],
-                getTime(row[7]).getTime()
+                (String) row[7],
+                getTime(row[8])
         );
     }
 
@@ -562,7 +843,7 @@ public class SQLite extends AbstractSQL {
         }
 
         // No ID, generate one
-        SQLExecuteResult r = sql.execute("INSERT INTO `" + prefix + "players` (`uuid`) VALUES (?);", uuid.toString());
+        SQLExecuteResult r = writer.write(s -> s.execute("INSERT INTO `" + prefix + "players` (`uuid`) VALUES (?);", uuid.toString()));
         if (r.getAutoGeneratedKeys().length != 1) {
             throw new StorageException(false, "Could not get generated keys from inserted player.");
         }
@@ -571,18 +852,22 @@ public class SQLite extends AbstractSQL {
         return id;
     }
 
-    private Timestamp getTime(Object o) {
+    private static String formatDate(long date) { return (date % 1000L == 0L ? DATE_FORMAT : DATE_FORMAT_MILLIS).format(Instant.ofEpochMilli(date)); }
+
+    private long getTime(Object o) {
         if (o instanceof String) {
             try {
-                return Timestamp.valueOf((String) o);
-            } catch (IllegalArgumentException ignored) {
-                return new Timestamp(Long.valueOf((String) o));
+                return LocalDateTime.parse((String) o, DATE_PARSER).toInstant(ZoneOffset.UTC).toEpochMilli();
+            } catch (DateTimeParseException ignored) {
+                try {
+                    return Long.parseLong((String) o);
+                } catch (NumberFormatException ignored2) { }
             }
         } else if (o instanceof Number) {
-            return new Timestamp(((Number) o).longValue());
+            return ((Number) o).longValue();
         }
         logger.warn("Could not parse time.");
-        return new Timestamp(0L);
+        return 0L;
     }
 
     protected boolean isAutomaticallyRecoverable(SQLException ex) {
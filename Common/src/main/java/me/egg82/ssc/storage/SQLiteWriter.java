@@ -0,0 +1,264 @@
+package me.egg82.ssc.storage;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import me.egg82.ssc.utils.ConfigUtil;
+import ninja.egg82.sql.SQL;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The only thread that writes to a SQLite database
+ *
+ * SQLite allows one writer at a time no matter how many connections are open, so writers on a pool
+ * just take turns at the lock (or fail with SQLITE_BUSY). Instead, every write is queued here and run on
+ * a single connection, and whatever has queued up by the time the writer gets to it is committed as one transaction.
+ * Reads stay on the pool and, with WAL, never wait on the writer
+ */
+class SQLiteWriter {
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final int MAX_BATCH_SIZE = 256;
+    // Long enough for a VACUUM on its own, so this only trips if the writer itself is stuck
+    static final long WRITE_TIMEOUT_MILLIS = 60000L;
+
+    private final ExecutorService workPool = Executors.newFixedThreadPool(1, new ThreadFactoryBuilder().setNameFormat("SimpleStaffChat-SQLite-Writer-%d").build());
+    private final BlockingQueue<PendingWrite<?>> queue = new LinkedBlockingQueue<>();
+
+    private final SQL sql;
+    private final SQLite storage;
+
+    private final AtomicLong numBatches = new AtomicLong(0L);
+    private final AtomicLong numWrites = new AtomicLong(0L);
+    private final AtomicLong totalCommitNanos = new AtomicLong(0L);
+
+    private volatile boolean closed = false;
+    // Held while checking closed and queueing, so nothing can be queued once close() has started draining
+    private final Object queueLock = new Object();
+
+    /**
+     * @param sql A pool with exactly one connection, which nothing else uses
+     * @param storage The storage being written to
+     */
+    SQLiteWriter(SQL sql, SQLite storage) {
+        this.sql = sql;
+        this.storage = storage;
+
+        workPool.execute(this::run);
+    }
+
+    void close() {
+        synchronized (queueLock) {
+            closed = true;
+        }
+        workPool.shutdown();
+        try {
+            if (!workPool.awaitTermination(4L, TimeUnit.SECONDS)) {
+                workPool.shutdownNow();
+            }
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Anything left over never made it to the writer
+        PendingWrite<?> write;
+        while ((write = queue.poll()) != null) {
+            write.future.completeExceptionally(new StorageException(false, "Storage was closed before the write could be made."));
+        }
+        sql.close();
+    }
+
+    /**
+     * Queues the write to be committed with whatever else is waiting, and waits for it to be committed
+     * @throws SQLException if the write or its commit failed
+     * @throws StorageException if the write failed, or the storage was closed
+     */
+    <T> T write(Write<T> write) throws SQLException, StorageException { return submit(new PendingWrite<>(write, true)); }
+
+    /**
+     * Queues the write to run on its own, outside of any transaction, and waits for it to finish
+     *
+     * Needed for anything SQLite won't do inside a transaction, such as VACUUM or turning foreign keys on and off
+     * @throws SQLException if the write failed
+     * @throws StorageException if the write failed, or the storage was closed
+     */
+    <T> T writeAlone(Write<T> write) throws SQLException, StorageException { return submit(new PendingWrite<>(write, false)); }
+
+    long getNumBatches() { return numBatches.get(); }
+
+    long getNumWrites() { return numWrites.get(); }
+
+    double getAverageBatchSize() {
+        long batches = numBatches.get();
+        return batches == 0L ? 0.0d : (double) numWrites.get() / batches;
+    }
+
+    double getAverageCommitMillis() {
+        long batches = numBatches.get();
+        return batches == 0L ? 0.0d : (double) TimeUnit.NANOSECONDS.toMicros(totalCommitNanos.get()) / batches / 1000.0d;
+    }
+
+    private <T> T submit(PendingWrite<T> write) throws SQLException, StorageException {
+        synchronized (queueLock) {
+            if (closed) {
+                throw new StorageException(false, "Storage is closed.");
+            }
+            queue.add(write);
+        }
+
+        try {
+            return write.future.get(WRITE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            // Only safe to retry elsewhere if the writer never got to it. Otherwise it may still be committed
+            if (queue.remove(write)) {
+                throw new StorageException(true, "Timed out waiting for write to be made.", ex);
+            }
+            throw new StorageException(false, "Timed out waiting for write to be made. It may still be committed.", ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            if (queue.remove(write)) {
+                throw new StorageException(true, "Interrupted while waiting for write to be made.", ex);
+            }
+            throw new StorageException(false, "Interrupted while waiting for write to be made. It may still be committed.", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof SQLException) {
+                throw (SQLException) ex.getCause();
+            }
+            if (ex.getCause() instanceof StorageException) {
+                throw (StorageException) ex.getCause();
+            }
+            throw new StorageException(false, "Could not make write.", ex.getCause());
+        }
+    }
+
+    private void run() {
+        List<PendingWrite<?>> batch = new ArrayList<>();
+        PendingWrite<?> next = null;
+        while (!closed) {
+            try {
+                PendingWrite<?> first = next != null ? next : queue.poll(1L, TimeUnit.SECONDS);
+                next = null;
+                if (first == null) {
+                    continue;
+                }
+
+                if (!first.transactional) {
+                    runAlone(first);
+                    continue;
+                }
+
+                // No waiting around for more: whatever piled up during the last commit is the next batch
+                batch.add(first);
+                while (batch.size() < MAX_BATCH_SIZE && (next = queue.poll()) != null) {
+                    if (!next.transactional) {
+                        break;
+                    }
+                    batch.add(next);
+                    next = null;
+                }
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+                closed = true;
+            }
+
+            if (!batch.isEmpty()) {
+                commit(batch);
+                batch.clear();
+            }
+        }
+
+        if (next != null) {
+            next.future.completeExceptionally(new StorageException(false, "Storage was closed before the write could be made."));
+        }
+    }
+
+    private void commit(List<PendingWrite<?>> batch) {
+        long start = System.nanoTime();
+        try {
+            sql.execute("BEGIN IMMEDIATE;");
+        } catch (SQLException ex) {
+            failAll(batch, ex);
+            return;
+        }
+
+        // A failed statement doesn't undo the rest of the transaction in SQLite, so one bad write only fails itself
+        List<Object> results = new ArrayList<>(batch.size());
+        List<Throwable> errors = new ArrayList<>(batch.size());
+        for (PendingWrite<?> write : batch) {
+            try {
+                results.add(write.write.run(sql));
+                errors.add(null);
+            } catch (SQLException | StorageException | RuntimeException ex) {
+                results.add(null);
+                errors.add(ex);
+            }
+        }
+
+        try {
+            sql.execute("COMMIT;");
+        } catch (SQLException ex) {
+            try {
+                sql.execute("ROLLBACK;");
+            } catch (SQLException ignored) { }
+            failAll(batch, ex);
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        numBatches.getAndIncrement();
+        numWrites.getAndAdd(batch.size());
+        totalCommitNanos.getAndAdd(elapsed);
+
+        if (ConfigUtil.getDebugOrFalse()) {
+            logger.info("Committed " + batch.size() + " write(s) to SQLite in " + TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms (avg batch " + String.format("%.2f", getAverageBatchSize()) + ", avg commit " + String.format("%.2f", getAverageCommitMillis()) + "ms)");
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).complete(results.get(i), errors.get(i));
+        }
+    }
+
+    private void runAlone(PendingWrite<?> write) {
+        try {
+            write.complete(write.write.run(sql), null);
+        } catch (SQLException | StorageException | RuntimeException ex) {
+            write.complete(null, ex);
+        }
+    }
+
+    private void failAll(List<PendingWrite<?>> batch, SQLException ex) {
+        logger.error("Could not commit " + batch.size() + " write(s) to SQLite.", ex);
+        StorageException storageEx = new StorageException(storage.isAutomaticallyRecoverable(ex), ex);
+        for (PendingWrite<?> write : batch) {
+            write.future.completeExceptionally(storageEx);
+        }
+    }
+
+    interface Write<T> {
+        T run(SQL sql) throws SQLException, StorageException;
+    }
+
+    private static class PendingWrite<T> {
+        private final Write<T> write;
+        private final boolean transactional;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        private PendingWrite(Write<T> write, boolean transactional) {
+            this.write = write;
+            this.transactional = transactional;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void complete(Object result, Throwable error) {
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete((T) result);
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package me.egg82.ssc.storage;
 
 import com.google.common.collect.ImmutableList;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 import me.egg82.ssc.core.*;
@@ -12,13 +13,19 @@ public interface Storage {
     Set<ChatResult> getQueue() throws StorageException;
     default Set<ChatResult> getByPlayer(UUID playerID) throws StorageException { return getByPlayer(playerID, 1); }
     Set<ChatResult> getByPlayer(UUID playerID, int days) throws StorageException;
-    default PostChatResult post(UUID playerID, String message) throws StorageException { return post(playerID, (byte) 1, message); }
-    PostChatResult post(UUID playerID, byte level, String message) throws StorageException;
+
+    // One page of history, oldest first, starting just after the cursor. An empty page means there's nothing left
+    List<ChatResult> getHistoryByPlayer(UUID playerID, ChatCursor after, int limit) throws StorageException;
+    List<ChatResult> getHistoryByLevel(byte level, ChatCursor after, int limit) throws StorageException;
+    List<ChatResult> getHistoryByServer(UUID serverID, ChatCursor after, int limit) throws StorageException;
+
+    default PostChatResult post(UUID playerID, String playerName, String message) throws StorageException { return post(playerID, playerName, (byte) 1, message); }
+    PostChatResult post(UUID playerID, String playerName, byte level, String message) throws StorageException;
 
     void setLevelRaw(byte level, String name) throws StorageException;
     void setServerRaw(long longServerID, UUID serverID, String name) throws StorageException;
     void setPlayerRaw(long longPlayerID, UUID playerID) throws StorageException;
-    void postRaw(long postID, long longServerID, long longPlayerID, byte level, String message, long date) throws StorageException;
+    void postRaw(long postID, long longServerID, long longPlayerID, String playerName, byte level, String message, long date) throws StorageException;
 
     void setLevel(byte level, String name) throws StorageException;
     void setServerName(String name) throws StorageException;
@@ -31,11 +38,22 @@ public interface Storage {
     Set<ServerResult> dumpServers() throws StorageException;
     void loadServers(Set<ServerResult> servers) throws StorageException;
 
-    Set<PlayerResult> dumpPlayers(long begin, int size) throws StorageException;
+    // Players and chat are dumped in pages by ID, each one holding up to size rows with IDs after afterID. An empty page means there's nothing left
+    Set<PlayerResult> dumpPlayers(long afterID, int size) throws StorageException;
     void loadPlayers(Set<PlayerResult> players, boolean truncate) throws StorageException;
+    long getPlayerCount() throws StorageException;
 
-    Set<RawChatResult> dumpChat(long begin, int size) throws StorageException;
+    Set<RawChatResult> dumpChat(long afterID, int size) throws StorageException;
     void loadChat(Set<RawChatResult> chat, boolean truncate) throws StorageException;
+    long getChatCount() throws StorageException;
+
+    // Retention. Deletes remove at most limit posts, oldest first, and return how many were removed. Engines that can drop a whole range of old posts at once may go over the limit
+    int deleteChatBefore(long date, int limit) throws StorageException;
+    int deleteChatBelow(long postID, int limit) throws StorageException;
+    // The ID of the post offset places back from the newest, or -1 if there aren't that many
+    long getChatIDFromNewest(long offset) throws StorageException;
+    // Reclaims space and refreshes statistics after a large delete
+    void compact() throws StorageException;
 
     ImmutableList<LevelResult> getLevels() throws StorageException;
 }
@@ -3,6 +3,7 @@ package me.egg82.ssc.utils;
 import com.google.common.io.Files;
 import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
 import ninja.leaping.configurate.ConfigurationNode;
 import ninja.leaping.configurate.loader.ConfigurationLoader;
 import org.slf4j.Logger;
@@ -22,6 +23,9 @@ public class ConfigurationVersionUtil {
         if (config.getNode("version").getDouble() == 1.1d) {
             to12(config);
         }
+        if (config.getNode("version").getDouble() == 1.2d) {
+            to13(config);
+        }
 
         if (config.getNode("version").getDouble() != oldVersion) {
             File backupFile = new File(fileOnDisk.getParent(), fileOnDisk.getName() + ".bak");
@@ -49,4 +53,47 @@ public class ConfigurationVersionUtil {
         // Version
         config.getNode("version").setValue(1.2d);
     }
-}
+
+    private static void to13(ConfigurationNode config) {
+        // Add storage->settings->batch
+        config.getNode("storage", "settings", "batch", "window").setValue(5L);
+        config.getNode("storage", "settings", "batch", "max-size").setValue(50);
+
+        // Add storage->settings->replication
+        config.getNode("storage", "settings", "replication", "spool").setValue(Boolean.TRUE);
+
+        // Add storage->settings->queue-poll
+        config.getNode("storage", "settings", "queue-poll", "floor").setValue(1000L);
+        config.getNode("storage", "settings", "queue-poll", "ceiling").setValue(10000L);
+
+        // Add storage->engines->mysql->partitioning
+        config.getNode("storage", "engines", "mysql", "partitioning").setValue(Boolean.FALSE);
+
+        // Add storage->engines->redis->legacy-player-history
+        config.getNode("storage", "engines", "redis", "legacy-player-history").setValue(Boolean.TRUE);
+
+        // Add storage->settings->retention
+        config.getNode("storage", "settings", "retention", "max-age").setValue(0L);
+        config.getNode("storage", "settings", "retention", "max-posts").setValue(0L);
+        config.getNode("storage", "settings", "retention", "interval").setValue(3600000L);
+
+        // Add messaging->settings->publish-timeout
+        config.getNode("messaging", "settings", "publish-timeout").setValue(2000L);
+
+        // Add messaging->settings->codec
+        config.getNode("messaging", "settings", "codec").setValue("json");
+
+        // Add messaging->engines->redis->single-channel
+        config.getNode("messaging", "engines", "redis", "single-channel").setValue(Boolean.FALSE);
+
+        // Add chat->level-formats
+        config.getNode("chat", "level-formats").setValue(new HashMap<>());
+
+        // Add lookup
+        config.getNode("lookup", "endpoint").setValue("https://sessionserver.mojang.com/session/minecraft/profile/{uuid}");
+        config.getNode("lookup", "bulk-endpoint").setValue("");
+
+        // Version
+        config.getNode("version").setValue(1.3d);
+    }
+}
\ No newline at end of file
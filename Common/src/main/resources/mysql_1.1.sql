@@ -0,0 +1,70 @@
+ALTER TABLE `{prefix}players`
+  ADD COLUMN `name` varchar(32) COLLATE utf8mb4_unicode_ci NULL DEFAULT NULL AFTER `uuid`;
+
+DROP PROCEDURE IF EXISTS `{prefix}get_messages_player`;
+DELIMITER ;;
+CREATE PROCEDURE `{prefix}get_messages_player`(`player_id` BIGINT UNSIGNED, `days` INT)
+BEGIN
+  DECLARE `from` DATETIME DEFAULT DATE_SUB(CURRENT_TIMESTAMP, INTERVAL `days` DAY);
+  SET `days` = IFNULL(`days`, 1);
+  SELECT
+    `c`.`id`,
+    `s`.`uuid` AS `server_id`,
+    `s`.`name` AS `server_name`,
+    `p`.`uuid` AS `player_id`,
+    `p`.`name` AS `player_name`,
+    `c`.`level`,
+    `l`.`name` AS `level_name`,
+    `c`.`message`,
+    `c`.`date`
+  FROM `{prefix}posted_chat` `c`
+  JOIN `{prefix}servers` `s` ON `s`.`id` = `c`.`server_id`
+  JOIN `{prefix}players` `p` ON `p`.`id` = `c`.`player_id`
+  JOIN `{prefix}levels` `l` ON `l`.`id` = `c`.`level`
+  WHERE `c`.`date` >= `from` AND `c`.`player_id` = `player_id`;
+END ;;
+DELIMITER ;
+
+DROP PROCEDURE IF EXISTS `{prefix}get_queue_date`;
+DELIMITER ;;
+CREATE PROCEDURE `{prefix}get_queue_date`(`after` DATETIME, `server_id` BIGINT UNSIGNED)
+BEGIN
+  SELECT
+    `c`.`id`,
+    `s`.`uuid` AS `server_id`,
+    `s`.`name` AS `server_name`,
+    `p`.`uuid` AS `player_id`,
+    `p`.`name` AS `player_name`,
+    `c`.`level`,
+    `l`.`name` AS `level_name`,
+    `c`.`message`,
+    `c`.`date`
+  FROM `{prefix}posted_chat` `c`
+  JOIN `{prefix}servers` `s` ON `s`.`id` = `c`.`server_id`
+  JOIN `{prefix}players` `p` ON `p`.`id` = `c`.`player_id`
+  JOIN `{prefix}levels` `l` ON `l`.`id` = `c`.`level`
+  WHERE `server_id` <> `c`.`server_id` AND `c`.`date` > `after`;
+END ;;
+DELIMITER ;
+
+DROP PROCEDURE IF EXISTS `{prefix}get_queue_id`;
+DELIMITER ;;
+CREATE PROCEDURE `{prefix}get_queue_id`(`after` BIGINT UNSIGNED, `server_id` BIGINT)
+BEGIN
+  SELECT
+    `c`.`id`,
+    `s`.`uuid` AS `server_id`,
+    `s`.`name` AS `server_name`,
+    `p`.`uuid` AS `player_id`,
+    `p`.`name` AS `player_name`,
+    `c`.`level`,
+    `l`.`name` AS `level_name`,
+    `c`.`message`,
+    `c`.`date`
+  FROM `{prefix}posted_chat` `c`
+  JOIN `{prefix}servers` `s` ON `s`.`id` = `c`.`server_id`
+  JOIN `{prefix}players` `p` ON `p`.`id` = `c`.`player_id`
+  JOIN `{prefix}levels` `l` ON `l`.`id` = `c`.`level`
+  WHERE `server_id` <> `c`.`server_id` AND `c`.`id` > `after`;
+END ;;
+DELIMITER ;
@@ -0,0 +1,86 @@
+ALTER TABLE `{prefix}posted_chat`
+  ADD INDEX `{prefix}posted_chat_date_idx` (`date`), ALGORITHM=INPLACE, LOCK=NONE;
+-- @step
+ALTER TABLE `{prefix}posted_chat`
+  ADD INDEX `{prefix}posted_chat_player_id_date_idx` (`player_id`, `date`), ALGORITHM=INPLACE, LOCK=NONE;
+-- @step
+ALTER TABLE `{prefix}posted_chat`
+  ADD INDEX `{prefix}posted_chat_level_date_idx` (`level`, `date`), ALGORITHM=INPLACE, LOCK=NONE;
+-- @step
+ALTER TABLE `{prefix}posted_chat`
+  ADD INDEX `{prefix}posted_chat_server_id_date_idx` (`server_id`, `date`), ALGORITHM=INPLACE, LOCK=NONE;
+-- @step
+ALTER TABLE `{prefix}posted_chat`
+  DROP INDEX `{prefix}fk_posted_chat_player_id_idx`,
+  DROP INDEX `{prefix}fk_posted_chat_level_idx`,
+  DROP INDEX `{prefix}fk_posted_chat_server_id_idx`, ALGORITHM=INPLACE, LOCK=NONE;
+-- @step
+DROP PROCEDURE IF EXISTS `{prefix}get_messages_player`;
+DELIMITER ;;
+CREATE PROCEDURE `{prefix}get_messages_player`(`player_id` BIGINT UNSIGNED, `days` INT)
+BEGIN
+  DECLARE `from` DATETIME DEFAULT DATE_SUB(CURRENT_TIMESTAMP, INTERVAL IFNULL(`days`, 1) DAY);
+  SELECT
+    `c`.`id`,
+    `s`.`uuid` AS `server_id`,
+    `s`.`name` AS `server_name`,
+    `p`.`uuid` AS `player_id`,
+    `p`.`name` AS `player_name`,
+    `c`.`level`,
+    `l`.`name` AS `level_name`,
+    `c`.`message`,
+    `c`.`date`
+  FROM `{prefix}posted_chat` `c`
+  JOIN `{prefix}servers` `s` ON `s`.`id` = `c`.`server_id`
+  JOIN `{prefix}players` `p` ON `p`.`id` = `c`.`player_id`
+  JOIN `{prefix}levels` `l` ON `l`.`id` = `c`.`level`
+  WHERE `c`.`player_id` = `player_id` AND `c`.`date` >= `from`
+  ORDER BY `c`.`date`, `c`.`id`;
+END ;;
+DELIMITER ;
+
+DROP PROCEDURE IF EXISTS `{prefix}get_queue_date`;
+DELIMITER ;;
+CREATE PROCEDURE `{prefix}get_queue_date`(`after` DATETIME, `server_id` BIGINT UNSIGNED)
+BEGIN
+  SELECT
+    `c`.`id`,
+    `s`.`uuid` AS `server_id`,
+    `s`.`name` AS `server_name`,
+    `p`.`uuid` AS `player_id`,
+    `p`.`name` AS `player_name`,
+    `c`.`level`,
+    `l`.`name` AS `level_name`,
+    `c`.`message`,
+    `c`.`date`
+  FROM `{prefix}posted_chat` `c`
+  JOIN `{prefix}servers` `s` ON `s`.`id` = `c`.`server_id`
+  JOIN `{prefix}players` `p` ON `p`.`id` = `c`.`player_id`
+  JOIN `{prefix}levels` `l` ON `l`.`id` = `c`.`level`
+  WHERE `c`.`date` > `after` AND `c`.`server_id` <> `server_id`
+  ORDER BY `c`.`date`, `c`.`id`;
+END ;;
+DELIMITER ;
+
+DROP PROCEDURE IF EXISTS `{prefix}get_queue_id`;
+DELIMITER ;;
+CREATE PROCEDURE `{prefix}get_queue_id`(`after` BIGINT UNSIGNED, `server_id` BIGINT)
+BEGIN
+  SELECT
+    `c`.`id`,
+    `s`.`uuid` AS `server_id`,
+    `s`.`name` AS `server_name`,
+    `p`.`uuid` AS `player_id`,
+    `p`.`name` AS `player_name`,
+    `c`.`level`,
+    `l`.`name` AS `level_name`,
+    `c`.`message`,
+    `c`.`date`
+  FROM `{prefix}posted_chat` `c`
+  JOIN `{prefix}servers` `s` ON `s`.`id` = `c`.`server_id`
+  JOIN `{prefix}players` `p` ON `p`.`id` = `c`.`player_id`
+  JOIN `{prefix}levels` `l` ON `l`.`id` = `c`.`level`
+  WHERE `c`.`id` > `after` AND `c`.`server_id` <> `server_id`
+  ORDER BY `c`.`id`;
+END ;;
+DELIMITER ;
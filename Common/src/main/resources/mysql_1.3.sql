@@ -0,0 +1,22 @@
+DROP PROCEDURE IF EXISTS `{prefix}get_queue_id`;
+DELIMITER ;;
+CREATE PROCEDURE `{prefix}get_queue_id`(`after` BIGINT UNSIGNED, `server_id` BIGINT)
+BEGIN
+  SELECT
+    `c`.`id`,
+    `s`.`uuid` AS `server_id`,
+    `s`.`name` AS `server_name`,
+    `p`.`uuid` AS `player_id`,
+    `p`.`name` AS `player_name`,
+    `c`.`level`,
+    `l`.`name` AS `level_name`,
+    `c`.`message`,
+    `c`.`date`
+  FROM `{prefix}posted_chat` `c`
+  JOIN `{prefix}servers` `s` ON `s`.`id` = `c`.`server_id`
+  JOIN `{prefix}players` `p` ON `p`.`id` = `c`.`player_id`
+  JOIN `{prefix}levels` `l` ON `l`.`id` = `c`.`level`
+  WHERE `c`.`id` > `after` AND `c`.`server_id` <> `server_id`
+  ORDER BY `c`.`id`;
+END ;;
+DELIMITER ;
@@ -0,0 +1,20 @@
+DROP PROCEDURE IF EXISTS `{prefix}truncate`;
+DELIMITER ;;
+CREATE PROCEDURE `{prefix}truncate`(`name` VARCHAR(32))
+BEGIN
+  DECLARE EXIT HANDLER FOR SQLEXCEPTION
+  BEGIN
+    SET FOREIGN_KEY_CHECKS = 1;
+    RESIGNAL;
+  END;
+
+  SET FOREIGN_KEY_CHECKS = 0;
+  CASE `name`
+    WHEN 'levels' THEN TRUNCATE `{prefix}levels`;
+    WHEN 'servers' THEN TRUNCATE `{prefix}servers`;
+    WHEN 'players' THEN TRUNCATE `{prefix}players`;
+    WHEN 'posted_chat' THEN TRUNCATE `{prefix}posted_chat`;
+  END CASE;
+  SET FOREIGN_KEY_CHECKS = 1;
+END ;;
+DELIMITER ;
@@ -1,3 +1,4 @@
+PRAGMA auto_vacuum = INCREMENTAL;
 PRAGMA foreign_keys = OFF;
 
 DROP TABLE IF EXISTS `{prefix}data`;
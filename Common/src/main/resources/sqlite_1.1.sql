@@ -0,0 +1 @@
+ALTER TABLE `{prefix}players` ADD COLUMN "name" TEXT NULL DEFAULT NULL;
@@ -0,0 +1,9 @@
+CREATE INDEX IF NOT EXISTS `{prefix}posted_chat_date_idx` ON `{prefix}posted_chat` (`date`);
+-- @step
+CREATE INDEX IF NOT EXISTS `{prefix}posted_chat_player_id_date_idx` ON `{prefix}posted_chat` (`player_id`, `date`);
+-- @step
+CREATE INDEX IF NOT EXISTS `{prefix}posted_chat_level_date_idx` ON `{prefix}posted_chat` (`level`, `date`);
+-- @step
+CREATE INDEX IF NOT EXISTS `{prefix}posted_chat_server_id_date_idx` ON `{prefix}posted_chat` (`server_id`, `date`);
+-- @step
+ANALYZE `{prefix}posted_chat`;
@@ -0,0 +1,109 @@
+package me.egg82.ssc.core;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+class ChatCursorTest {
+    private static final UUID SERVER_ID = UUID.fromString("11111111-2222-4333-8444-555555555555");
+    private static final UUID PLAYER_ID = UUID.fromString("66666666-7777-4888-9999-aaaaaaaaaaaa");
+
+    @Test
+    void since() {
+        ChatCursor cursor = ChatCursor.since(1000L);
+        assertFalse(cursor.includes(999L, 5L));
+        assertTrue(cursor.includes(1000L, 0L));
+        assertTrue(cursor.includes(1000L, 1L));
+        assertTrue(cursor.includes(1001L, 0L));
+    }
+
+    @Test
+    void after() {
+        ChatCursor cursor = ChatCursor.after(getChat(7L, 1000L));
+        assertEquals(new ChatCursor(1000L, 7L), cursor);
+        assertEquals(new ChatCursor(1000L, 7L).hashCode(), cursor.hashCode());
+
+        // Same date, ordered by ID
+        assertFalse(cursor.includes(1000L, 6L));
+        assertFalse(cursor.includes(1000L, 7L));
+        assertTrue(cursor.includes(1000L, 8L));
+
+        // A later date wins even with a lower ID
+        assertTrue(cursor.includes(1001L, 1L));
+        assertFalse(cursor.includes(999L, 100L));
+    }
+
+    @Test
+    void compare() {
+        assertTrue(ChatCursor.compare(1L, 9L, 2L, 1L) < 0);
+        assertTrue(ChatCursor.compare(2L, 1L, 1L, 9L) > 0);
+        assertTrue(ChatCursor.compare(2L, 1L, 2L, 3L) < 0);
+        assertEquals(0, ChatCursor.compare(2L, 3L, 2L, 3L));
+    }
+
+    @Test
+    void pagesWithoutSkipsOrRepeats() {
+        // Lots of posts sharing a date, with IDs not in date order
+        Random random = new Random(82L);
+        List<ChatResult> posts = new ArrayList<>();
+        for (long id = 1L; id <= 500L; id++) {
+            posts.add(getChat(id, 1000L + random.nextInt(20)));
+        }
+        Collections.shuffle(posts, random);
+
+        for (int limit : new int[] { 1, 3, 7, 50, 1000 }) {
+            Set<Long> seen = new HashSet<>();
+            ChatResult last = null;
+            ChatCursor cursor = ChatCursor.since(1000L);
+            List<ChatResult> page;
+            do {
+                page = getPage(posts, cursor, limit);
+                assertTrue(page.size() <= limit);
+                for (ChatResult chat : page) {
+                    assertTrue(seen.add(chat.getID()), "repeated " + chat.getID() + " with limit " + limit);
+                    if (last != null) {
+                        assertTrue(ChatCursor.compare(last.getDateTime(), last.getID(), chat.getDateTime(), chat.getID()) < 0);
+                    }
+                    last = chat;
+                    cursor = ChatCursor.after(chat);
+                }
+            } while (!page.isEmpty());
+            assertEquals(posts.size(), seen.size(), "limit " + limit);
+        }
+    }
+
+    @Test
+    void sinceSkipsEarlierPosts() {
+        List<ChatResult> posts = new ArrayList<>();
+        posts.add(getChat(1L, 900L));
+        posts.add(getChat(2L, 1000L));
+        posts.add(getChat(3L, 1000L));
+        posts.add(getChat(4L, 950L));
+
+        List<ChatResult> page = getPage(posts, ChatCursor.since(1000L), 10);
+        assertEquals(2, page.size());
+        assertEquals(2L, page.get(0).getID());
+        assertEquals(3L, page.get(1).getID());
+    }
+
+    // The same paging the storage engines do, over an in-memory list
+    private List<ChatResult> getPage(List<ChatResult> posts, ChatCursor after, int limit) {
+        List<ChatResult> retVal = new ArrayList<>();
+        for (ChatResult chat : posts) {
+            if (after.includes(chat.getDateTime(), chat.getID())) {
+                retVal.add(chat);
+            }
+        }
+        retVal.sort((a, b) -> ChatCursor.compare(a.getDateTime(), a.getID(), b.getDateTime(), b.getID()));
+        return retVal.size() > limit ? retVal.subList(0, limit) : retVal;
+    }
+
+    private ChatResult getChat(long id, long date) { return new ChatResult(id, SERVER_ID, "Lobby", PLAYER_ID, "egg82", (byte) 3, "Mods", "Hello " + id, date); }
+}
@@ -0,0 +1,164 @@
+package me.egg82.ssc.messaging.codec;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import me.egg82.ssc.messaging.MessagingException;
+import org.junit.jupiter.api.Test;
+
+class MessagingCodecTest {
+    private static final UUID SENDER = UUID.fromString("7a1c3c4e-2f5b-4d8e-9c0a-1b2c3d4e5f60");
+    private static final UUID MESSAGE_ID = UUID.fromString("0f1e2d3c-4b5a-4978-8695-a4b3c2d1e0f9");
+    private static final UUID SERVER_ID = UUID.fromString("11111111-2222-4333-8444-555555555555");
+    private static final UUID PLAYER_ID = UUID.fromString("66666666-7777-4888-9999-aaaaaaaaaaaa");
+
+    private static List<Packet> getPackets() {
+        return Arrays.asList(
+                Packet.level(SENDER, MESSAGE_ID, (byte) 3, "Mods"),
+                Packet.server(SENDER, MESSAGE_ID, 12L, SERVER_ID, "Lobby"),
+                Packet.player(SENDER, MESSAGE_ID, 300L, PLAYER_ID),
+                Packet.post(SENDER, MESSAGE_ID, 5678L, 12L, SERVER_ID, "Lobby", 300L, PLAYER_ID, "egg82", (byte) 3, "Mods", "Hello \u00e9 \u4e16\u754c \ud83d\ude00", 1577836800123L),
+                Packet.toggle(SENDER, MESSAGE_ID, PLAYER_ID, (byte) 3)
+        );
+    }
+
+    private static Packet getPostWithoutName() {
+        return Packet.post(SENDER, MESSAGE_ID, 5678L, 12L, SERVER_ID, "Lobby", 300L, PLAYER_ID, null, (byte) 3, "Mods", "Hello", 1577836800123L);
+    }
+
+    @Test
+    void coversEveryType() {
+        Set<Packet.Type> types = EnumSet.noneOf(Packet.Type.class);
+        for (Packet packet : getPackets()) {
+            types.add(packet.getType());
+        }
+        assertEquals(EnumSet.allOf(Packet.Type.class), types);
+    }
+
+    @Test
+    void roundTripJSON() throws MessagingException { roundTrip(MessagingCodec.JSON); }
+
+    @Test
+    void roundTripBinary() throws MessagingException { roundTrip(MessagingCodec.BINARY); }
+
+    @Test
+    void roundTripNullPlayerName() throws MessagingException {
+        for (MessagingCodec codec : new MessagingCodec[] { MessagingCodec.JSON, MessagingCodec.BINARY }) {
+            Packet packet = getPostWithoutName();
+            Packet decoded = codec.decode(null, codec.encode(packet));
+            assertNull(decoded.getPlayerName(), codec.getName());
+            assertPacketEquals(packet, decoded);
+        }
+    }
+
+    @Test
+    void binaryWithoutTrailingPlayerName() throws MessagingException {
+        // Posts from before player names were added end right after the date
+        Packet packet = getPostWithoutName();
+        byte[] data = MessagingCodec.BINARY.encode(packet);
+        Packet decoded = MessagingCodec.BINARY.decode(null, Arrays.copyOf(data, data.length - 1));
+        assertPacketEquals(packet, decoded);
+    }
+
+    @Test
+    void truncatedBinary() {
+        for (Packet packet : getPackets()) {
+            byte[] data = MessagingCodec.BINARY.encode(packet);
+            // A post cut off right before the player name is a valid older post
+            int olderPost = packet.getType() == Packet.Type.POST ? data.length - 1 - packet.getPlayerName().length() : -1;
+            for (int length = 0; length < data.length; length++) {
+                if (length == olderPost) {
+                    continue;
+                }
+                byte[] truncated = Arrays.copyOf(data, length);
+                assertThrows(MessagingException.class, () -> MessagingCodec.BINARY.decode(null, truncated), packet.getType() + " cut to " + length + " bytes");
+            }
+        }
+    }
+
+    @Test
+    void truncatedJSON() {
+        for (Packet packet : getPackets()) {
+            byte[] data = MessagingCodec.JSON.encode(packet);
+            for (int length = 0; length < data.length; length++) {
+                byte[] truncated = Arrays.copyOf(data, length);
+                assertThrows(MessagingException.class, () -> MessagingCodec.JSON.decode(null, truncated), packet.getType() + " cut to " + length + " bytes");
+            }
+        }
+    }
+
+    @Test
+    void binaryNegativeStringLength() {
+        byte[] data = MessagingCodec.BINARY.encode(Packet.level(SENDER, MESSAGE_ID, (byte) 3, "Mods"));
+        // Swap the name for a varint length of -1
+        byte[] corrupt = Arrays.copyOf(data, 35 + 10);
+        Arrays.fill(corrupt, 35, 44, (byte) 0xFF);
+        corrupt[44] = 0x01;
+        assertThrows(MessagingException.class, () -> MessagingCodec.BINARY.decode(null, corrupt));
+    }
+
+    @Test
+    void binaryWrongVersionOrType() {
+        byte[] data = MessagingCodec.BINARY.encode(Packet.toggle(SENDER, MESSAGE_ID, PLAYER_ID, (byte) 3));
+        assertThrows(MessagingException.class, () -> MessagingCodec.BINARY.decode(Packet.Type.POST, data));
+
+        byte[] badVersion = data.clone();
+        badVersion[0] = 2;
+        assertThrows(MessagingException.class, () -> MessagingCodec.BINARY.decode(null, badVersion));
+
+        byte[] badType = data.clone();
+        badType[1] = 42;
+        assertThrows(MessagingException.class, () -> MessagingCodec.BINARY.decode(null, badType));
+    }
+
+    @Test
+    void detect() throws MessagingException {
+        for (Packet packet : getPackets()) {
+            byte[] json = MessagingCodec.JSON.encode(packet);
+            byte[] binary = MessagingCodec.BINARY.encode(packet);
+            assertSame(MessagingCodec.JSON, MessagingCodec.detect(json));
+            assertSame(MessagingCodec.BINARY, MessagingCodec.detect(binary));
+            assertPacketEquals(packet, MessagingCodec.detect(json).decode(null, json));
+            assertPacketEquals(packet, MessagingCodec.detect(binary).decode(null, binary));
+        }
+        assertSame(MessagingCodec.BINARY, MessagingCodec.detect(new byte[0]));
+    }
+
+    @Test
+    void fromName() {
+        assertSame(MessagingCodec.JSON, MessagingCodec.fromName("JSON"));
+        assertSame(MessagingCodec.BINARY, MessagingCodec.fromName("binary"));
+        assertNull(MessagingCodec.fromName("xml"));
+    }
+
+    private void roundTrip(MessagingCodec codec) throws MessagingException {
+        for (Packet packet : getPackets()) {
+            byte[] data = codec.encode(packet);
+            // Once with the type from the data itself, and once with it known from the channel
+            assertPacketEquals(packet, codec.decode(null, data));
+            assertPacketEquals(packet, codec.decode(packet.getType(), data));
+        }
+    }
+
+    private void assertPacketEquals(Packet expected, Packet actual) {
+        String type = expected.getType().name();
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getSender(), actual.getSender(), type);
+        assertEquals(expected.getMessageID(), actual.getMessageID(), type);
+        assertEquals(expected.getPostID(), actual.getPostID(), type);
+        assertEquals(expected.getLongServerID(), actual.getLongServerID(), type);
+        assertEquals(expected.getServerID(), actual.getServerID(), type);
+        assertEquals(expected.getServerName(), actual.getServerName(), type);
+        assertEquals(expected.getLongPlayerID(), actual.getLongPlayerID(), type);
+        assertEquals(expected.getPlayerID(), actual.getPlayerID(), type);
+        assertEquals(expected.getPlayerName(), actual.getPlayerName(), type);
+        assertEquals(expected.getLevel(), actual.getLevel(), type);
+        assertEquals(expected.getLevelName(), actual.getLevelName(), type);
+        assertEquals(expected.getMessage(), actual.getMessage(), type);
+        assertEquals(expected.getDate(), actual.getDate(), type);
+    }
+}
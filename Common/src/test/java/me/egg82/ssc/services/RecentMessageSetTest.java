@@ -0,0 +1,91 @@
+package me.egg82.ssc.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class RecentMessageSetTest {
+    @Test
+    void rejectsBadArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new RecentMessageSet(0L, TimeUnit.SECONDS, 10));
+        assertThrows(IllegalArgumentException.class, () -> new RecentMessageSet(1L, TimeUnit.SECONDS, 0));
+    }
+
+    @Test
+    void duplicates() {
+        RecentMessageSet set = new RecentMessageSet(1L, TimeUnit.HOURS, 1000);
+        // Sequential IDs land next to each other, so this also walks the probing
+        for (long i = 1L; i <= 1000L; i++) {
+            assertTrue(set.add(new UUID(0L, i)));
+        }
+        for (long i = 1L; i <= 1000L; i++) {
+            assertTrue(set.contains(new UUID(0L, i)));
+            assertFalse(set.add(new UUID(0L, i)));
+        }
+        assertFalse(set.contains(new UUID(0L, 1001L)));
+        assertFalse(set.contains(new UUID(1L, 1L)));
+        assertEquals(1000, set.size());
+    }
+
+    @Test
+    void nilUUID() {
+        RecentMessageSet set = new RecentMessageSet(1L, TimeUnit.HOURS, 10);
+        UUID nil = new UUID(0L, 0L);
+        assertFalse(set.contains(nil));
+        assertTrue(set.add(nil));
+        assertTrue(set.contains(nil));
+        assertFalse(set.add(nil));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    void evictsOldestGenerationWhenFull() {
+        // One ID per generation, and four generations
+        RecentMessageSet set = new RecentMessageSet(1L, TimeUnit.HOURS, 1);
+        UUID[] ids = new UUID[5];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = UUID.randomUUID();
+        }
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(set.add(ids[i]));
+        }
+        for (int i = 0; i < 4; i++) {
+            assertTrue(set.contains(ids[i]));
+        }
+
+        // The fifth wraps around and wipes the generation holding the first
+        assertTrue(set.add(ids[4]));
+        assertFalse(set.contains(ids[0]));
+        for (int i = 1; i < 5; i++) {
+            assertTrue(set.contains(ids[i]));
+        }
+        assertEquals(4, set.size());
+        assertTrue(set.add(ids[0]));
+        assertFalse(set.contains(ids[1]));
+    }
+
+    @Test
+    void rolloverByTime() throws InterruptedException {
+        // A 30ms window is three 10ms slices
+        RecentMessageSet set = new RecentMessageSet(30L, TimeUnit.MILLISECONDS, 10);
+        UUID first = UUID.randomUUID();
+        assertTrue(set.add(first));
+
+        // Remembered through the next three slices
+        for (int i = 0; i < 3; i++) {
+            Thread.sleep(15L);
+            assertTrue(set.add(UUID.randomUUID()));
+            assertTrue(set.contains(first), "slice " + (i + 1));
+            assertFalse(set.add(first));
+        }
+
+        // The fourth reuses its generation
+        Thread.sleep(15L);
+        assertTrue(set.add(UUID.randomUUID()));
+        assertFalse(set.contains(first));
+        assertTrue(set.add(first));
+    }
+}
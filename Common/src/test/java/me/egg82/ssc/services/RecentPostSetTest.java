@@ -0,0 +1,83 @@
+package me.egg82.ssc.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class RecentPostSetTest {
+    @Test
+    void rejectsSmallWindow() { assertThrows(IllegalArgumentException.class, () -> new RecentPostSet(63)); }
+
+    @Test
+    void duplicates() {
+        RecentPostSet set = new RecentPostSet(64);
+        assertFalse(set.contains(1L));
+        assertTrue(set.add(1L));
+        assertTrue(set.contains(1L));
+        assertFalse(set.add(1L));
+
+        // Out of order, but still inside the window
+        assertTrue(set.add(5L));
+        assertTrue(set.add(3L));
+        assertFalse(set.add(3L));
+        assertFalse(set.contains(2L));
+        assertFalse(set.contains(6L));
+    }
+
+    @Test
+    void negativeIDsAreNeverRemembered() {
+        RecentPostSet set = new RecentPostSet(64);
+        assertTrue(set.add(-1L));
+        assertTrue(set.add(-1L));
+        assertFalse(set.contains(-1L));
+    }
+
+    @Test
+    void rollover() {
+        RecentPostSet set = new RecentPostSet(64);
+        for (long i = 0L; i < 64L; i++) {
+            assertTrue(set.add(i));
+        }
+
+        // 64 takes 0's slot, so 0 falls out of the window and counts as seen
+        assertTrue(set.add(64L));
+        assertTrue(set.contains(0L));
+        assertFalse(set.add(0L));
+
+        // 1 is still in the window, and its slot wasn't touched
+        assertTrue(set.contains(1L));
+        assertFalse(set.add(1L));
+
+        // Slots reused by newer IDs start out unseen
+        assertTrue(set.add(100L));
+        assertFalse(set.contains(99L));
+        assertTrue(set.add(99L));
+        assertTrue(set.contains(36L));
+        assertFalse(set.add(36L));
+        assertTrue(set.contains(63L));
+    }
+
+    @Test
+    void jumpPastWindow() {
+        RecentPostSet set = new RecentPostSet(64);
+        assertTrue(set.add(10L));
+        assertTrue(set.add(1000L));
+        assertTrue(set.contains(10L));
+        // 970 is inside the new window, and its slot was wiped on the jump
+        assertFalse(set.contains(970L));
+        assertTrue(set.add(970L));
+        assertFalse(set.add(1000L));
+    }
+
+    @Test
+    void roundsWindowUp() {
+        RecentPostSet set = new RecentPostSet(100);
+        assertTrue(set.add(0L));
+        // Rounded up to 128, so 127 IDs later 0 is still tracked rather than assumed seen
+        assertTrue(set.add(127L));
+        assertTrue(set.contains(0L));
+        assertFalse(set.add(0L));
+        assertTrue(set.add(128L));
+        assertFalse(set.add(0L));
+    }
+}
@@ -0,0 +1,97 @@
+package me.egg82.ssc.storage;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import me.egg82.ssc.services.StorageHandler;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Posts/sec through the SQLite engine, printed for each setup so runs can be compared
+ *
+ * The first setup uses the old settings, a rollback journal with full syncs, with one poster so every post is its own commit.
+ * The others use the current defaults, with one poster and then with several posting at once so the writer can group them
+ */
+class SQLiteThroughputTest {
+    private static final int POSTS = 2000;
+    private static final int THREADS = 8;
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void throughput() throws Exception {
+        double rollback = run("rollback", "journal_mode=DELETE&synchronous=FULL", 1);
+        double wal = run("wal", "", 1);
+        double walConcurrent = run("wal-concurrent", "", THREADS);
+
+        System.out.println(String.format("SQLite posts/sec: rollback journal %.0f, WAL %.0f, WAL with %d posters %.0f", rollback, wal, THREADS, walConcurrent));
+    }
+
+    private double run(String name, String options, int threads) throws IOException, StorageException, InterruptedException, ExecutionException {
+        SQLite storage = SQLite.builder(UUID.randomUUID(), name, new NoopHandler())
+                .file(folder.resolve(name + ".db").toFile(), "ssc_")
+                .options(options)
+                .build();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            // Players are made up front, so only posts are timed
+            UUID[] players = new UUID[threads];
+            for (int i = 0; i < threads; i++) {
+                players[i] = UUID.randomUUID();
+                storage.post(players[i], "player" + i, (byte) 1, "Warmup");
+            }
+
+            List<Callable<List<Long>>> tasks = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                UUID player = players[i];
+                int count = POSTS / threads;
+                tasks.add(() -> {
+                    List<Long> ids = new ArrayList<>(count);
+                    for (int j = 0; j < count; j++) {
+                        ids.add(storage.post(player, null, (byte) 1, "Message " + j).getID());
+                    }
+                    return ids;
+                });
+            }
+
+            long start = System.nanoTime();
+            List<Future<List<Long>>> results = pool.invokeAll(tasks);
+            long elapsed = System.nanoTime() - start;
+
+            Set<Long> ids = new HashSet<>();
+            for (Future<List<Long>> result : results) {
+                for (long id : result.get()) {
+                    assertTrue(id > 0L, name);
+                    assertTrue(ids.add(id), name + " handed out ID " + id + " twice");
+                }
+            }
+            int posted = (POSTS / threads) * threads;
+            assertEquals(posted, ids.size(), name);
+            assertEquals(posted + threads, storage.dumpChat(0L, posted * 2).size(), name);
+
+            return posted / (elapsed / 1_000_000_000.0d);
+        } finally {
+            pool.shutdownNow();
+            storage.close();
+        }
+    }
+
+    private static class NoopHandler implements StorageHandler {
+        public void playerIDCreationCallback(UUID playerID, long longPlayerID, Storage callingStorage) { }
+
+        public void levelUpdateCallback(byte level, String name, Storage callingStorage) { }
+    }
+}